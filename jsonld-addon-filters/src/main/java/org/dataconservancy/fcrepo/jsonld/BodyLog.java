@@ -0,0 +1,100 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.fcrepo.jsonld;
+
+import static org.dataconservancy.fcrepo.jsonld.ConfigUtil.JSONLD_LOG_BODY_MAX;
+import static org.dataconservancy.fcrepo.jsonld.ConfigUtil.JSONLD_LOG_BODY_SAMPLE;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Debug logging of request and response bodies.
+ * <p>
+ * Nothing is done unless debug logging is enabled for the logger; in particular, the body is not produced, as it is
+ * given by a supplier. Only a preview of the first <code>jsonld.log.body.max</code> characters (2048 by default) of a
+ * body is logged. If <code>jsonld.log.body.sample</code> is set to <em>n</em>, only one in <em>n</em> bodies is
+ * logged. Both are read from the current configuration each time a body is logged, so they follow reloads.
+ * </p>
+ *
+ * @author apb@jhu.edu
+ */
+public class BodyLog {
+
+    static final int DEFAULT_MAX = 2048;
+
+    static final int DEFAULT_SAMPLE = 1;
+
+    private final Logger log;
+
+    private final IntSupplier max;
+
+    private final IntSupplier sample;
+
+    private final AtomicLong seen = new AtomicLong();
+
+    /**
+     * Log bodies with the logger of the given class, and configured limits.
+     *
+     * @param type The class
+     */
+    public BodyLog(Class<?> type) {
+        this(LoggerFactory.getLogger(type),
+             () -> ConfigSnapshot.current().getInt(JSONLD_LOG_BODY_MAX, DEFAULT_MAX),
+             () -> ConfigSnapshot.current().getInt(JSONLD_LOG_BODY_SAMPLE, DEFAULT_SAMPLE));
+    }
+
+    BodyLog(Logger log, int max, int sample) {
+        this(log, () -> max, () -> sample);
+    }
+
+    BodyLog(Logger log, IntSupplier max, IntSupplier sample) {
+        this.log = log;
+        this.max = max;
+        this.sample = sample;
+    }
+
+    /**
+     * Log a preview of a body, if debug logging is enabled, and it is sampled.
+     *
+     * @param message Message describing the body.
+     * @param body Supplies the body; only called if the body is logged.
+     */
+    public void debug(String message, Supplier<? extends CharSequence> body) {
+        if (!log.isDebugEnabled()) {
+            return;
+        }
+
+        final int sample = Math.max(1, this.sample.getAsInt());
+        if (sample > 1 && seen.getAndIncrement() % sample != 0) {
+            return;
+        }
+
+        final int max = Math.max(0, this.max.getAsInt());
+        final CharSequence content = body.get();
+        if (content == null || content.length() <= max) {
+            log.debug("{}:\n{}", message, content);
+        } else {
+            log.debug("{} (first {} of {} characters):\n{}", message, max, content.length(), content.subSequence(0,
+                                                                                                                max));
+        }
+    }
+}
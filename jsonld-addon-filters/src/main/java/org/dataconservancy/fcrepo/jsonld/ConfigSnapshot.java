@@ -0,0 +1,182 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.fcrepo.jsonld;
+
+import static org.dataconservancy.fcrepo.jsonld.ConfigUtil.toPropName;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Immutable view of all configuration, taken at one point in time.
+ * <p>
+ * Environment variables, system properties, and properties of the {@link ReloadableConfig reloadable configuration
+ * file} are read once, and indexed by name in "property normal form"; where a name is defined by more than one, the
+ * file takes precedence over system properties, which take precedence over the environment. Lookups are then a map
+ * access, and properties with a given prefix are a range of a sorted map, rather than a scan of everything.
+ * </p>
+ * <p>
+ * The {@link #current() current} snapshot is taken again by {@link #refresh()}, which filters do when initialized,
+ * and which is done on every reload of the configuration; so filters configuring themselves at those times see every
+ * property as it is then. Changes to system properties made at any other time are not seen until the next refresh.
+ * </p>
+ *
+ * @author apb@jhu.edu
+ */
+public class ConfigSnapshot {
+
+    static final Logger LOG = LoggerFactory.getLogger(ConfigSnapshot.class);
+
+    private static volatile ConfigSnapshot current;
+
+    private final NavigableMap<String, String> values;
+
+    ConfigSnapshot(Map<String, String> env, Map<String, String> system, Map<String, String> file) {
+        final NavigableMap<String, String> values = new TreeMap<>();
+        putAll(values, env);
+        putAll(values, system);
+        putAll(values, file);
+        this.values = Collections.unmodifiableNavigableMap(values);
+    }
+
+    private static void putAll(Map<String, String> values, Map<String, String> properties) {
+        for (final Map.Entry<String, String> property : properties.entrySet()) {
+            if (property.getValue() != null) {
+                values.put(toPropName(property.getKey()), property.getValue());
+            }
+        }
+    }
+
+    /**
+     * The most recent snapshot.
+     *
+     * @return the snapshot, taken now if there is none yet.
+     */
+    public static ConfigSnapshot current() {
+        final ConfigSnapshot snapshot = current;
+        return snapshot != null ? snapshot : refresh();
+    }
+
+    /**
+     * Take a new snapshot of all configuration, and make it the current one.
+     *
+     * @return the new snapshot
+     */
+    public static ConfigSnapshot refresh() {
+        final Map<String, String> system = new LinkedHashMap<>();
+        for (final String name : System.getProperties().stringPropertyNames()) {
+            system.put(name, System.getProperty(name));
+        }
+
+        final ConfigSnapshot snapshot = new ConfigSnapshot(System.getenv(), system, ReloadableConfig.properties());
+        current = snapshot;
+        return snapshot;
+    }
+
+    /**
+     * Get the value of a property.
+     *
+     * @param key Property name, in either property or environment variable form.
+     * @return the value, or null if not defined.
+     */
+    public String get(String key) {
+        return values.get(toPropName(key));
+    }
+
+    /**
+     * Determine if a flag is set; that is, defined as anything other than <code>false</code>.
+     *
+     * @param key Property name
+     * @return true if set.
+     */
+    public boolean isSet(String key) {
+        final String value = get(key);
+        return value != null && !value.equals("false");
+    }
+
+    /**
+     * Get the value of an integer property.
+     *
+     * @param key Property name
+     * @param defaultValue Value if not defined, or not an integer.
+     * @return the value
+     */
+    public int getInt(String key, int defaultValue) {
+        return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, getLong(key, defaultValue)));
+    }
+
+    /**
+     * Get the value of a long integer property.
+     *
+     * @param key Property name
+     * @param defaultValue Value if not defined, or not an integer.
+     * @return the value
+     */
+    public long getLong(String key, long defaultValue) {
+        final String value = get(key);
+        try {
+            return value != null ? Long.parseLong(value.trim()) : defaultValue;
+        } catch (final NumberFormatException e) {
+            LOG.warn("Bad value of {}: '{}', using default of {}", key, value, defaultValue);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Get all properties that begin with a given prefix.
+     * <p>
+     * A property matches if its name is the prefix, or begins with the prefix followed by a single separator
+     * character; e.g. <code>my.prefix.abc.123 = myValue</code> matches prefix <code>my.prefix</code>, giving an entry
+     * with key <code>abc.123</code> and value <code>myValue</code>. <code>my.prefixes.abc</code> does not match.
+     * </p>
+     *
+     * @param prefix The prefix, in either property or environment variable form.
+     * @return unmodifiable map of the rest of each matching property name to its value.
+     */
+    public Map<String, String> withPrefix(String prefix) {
+        final String normalized = toPropName(prefix);
+        final Map<String, String> matching = new LinkedHashMap<>();
+
+        final String exact = values.get(normalized);
+        if (exact != null) {
+            matching.put("", exact);
+        }
+
+        for (final Map.Entry<String, String> property : values.subMap(normalized + ".", true, normalized + "/", false)
+            .entrySet()) {
+            matching.put(property.getKey().substring(normalized.length() + 1), property.getValue());
+        }
+
+        return Collections.unmodifiableMap(matching);
+    }
+
+    /**
+     * All property names.
+     *
+     * @return unmodifiable, sorted, set of names in property normal form.
+     */
+    public Set<String> names() {
+        return values.keySet();
+    }
+}
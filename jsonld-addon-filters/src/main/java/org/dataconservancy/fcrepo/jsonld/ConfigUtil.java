@@ -18,8 +18,8 @@ package org.dataconservancy.fcrepo.jsonld;
 
 import static java.util.stream.Stream.concat;
 
+import java.util.HashMap;
 import java.util.Map;
-import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import org.slf4j.Logger;
@@ -27,6 +27,10 @@ import org.slf4j.LoggerFactory;
 
 /**
  * Configuration utility for reading system properties and environment variables.
+ * <p>
+ * These methods look at system properties and environment variables as they are at the time; filters read their
+ * configuration from a {@link ConfigSnapshot} instead.
+ * </p>
  *
  * @author apb@jhu.edu
  */
@@ -42,10 +46,37 @@ public class ConfigUtil {
 
     public static final String JSONLD_PERSIST_CONTEXT = "jsonld.context.persist";
 
+    public static final String JSONLD_PATCH_CONDITIONAL = "jsonld.patch.conditional";
+
+    public static final String JSONLD_BUFFER_POOL_MAX = "jsonld.buffer.pool.max";
+
+    public static final String JSONLD_CAPTURE_MEMORY = "jsonld.capture.memory";
+
+    public static final String JSONLD_CAPTURE_MAX = "jsonld.capture.max";
+
+    public static final String JSONLD_COMPACTION_STREAMING = "jsonld.compaction.streaming";
+
+    public static final String JSONLD_CONTEXT_HEADER = "jsonld.context.header";
+
+    public static final String JSONLD_METRICS = "jsonld.metrics";
+
+    public static final String JSONLD_TIMING = "jsonld.timing";
+
+    public static final String JSONLD_LOG_BODY_MAX = "jsonld.log.body.max";
+
+    public static final String JSONLD_LOG_BODY_SAMPLE = "jsonld.log.body.sample";
+
+    public static final String JSONLD_CONFIG_FILE = "jsonld.config.file";
+
+    public static final String JSONLD_CONFIG_POLL = "jsonld.config.poll";
+
+    public static final String JSONLD_WARMUP = "jsonld.warmup";
+
     static final Logger LOG = LoggerFactory.getLogger(ConfigUtil.class);
 
     /**
-     * Creates a stream of all system properties and environment variables in "property normal form".
+     * Creates a stream of all system properties, environment variables, and properties of the reloadable
+     * configuration file, in "property normal form".
      * <p>
      * All environment variables and properties are lowercased, and have "_" replaced with ".".
      * </p>
@@ -53,8 +84,9 @@ public class ConfigUtil {
      * @return Stream of all properties
      */
     public static Stream<String> props() {
-        return concat(System.getenv().keySet().stream(), System.getProperties().stringPropertyNames().stream())
-            .map(ConfigUtil::toPropName);
+        return concat(concat(System.getenv().keySet().stream(), System.getProperties().stringPropertyNames()
+            .stream()), ReloadableConfig.properties().keySet().stream())
+                .map(ConfigUtil::toPropName);
     }
 
     /**
@@ -73,18 +105,39 @@ public class ConfigUtil {
      * @return map of truncated property names to values.
      */
     public static Map<String, String> extract(Stream<String> props, String prefix) {
-        return props
-            .filter(key -> key.startsWith(toPropName(prefix)))
-            .filter(prop -> getValue(prop) != null)
-            .collect(Collectors.toMap(prop -> removePrefix(prefix, prop), prop -> getValue(prop)));
+        final String normalized = toPropName(prefix);
+        final Map<String, String> extracted = new HashMap<>();
+        props
+            .filter(key -> key.startsWith(normalized) && (key.length() == normalized.length() || key.charAt(
+                normalized.length()) == '.'))
+            .forEach(key -> {
+                final String value = getValue(key);
+                if (value != null) {
+                    extracted.put(removePrefix(normalized, key), value);
+                }
+            });
+        return extracted;
     }
 
+    /**
+     * Get the value of a property from the reloadable configuration file, system properties, or environment, in that
+     * order.
+     *
+     * @param key Property name
+     * @return the value, or null if not defined.
+     */
     public static String getValue(String key) {
-        return System.getProperty(key, System.getenv(toEnvName(key)));
+        final String reloadable = ReloadableConfig.get(toPropName(key));
+        return reloadable != null ? reloadable : System.getProperty(key, System.getenv(toEnvName(key)));
     }
 
+    /* Remove a literal prefix, and the separator that follows it */
     static String removePrefix(String prefix, String key) {
-        return key.replaceFirst("^" + prefix, "").replaceFirst(".", "");
+        if (!key.startsWith(prefix)) {
+            return key;
+        }
+        final String rest = key.substring(prefix.length());
+        return rest.isEmpty() ? rest : rest.substring(1);
     }
 
     static String toPropName(String name) {
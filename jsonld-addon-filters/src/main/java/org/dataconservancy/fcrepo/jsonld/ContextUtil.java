@@ -16,13 +16,10 @@
 
 package org.dataconservancy.fcrepo.jsonld;
 
-import static com.github.jsonldjava.utils.JsonUtils.fromString;
-
 import java.io.IOException;
 import java.util.Map;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.fasterxml.jackson.databind.node.TextNode;
@@ -55,27 +52,34 @@ public class ContextUtil {
         }
     }
 
-    @SuppressWarnings("unchecked")
     public static Context getContext(ObjectNode node, JsonLdOptions options) throws BadRequestException {
-        final JsonNode contextNode = node.get("@context");
+        return getContext(mapper.convertValue(node.get("@context"), Object.class), options);
+    }
+
+    /**
+     * Parse a context, as it appears in the value of {@code @context} in JSON-LD parsed by {@code JsonUtils}.
+     *
+     * @param context Context URI, or inline context.
+     * @param options JSON-LD options, whose document loader is used to load context URIs.
+     * @return parsed context.
+     */
+    @SuppressWarnings("unchecked")
+    public static Context getContext(Object context, JsonLdOptions options) throws BadRequestException {
+        if (context == null) {
+            throw new BadRequestException("No context provided");
+        }
 
         final Object rawContext;
-        if (contextNode.isTextual()) {
-            rawContext = options.getDocumentLoader()
-                                .loadDocument(contextNode.asText())
-                                .getDocument();
+        if (context instanceof String) {
+            rawContext = ((Map<String, Object>) options.getDocumentLoader()
+                                                       .loadDocument((String) context)
+                                                       .getDocument()).get("@context");
         } else {
-            final JsonNode inlineContext = mapper.createObjectNode().set("@context", contextNode);
-            try {
-                rawContext = fromString(mapper.writeValueAsString(inlineContext));
-            } catch (final IOException e) {
-                throw new BadRequestException("Error paarsing inline context", e);
-            }
+            rawContext = context;
         }
 
         final Context cxt = new Context(options);
-        return cxt.parse(((Map<String, Object>) rawContext).get("@context"));
-
+        return cxt.parse(rawContext);
     }
 
     public static ContextReady replaceContextFrom(String json) throws Exception {
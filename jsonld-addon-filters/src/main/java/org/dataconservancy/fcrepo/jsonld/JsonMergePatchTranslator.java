@@ -16,6 +16,7 @@
 
 package org.dataconservancy.fcrepo.jsonld;
 
+import static com.github.jsonldjava.utils.JsonUtils.fromString;
 import static java.lang.String.format;
 import static java.util.Arrays.asList;
 import static org.dataconservancy.fcrepo.jsonld.ContextUtil.PREDICATE_HAS_CONTEXT;
@@ -23,21 +24,32 @@ import static org.dataconservancy.fcrepo.jsonld.ContextUtil.getContext;
 
 import java.io.IOException;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ObjectNode;
-import com.fasterxml.jackson.databind.node.TextNode;
 import com.github.jsonldjava.core.JsonLdOptions;
+import org.dataconservancy.fcrepo.jsonld.metrics.Counter;
+import org.dataconservancy.fcrepo.jsonld.metrics.Metrics;
+import org.dataconservancy.fcrepo.jsonld.metrics.ServerTiming;
+import org.dataconservancy.fcrepo.jsonld.metrics.Timer;
 
 /**
+ * Translates JSON merge patches to SPARQL updates.
+ * <p>
+ * A translator may be shared by any number of threads; the given options are only read, and patch plans are cached
+ * in a concurrent map.
+ * </p>
+ *
  * @author apb@jhu.edu
  */
 public class JsonMergePatchTranslator {
 
-    final ObjectMapper mapper = new ObjectMapper();
-
     final JsonLdOptions options;
 
     final JsonldNtriplesTranslator translator;
@@ -45,10 +57,21 @@ public class JsonMergePatchTranslator {
     final boolean persistContexts;
 
     // Hack around Fedora bug: prevent DELETE statements involving rdf types in SPARQL
-    List<String> excluded = asList("@context", "@type");
+    final List<String> excluded = Collections.unmodifiableList(asList("@context", "@type"));
 
     static final String RDF_TYPE = "http://www.w3.org/1999/02/22-rdf-syntax-ns#type";
 
+    /* Upper bound on cached patch plans, so that arbitrary patch shapes cannot grow the cache without limit */
+    static final int MAX_CACHED_PLANS = 1024;
+
+    final Map<PatchShape, PatchPlan> plans = new ConcurrentHashMap<>();
+
+    private static final Timer TIMER = Metrics.shared().timer("stage.sparql");
+
+    private static final Counter PLAN_HITS = Metrics.shared().counter("patch.plan.hits");
+
+    private static final Counter PLAN_MISSES = Metrics.shared().counter("patch.plan.misses");
+
     public JsonMergePatchTranslator(JsonLdOptions options, boolean strict, boolean persistContexts) {
         this.options = options;
         this.persistContexts = persistContexts;
@@ -56,46 +79,157 @@ public class JsonMergePatchTranslator {
     }
 
     public String toSparql(String jsonld, URI defaultContext) throws BadRequestException {
+        final long start = TIMER.start();
+        try {
+            return sparql(jsonld, defaultContext);
+        } finally {
+            TIMER.stop(start);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private String sparql(String jsonld, URI defaultContext) {
 
         final SparqlBuilder builder = new SparqlBuilder();
 
-        final ObjectNode parsedMergePatch;
+        final Object parsed;
+        long stage = ServerTiming.start();
         try {
-            parsedMergePatch = (ObjectNode) mapper.readTree(jsonld);
+            parsed = fromString(jsonld);
         } catch (final IOException e) {
             throw new BadRequestException("Could not parse request", e);
+        } finally {
+            ServerTiming.stop("parse", stage);
+        }
+
+        if (!(parsed instanceof Map)) {
+            throw new BadRequestException("Could not parse request: expecting a JSON object");
         }
 
+        final Map<String, Object> parsedMergePatch = (Map<String, Object>) parsed;
+
         if (parsedMergePatch.get("@context") == null) {
             if (defaultContext == null) {
                 throw new BadRequestException("No context provided");
             }
-            parsedMergePatch.set("@context", new TextNode(defaultContext.toString()));
+            parsedMergePatch.put("@context", defaultContext.toString());
         }
 
-        final String jsonldWithContext;
-        try {
-            jsonldWithContext = mapper.writer().writeValueAsString(parsedMergePatch);
-        } catch (final IOException e) {
-            throw new BadRequestException("Could not process request", e);
+        stage = ServerTiming.start();
+        builder.deleteAll(planFor(parsedMergePatch).deletions);
+        ServerTiming.stop("context", stage);
+
+        builder.addStatements(translator.translate(parsedMergePatch));
+
+        stage = ServerTiming.start();
+        final String sparql = builder.build();
+        ServerTiming.stop("sparql", stage);
+        return sparql;
+    }
+
+    /**
+     * Number of cached merge patch plans.
+     *
+     * @return the count
+     */
+    public int cachedPlans() {
+        return plans.size();
+    }
+
+    /**
+     * Find the plan for a given merge patch.
+     * <p>
+     * Plans for patches that refer to their context by URI are cached by context URI and field names. Inline
+     * contexts may differ from request to request, so their plans are always computed.
+     * </p>
+     */
+    PatchPlan planFor(Map<String, Object> parsedMergePatch) {
+        final Object context = parsedMergePatch.get("@context");
+
+        if (!(context instanceof String)) {
+            return newPlan(parsedMergePatch);
         }
 
-        final Map<String, String> attrs = getContext(parsedMergePatch, options).getPrefixes(false);
+        final PatchShape shape = new PatchShape((String) context, parsedMergePatch.keySet());
+        final PatchPlan cached = plans.get(shape);
+        if (cached != null) {
+            PLAN_HITS.increment();
+            return cached;
+        }
+        PLAN_MISSES.increment();
+
+        final PatchPlan plan = newPlan(parsedMergePatch);
+        if (plans.size() < MAX_CACHED_PLANS) {
+            plans.putIfAbsent(shape, plan);
+        }
+        return plan;
+    }
+
+    private PatchPlan newPlan(Map<String, Object> parsedMergePatch) {
+        final Map<String, String> attrs = getContext(parsedMergePatch.get("@context"), options).getPrefixes(false);
         attrs.put("@type", RDF_TYPE);
 
-        for (final String name : (Iterable<String>) () -> parsedMergePatch.fieldNames()) {
-            if (attrs.containsKey(name) && !excluded.contains(name)) {
-                builder.deleteWithPredicate(attrs.get(name));
+        final List<String> predicates = new ArrayList<>();
+        for (final String name : parsedMergePatch.keySet()) {
+            if (attrs.containsKey(name) && !excluded.contains(name) && attrs.get(name) != null) {
+                predicates.add(attrs.get(name));
             }
         }
 
         if (persistContexts) {
-            builder.deleteWithPredicate(PREDICATE_HAS_CONTEXT);
+            predicates.add(PREDICATE_HAS_CONTEXT);
+        }
+
+        return new PatchPlan(predicates);
+    }
+
+    /**
+     * Identifies patches of the same shape; i.e. having the same context URI and set of fields.
+     */
+    static final class PatchShape {
+
+        final String context;
+
+        final SortedSet<String> fields = new TreeSet<>();
+
+        PatchShape(String context, Collection<String> fieldNames) {
+            this.context = context;
+            fields.addAll(fieldNames);
         }
 
-        builder.addStatements(translator.translate(jsonldWithContext));
+        @Override
+        public int hashCode() {
+            return 31 * context.hashCode() + fields.hashCode();
+        }
 
-        return builder.build();
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof PatchShape)) {
+                return false;
+            }
+            final PatchShape other = (PatchShape) o;
+            return context.equals(other.context) && fields.equals(other.fields);
+        }
+    }
+
+    /**
+     * Immutable, pre-computed parts of the SPARQL update for a given patch shape.
+     */
+    static final class PatchPlan {
+
+        final List<String> predicates;
+
+        final String deletions;
+
+        PatchPlan(List<String> predicates) {
+            this.predicates = Collections.unmodifiableList(predicates);
+
+            final StringBuilder deletions = new StringBuilder();
+            for (final String predicate : predicates) {
+                deletions.append(format("?s <%s> ?o .\n", predicate));
+            }
+            this.deletions = deletions.toString();
+        }
     }
 
     class SparqlBuilder {
@@ -108,10 +242,8 @@ public class JsonMergePatchTranslator {
             additions.append(ntStatements);
         }
 
-        public void deleteWithPredicate(String predicate) {
-            if (predicate != null) {
-                subtractions.append(format("?s <%s> ?o .\n", predicate));
-            }
+        public void deleteAll(String deletions) {
+            subtractions.append(deletions);
         }
 
         public String build() {
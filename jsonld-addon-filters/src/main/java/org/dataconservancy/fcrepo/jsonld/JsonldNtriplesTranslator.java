@@ -23,31 +23,50 @@ import static org.dataconservancy.fcrepo.jsonld.ContextUtil.getContext;
 import java.io.IOException;
 import java.net.URI;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
-import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.github.jsonldjava.core.DocumentLoader;
 import com.github.jsonldjava.core.JsonLdError;
 import com.github.jsonldjava.core.JsonLdOptions;
 import com.github.jsonldjava.core.JsonLdProcessor;
 import com.github.jsonldjava.core.RDFDatasetUtils;
 import com.github.jsonldjava.core.RemoteDocument;
 import com.rits.cloning.Cloner;
+import org.dataconservancy.fcrepo.jsonld.metrics.Metrics;
+import org.dataconservancy.fcrepo.jsonld.metrics.ServerTiming;
+import org.dataconservancy.fcrepo.jsonld.metrics.Timer;
 
 /**
+ * Translates JSON-LD to n-triples.
+ * <p>
+ * A translator may be shared by any number of threads. Its options are a private copy, never modified after
+ * construction; their document loader is a snapshot of the given one, so contexts injected into the given options
+ * later are not seen. Context terms are cached in a concurrent map.
+ * </p>
+ *
  * @author apb@jhu.edu
  */
 public class JsonldNtriplesTranslator {
 
-    List<String> internalPrefixes = Arrays.asList("@id", "@type", "@context");
+    static final Set<String> internalPrefixes = Collections.unmodifiableSet(
+        new HashSet<>(Arrays.asList("@id", "@type", "@context")));
+
+    /* Upper bound on cached term sets, so that arbitrary context URIs cannot grow the cache without limit */
+    static final int MAX_CACHED_CONTEXTS = 256;
+
+    /* Valid top-level field names, by context URI */
+    final Map<String, Set<String>> terms = new ConcurrentHashMap<>();
 
     static final String NULL_RELATIVE = "null::" + UUID.randomUUID() + "::";
 
+    private static final Timer TIMER = Metrics.shared().timer("stage.translate");
+
     private final Cloner cloner = new Cloner();
 
     private final JsonLdOptions options;
@@ -56,27 +75,55 @@ public class JsonldNtriplesTranslator {
 
     private final boolean persistContext;
 
-    ObjectMapper mapper = new ObjectMapper();
-
     public JsonldNtriplesTranslator(JsonLdOptions options, boolean strict, boolean persistContext) {
-        this.options = cloner.deepClone(options);
+        this.options = cloner.shallowClone(options);
+        this.options.setDocumentLoader(snapshot(options.getDocumentLoader()));
         this.options.format = "application/nquads";
         this.options.setBase(NULL_RELATIVE);
         this.strict = strict;
         this.persistContext = persistContext;
     }
 
-    @SuppressWarnings("unchecked")
+    /* A loader that is not a SnapshotDocumentLoader may be modified by its owner, so is copied */
+    private DocumentLoader snapshot(DocumentLoader loader) {
+        if (loader instanceof SnapshotDocumentLoader) {
+            return ((SnapshotDocumentLoader) loader).snapshot();
+        }
+        return new SnapshotDocumentLoader(cloner.deepClone(loader));
+    }
+
     public String translate(String jsonld) {
+        final Object parsed;
+        final long stage = ServerTiming.start();
+        try {
+            parsed = fromString(jsonld);
+        } catch (final IOException e) {
+            throw new BadRequestException("Could not parse jsonld: " + e.getMessage(), e);
+        } finally {
+            ServerTiming.stop("parse", stage);
+        }
+
+        return translate(parsed);
+    }
+
+    /**
+     * Translate JSON-LD that has already been parsed by {@code JsonUtils}.
+     *
+     * @param parsed Parsed JSON-LD
+     * @return ntriples
+     */
+    @SuppressWarnings("unchecked")
+    public String translate(Object parsed) {
 
         URI.create(NULL_RELATIVE);
+        final long start = TIMER.start();
+        final long stage = ServerTiming.start();
         try {
 
             if (strict) {
-                verify(jsonld);
+                verify(parsed);
             }
 
-            final Object parsed = fromString(jsonld);
             String ntriples = ((String) JsonLdProcessor.toRDF(parsed,
                                                               RDFDatasetUtils::toNQuads,
                                                               options)).replaceAll(NULL_RELATIVE, "");
@@ -99,51 +146,90 @@ public class JsonldNtriplesTranslator {
             }
 
             return ntriples;
-        } catch (JsonLdError | IOException e) {
+        } catch (final JsonLdError e) {
             throw new BadRequestException("Could not parse jsonld: " + e.getMessage(), e);
+        } finally {
+            ServerTiming.stop("translate", stage);
+            TIMER.stop(start);
         }
     }
 
-    void verify(String jsonld) {
-        final ObjectNode parsedJsonld;
-        try {
-            parsedJsonld = (ObjectNode) mapper.readTree(jsonld);
-        } catch (final IOException e) {
-            throw new BadRequestException("Could not parse request", e);
-        }
+    /**
+     * Number of contexts whose terms are cached, for strict verification.
+     *
+     * @return the count
+     */
+    public int cachedContexts() {
+        return terms.size();
+    }
 
-        final Set<String> terms = new HashSet<>(getContext(parsedJsonld, options).getPrefixes(false).keySet());
+    /**
+     * Verify that every top-level field of the given JSON-LD is a term defined in its context.
+     * <p>
+     * Terms for contexts referenced by URI are compiled once and cached.
+     * </p>
+     */
+    @SuppressWarnings("unchecked")
+    void verify(Object parsed) {
+        if (!(parsed instanceof Map)) {
+            throw new BadRequestException("Could not parse request: expecting a JSON object");
+        }
 
-        addAliases(terms, parsedJsonld, options);
+        final Map<String, Object> jsonld = (Map<String, Object>) parsed;
+        final Set<String> terms = termsFor(jsonld.get("@context"));
 
-        for (final String fieldName : (Iterable<String>) () -> parsedJsonld.fieldNames()) {
-            if (!terms.contains(fieldName) && !internalPrefixes.contains(fieldName)) {
+        for (final String fieldName : jsonld.keySet()) {
+            if (!terms.contains(fieldName)) {
                 throw new BadRequestException("Unknown attribute " + fieldName);
             }
         }
     }
 
+    private Set<String> termsFor(Object context) {
+        if (context == null) {
+            throw new BadRequestException("No context provided");
+        }
+
+        if (!(context instanceof String)) {
+            return compileTerms(context);
+        }
+
+        final Set<String> cached = terms.get(context);
+        if (cached != null) {
+            return cached;
+        }
+
+        final Set<String> compiled = compileTerms(context);
+        if (terms.size() < MAX_CACHED_CONTEXTS) {
+            terms.putIfAbsent((String) context, compiled);
+        }
+        return compiled;
+    }
+
+    /* All valid top-level field names for a given context: its terms, aliases of keywords, and keywords */
+    private Set<String> compileTerms(Object context) {
+        final Set<String> compiled = new HashSet<>(getContext(context, options).getPrefixes(false).keySet());
+        compiled.addAll(internalPrefixes);
+        addAliases(compiled, context);
+
+        return Collections.unmodifiableSet(compiled);
+    }
+
     @SuppressWarnings("unchecked")
-    private void addAliases(Set<String> keys, ObjectNode parsedJson, JsonLdOptions options) {
-        if (parsedJson.get("@context").isTextual()) {
-            final RemoteDocument doc = options.getDocumentLoader().loadDocument(parsedJson.get("@context")
-                                                                                          .textValue());
-            final Map<String, Object> cxt = (Map<String, Object>) ((Map<String, Object>) doc.getDocument()).get(
-                "@context");
-            cxt.entrySet().stream()
-               .filter(e -> internalPrefixes.contains(e.getValue()))
-               .map(e -> e.getKey())
-               .forEach(keys::add);
-
-        } else if (parsedJson.get("@context").isObject()) {
-            final ObjectNode cxt = (ObjectNode) parsedJson.get("@context");
-            for (final String fieldName : (Iterable<String>) () -> cxt.fieldNames()) {
-                if (internalPrefixes.contains(cxt.get(fieldName).textValue())) {
-                    keys.add(fieldName);
-                }
-            }
+    private void addAliases(Set<String> keys, Object context) {
+        final Map<String, Object> cxt;
+        if (context instanceof String) {
+            final RemoteDocument doc = options.getDocumentLoader().loadDocument((String) context);
+            cxt = (Map<String, Object>) ((Map<String, Object>) doc.getDocument()).get("@context");
+        } else if (context instanceof Map) {
+            cxt = (Map<String, Object>) context;
         } else {
             throw new BadRequestException("Could not parse context");
         }
+
+        cxt.entrySet().stream()
+           .filter(e -> internalPrefixes.contains(e.getValue()))
+           .map(e -> e.getKey())
+           .forEach(keys::add);
     }
 }
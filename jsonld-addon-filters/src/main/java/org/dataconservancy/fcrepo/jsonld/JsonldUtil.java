@@ -17,8 +17,6 @@
 package org.dataconservancy.fcrepo.jsonld;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
-import static org.dataconservancy.fcrepo.jsonld.ConfigUtil.extract;
-import static org.dataconservancy.fcrepo.jsonld.ConfigUtil.props;
 
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -26,8 +24,11 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
+import com.github.jsonldjava.core.DocumentLoader;
 import com.github.jsonldjava.core.JsonLdError;
 import com.github.jsonldjava.core.JsonLdOptions;
 import org.apache.commons.io.IOUtils;
@@ -48,16 +49,28 @@ public class JsonldUtil {
 
     public static final String COMPACTION_PROP_PRELOAD_FILES = "compaction.preload.file";
 
-    public static void loadContexts(JsonLdOptions options) {
-        final Map<String, String> contextLocations = extract(props(), COMPACTION_PROP_PRELOAD_FILES);
-        final Map<String, String> contextUris = extract(props(), COMPACTION_PROP_PRELOAD_URIS);
+    /**
+     * Load the contexts configured for preloading into the document loader of the given options.
+     *
+     * @param options Options whose document loader is given the contexts.
+     * @param config Configuration naming the contexts.
+     * @return URLs of the contexts that were loaded.
+     */
+    public static List<URL> loadContexts(JsonLdOptions options, ConfigSnapshot config) {
+        documentLoader(options);
+
+        final List<URL> loaded = new ArrayList<>();
+        final Map<String, String> contextLocations = config.withPrefix(COMPACTION_PROP_PRELOAD_FILES);
+        final Map<String, String> contextUris = config.withPrefix(COMPACTION_PROP_PRELOAD_URIS);
 
         for (final Map.Entry<String, String> entry : contextUris.entrySet()) {
             try (FileInputStream file = new FileInputStream(contextLocations.get(entry.getKey()))) {
 
                 LOG.info("Loading static context for '{}' from file '{}'", entry.getValue(), contextLocations.get(
                     entry.getKey()));
-                addStaticContext(new URL(entry.getValue()), file, options);
+                final URL url = new URL(entry.getValue());
+                addStaticContext(url, file, options);
+                loaded.add(url);
             } catch (final MalformedURLException urle) {
                 LOG.warn("Bad json-ld context URL for preload: '{}' from configuration property ", entry.getValue(),
                          String
@@ -69,6 +82,7 @@ public class JsonldUtil {
                 throw new RuntimeException(e);
             }
         }
+        return loaded;
     }
 
     public static void addStaticContext(URL contextUrl, InputStream context, JsonLdOptions options) {
@@ -81,10 +95,31 @@ public class JsonldUtil {
 
     public static void addStaticContext(URL contextUrl, String context, JsonLdOptions options) {
         try {
-            options.getDocumentLoader().addInjectedDoc(contextUrl.toExternalForm(), context);
+            documentLoader(options).addInjectedDoc(contextUrl.toExternalForm(), context);
         } catch (final JsonLdError e) {
             throw new RuntimeException("Could not add static jsonld context", e);
         }
     }
 
+    /**
+     * The copy-on-write document loader of the given options.
+     * <p>
+     * If the options have some other loader, it is replaced by a {@link SnapshotDocumentLoader} that falls back to
+     * it, so documents it already has are still found.
+     * </p>
+     *
+     * @param options JSON-LD options
+     * @return the loader
+     */
+    public static SnapshotDocumentLoader documentLoader(JsonLdOptions options) {
+        final DocumentLoader loader = options.getDocumentLoader();
+        if (loader instanceof SnapshotDocumentLoader) {
+            return (SnapshotDocumentLoader) loader;
+        }
+
+        final SnapshotDocumentLoader snapshots = new SnapshotDocumentLoader(loader);
+        options.setDocumentLoader(snapshots);
+        return snapshots;
+    }
+
 }
@@ -16,8 +16,6 @@
 
 package org.dataconservancy.fcrepo.jsonld;
 
-import static org.dataconservancy.fcrepo.jsonld.ConfigUtil.props;
-
 import ch.qos.logback.classic.Level;
 import ch.qos.logback.classic.Logger;
 import org.slf4j.LoggerFactory;
@@ -32,20 +30,21 @@ public class LogUtil {
     }
 
 
-    static final String PREFIX = "log.";
+    static final String PREFIX = "log";
 
-    public static void adjustLogLevels() {
+    public static void adjustLogLevels(ConfigSnapshot config) {
         final Logger root = (Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME);
         root.setLevel(Level.WARN);
 
-        props()
-            .filter(key -> key.startsWith(PREFIX))
-            .forEach(LogUtil::updateLogger);
+        config.withPrefix(PREFIX).forEach((logger, level) -> {
+            if (!logger.isEmpty()) {
+                updateLogger(logger, level);
+            }
+        });
     }
 
-    static void updateLogger(final String spec) {
-        final String logger = spec.substring(PREFIX.length());
-        final Level level = Level.toLevel(System.getenv().getOrDefault(spec, System.getProperty(spec, "DEBUG")));
+    static void updateLogger(final String logger, final String value) {
+        final Level level = Level.toLevel(value, Level.DEBUG);
         ((Logger) LoggerFactory.getLogger(logger)).setLevel(level);
     }
 }
@@ -0,0 +1,317 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.fcrepo.jsonld;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.dataconservancy.fcrepo.jsonld.ConfigUtil.JSONLD_CONFIG_FILE;
+import static org.dataconservancy.fcrepo.jsonld.ConfigUtil.JSONLD_CONFIG_POLL;
+import static org.dataconservancy.fcrepo.jsonld.ConfigUtil.toEnvName;
+import static org.dataconservancy.fcrepo.jsonld.ConfigUtil.toPropName;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Configuration that can change while the webapp is running.
+ * <p>
+ * If <code>jsonld.config.file</code> names a properties file, its properties take precedence over system properties
+ * and environment variables of the same name, and it is checked for changes every <code>jsonld.config.poll</code>
+ * seconds (5 by default, 0 to never check). A reload may also be asked for over JMX, with the <code>reload</code>
+ * operation of <code>org.dataconservancy.fcrepo.jsonld:type=Config</code>; e.g. after changing system properties. That
+ * MBean is registered while any filter listens for reloads, i.e. from the first filter's init until the last one is
+ * destroyed, so that an undeployed webapp leaves nothing behind in the platform MBean server.
+ * </p>
+ * <p>
+ * On reload, the properties of the file are replaced as a whole, then each listener is called in turn. Filters listen
+ * so that they can build a new configuration, and replace the one used by requests only once it is complete; so
+ * requests see either the old configuration or the new, and never wait for it. If a listener fails, its filter keeps
+ * its old configuration.
+ * </p>
+ *
+ * @author apb@jhu.edu
+ */
+public class ReloadableConfig {
+
+    static final Logger LOG = LoggerFactory.getLogger(ReloadableConfig.class);
+
+    static final long DEFAULT_POLL_SECONDS = 5;
+
+    static final String OBJECT_NAME = "org.dataconservancy.fcrepo.jsonld:type=Config";
+
+    private static volatile Map<String, String> properties = Collections.emptyMap();
+
+    private static final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+
+    private static final AtomicLong reloads = new AtomicLong();
+
+    private static ScheduledExecutorService watcher;
+
+    private static volatile long lastModified = -1;
+
+    /* Whether the configuration MBean was registered by this class, rather than by another webapp */
+    private static boolean registered = false;
+
+    static {
+        load();
+    }
+
+    private ReloadableConfig() {
+        // never called
+    }
+
+    /**
+     * Get the value of a property from the configuration file.
+     *
+     * @param key Property name, in property normal form.
+     * @return the value, or null if the file does not have it.
+     */
+    public static String get(String key) {
+        return properties.get(key);
+    }
+
+    /**
+     * Properties of the configuration file.
+     *
+     * @return unmodifiable map of property names, in property normal form, to values.
+     */
+    public static Map<String, String> properties() {
+        return properties;
+    }
+
+    /**
+     * Call a listener whenever the configuration is reloaded.
+     * <p>
+     * While there are listeners, the configuration file is watched for changes, and the configuration is registered
+     * with JMX.
+     * </p>
+     *
+     * @param listener The listener.
+     */
+    public static void addListener(Runnable listener) {
+        listeners.add(listener);
+        registerMBean();
+        watch();
+    }
+
+    /**
+     * Stop calling a listener.
+     *
+     * @param listener The listener.
+     */
+    public static void removeListener(Runnable listener) {
+        listeners.remove(listener);
+        if (listeners.isEmpty()) {
+            unwatch();
+            unregisterMBean();
+        }
+    }
+
+    /**
+     * Re-read the configuration file, refresh the {@link ConfigSnapshot}, and call all listeners.
+     */
+    public static synchronized void reload() {
+        load();
+        ConfigSnapshot.refresh();
+        reloads.incrementAndGet();
+        LOG.info("Reloading configuration");
+        for (final Runnable listener : listeners) {
+            try {
+                listener.run();
+            } catch (final RuntimeException e) {
+                LOG.warn("Could not apply reloaded configuration", e);
+            }
+        }
+    }
+
+    /* Number of times the configuration has been reloaded */
+    static long reloads() {
+        return reloads.get();
+    }
+
+    private static synchronized void load() {
+        final Path file = file();
+        if (file == null) {
+            properties = Collections.emptyMap();
+            return;
+        }
+
+        final Properties loaded = new Properties();
+        try (Reader in = Files.newBufferedReader(file, UTF_8)) {
+            lastModified = Files.getLastModifiedTime(file).toMillis();
+            loaded.load(in);
+        } catch (final IOException e) {
+            LOG.warn("Could not read configuration file {}, keeping current configuration", file, e);
+            return;
+        }
+
+        final Map<String, String> normalized = new HashMap<>();
+        for (final String name : loaded.stringPropertyNames()) {
+            normalized.put(toPropName(name), loaded.getProperty(name).trim());
+        }
+        properties = Collections.unmodifiableMap(normalized);
+        LOG.info("Loaded {} properties from {}", normalized.size(), file);
+    }
+
+    /* The file is named by system properties or environment, not by itself */
+    private static Path file() {
+        final String name = System.getProperty(JSONLD_CONFIG_FILE, System.getenv(toEnvName(JSONLD_CONFIG_FILE)));
+        return name != null ? Paths.get(name) : null;
+    }
+
+    private static synchronized void watch() {
+        final Path file = file();
+        if (watcher != null || file == null) {
+            return;
+        }
+
+        final String poll = ConfigUtil.getValue(JSONLD_CONFIG_POLL);
+        long seconds = DEFAULT_POLL_SECONDS;
+        try {
+            seconds = poll != null ? Long.parseLong(poll.trim()) : DEFAULT_POLL_SECONDS;
+        } catch (final NumberFormatException e) {
+            LOG.warn("Bad value of {}: '{}', using default of {}", JSONLD_CONFIG_POLL, poll, DEFAULT_POLL_SECONDS);
+        }
+        if (seconds <= 0) {
+            return;
+        }
+
+        watcher = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "jsonld-config-watcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        watcher.scheduleWithFixedDelay(() -> {
+            try {
+                if (Files.exists(file) && Files.getLastModifiedTime(file).toMillis() != lastModified) {
+                    LOG.info("Configuration file {} has changed", file);
+                    reload();
+                }
+            } catch (final IOException | RuntimeException e) {
+                LOG.warn("Could not check configuration file {}", file, e);
+            }
+        }, seconds, seconds, TimeUnit.SECONDS);
+    }
+
+    private static synchronized void unwatch() {
+        if (watcher != null) {
+            watcher.shutdownNow();
+            watcher = null;
+        }
+    }
+
+    private static synchronized void registerMBean() {
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!registered && !server.isRegistered(name)) {
+                server.registerMBean(new Config(), name);
+                registered = true;
+            }
+        } catch (final JMException | RuntimeException e) {
+            LOG.warn("Could not register configuration with JMX", e);
+        }
+    }
+
+    private static synchronized void unregisterMBean() {
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName name = new ObjectName(OBJECT_NAME);
+            if (registered && listeners.isEmpty()) {
+                registered = false;
+                server.unregisterMBean(name);
+            }
+        } catch (final JMException | RuntimeException e) {
+            LOG.warn("Could not unregister configuration from JMX", e);
+        }
+    }
+
+    /**
+     * JMX view of the reloadable configuration.
+     */
+    public interface ConfigMXBean {
+
+        /**
+         * Configuration file, if any.
+         *
+         * @return path of the file, or null.
+         */
+        String getFile();
+
+        /**
+         * Properties of the configuration file.
+         *
+         * @return the properties
+         */
+        Map<String, String> getProperties();
+
+        /**
+         * Number of reloads.
+         *
+         * @return the count
+         */
+        long getReloads();
+
+        /**
+         * Re-read the configuration, and apply it.
+         */
+        void reload();
+    }
+
+    static class Config implements ConfigMXBean {
+
+        @Override
+        public String getFile() {
+            final Path file = file();
+            return file != null ? file.toString() : null;
+        }
+
+        @Override
+        public Map<String, String> getProperties() {
+            return properties();
+        }
+
+        @Override
+        public long getReloads() {
+            return reloads();
+        }
+
+        @Override
+        public void reload() {
+            ReloadableConfig.reload();
+        }
+    }
+}
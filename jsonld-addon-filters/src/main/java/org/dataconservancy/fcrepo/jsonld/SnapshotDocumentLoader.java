@@ -0,0 +1,132 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.fcrepo.jsonld;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.github.jsonldjava.core.DocumentLoader;
+import com.github.jsonldjava.core.JsonLdError;
+import com.github.jsonldjava.core.RemoteDocument;
+import com.github.jsonldjava.utils.JsonUtils;
+
+/**
+ * Document loader whose injected documents may be read by any number of threads while more are added.
+ * <p>
+ * {@link DocumentLoader} keeps injected documents in a plain map, and hands out the parsed documents themselves, so
+ * adding one while another thread loads, or modifying a loaded document, is a race. Here, injected documents are
+ * deeply unmodifiable, and kept in an unmodifiable map that is replaced, not changed, when one is added. Loading
+ * reads a volatile field and takes no lock; only adding is synchronized. Documents that were not injected are loaded
+ * by a fallback loader, as before.
+ * </p>
+ *
+ * @author apb@jhu.edu
+ */
+public class SnapshotDocumentLoader extends DocumentLoader {
+
+    private final DocumentLoader fallback;
+
+    private volatile Map<String, Object> documents;
+
+    /**
+     * Create a loader with no injected documents, and a default fallback.
+     */
+    public SnapshotDocumentLoader() {
+        this(new DocumentLoader());
+    }
+
+    /**
+     * Create a loader with no injected documents.
+     *
+     * @param fallback Loader of documents that were not injected. It should not be modified once given.
+     */
+    public SnapshotDocumentLoader(DocumentLoader fallback) {
+        this(fallback, Collections.emptyMap());
+    }
+
+    private SnapshotDocumentLoader(DocumentLoader fallback, Map<String, Object> documents) {
+        this.fallback = fallback;
+        this.documents = documents;
+    }
+
+    @Override
+    public SnapshotDocumentLoader addInjectedDoc(String url, String doc) throws JsonLdError {
+        final Object parsed;
+        try {
+            parsed = freeze(JsonUtils.fromString(doc));
+        } catch (final Exception e) {
+            throw new JsonLdError(JsonLdError.Error.LOADING_INJECTED_CONTEXT_FAILED, url, e);
+        }
+
+        synchronized (this) {
+            final Map<String, Object> added = new HashMap<>(documents);
+            added.put(url, parsed);
+            documents = Collections.unmodifiableMap(added);
+        }
+        return this;
+    }
+
+    @Override
+    public RemoteDocument loadDocument(String url) throws JsonLdError {
+        final Object injected = documents.get(url);
+        if (injected != null) {
+            return new RemoteDocument(url, injected);
+        }
+        return fallback.loadDocument(url);
+    }
+
+    /**
+     * A loader with the documents injected so far, which does not see any added later.
+     *
+     * @return the loader, sharing the documents and fallback of this one.
+     */
+    public SnapshotDocumentLoader snapshot() {
+        return new SnapshotDocumentLoader(fallback, documents);
+    }
+
+    /**
+     * Injected documents.
+     *
+     * @return unmodifiable map of parsed documents, by URL
+     */
+    public Map<String, Object> injected() {
+        return documents;
+    }
+
+    /* Deeply unmodifiable copy of JSON parsed by JsonUtils */
+    @SuppressWarnings("unchecked")
+    static Object freeze(Object json) {
+        if (json instanceof Map) {
+            final Map<String, Object> frozen = new LinkedHashMap<>();
+            for (final Map.Entry<String, Object> e : ((Map<String, Object>) json).entrySet()) {
+                frozen.put(e.getKey(), freeze(e.getValue()));
+            }
+            return Collections.unmodifiableMap(frozen);
+        } else if (json instanceof List) {
+            final List<Object> frozen = new ArrayList<>();
+            for (final Object value : (List<Object>) json) {
+                frozen.add(freeze(value));
+            }
+            return Collections.unmodifiableList(frozen);
+        }
+        return json;
+    }
+}
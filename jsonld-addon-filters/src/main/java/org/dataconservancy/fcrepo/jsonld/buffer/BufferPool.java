@@ -0,0 +1,238 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.fcrepo.jsonld.buffer;
+
+import static org.dataconservancy.fcrepo.jsonld.ConfigUtil.JSONLD_BUFFER_POOL_MAX;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.dataconservancy.fcrepo.jsonld.ConfigSnapshot;
+
+/**
+ * Pool of byte arrays, for capturing and translating bodies without allocating fresh arrays for each request.
+ * <p>
+ * Arrays come in power-of-two size classes, from {@link #MIN_SIZE} to {@link #MAX_SIZE}; larger requests are
+ * allocated, and dropped when released. Free arrays are kept in stripes chosen by thread, so that concurrent requests
+ * seldom contend for the same lock. At most a given number of bytes are retained in the pool; arrays released beyond
+ * that are left to the garbage collector.
+ * </p>
+ * <p>
+ * The shared pool retains up to <code>jsonld.buffer.pool.max</code> bytes (16MB by default). A value of
+ * <code>0</code> disables pooling.
+ * </p>
+ *
+ * @author apb@jhu.edu
+ */
+public class BufferPool {
+
+    /** Size of the smallest pooled array */
+    public static final int MIN_SIZE = 4096;
+
+    /** Size of the largest pooled array */
+    public static final int MAX_SIZE = 1024 * 1024;
+
+    static final long DEFAULT_MAX_RETAINED = 16L * 1024 * 1024;
+
+    private static final int MIN_SHIFT = Integer.numberOfTrailingZeros(MIN_SIZE);
+
+    private static final int CLASSES = Integer.numberOfTrailingZeros(MAX_SIZE) - MIN_SHIFT + 1;
+
+    private static final BufferPool SHARED = new BufferPool(maxRetained());
+
+    private final long maxRetained;
+
+    private final AtomicLong retained = new AtomicLong();
+
+    private final Stripe[] stripes;
+
+    /**
+     * Create a pool.
+     *
+     * @param maxRetained Most bytes to keep in the pool.
+     */
+    public BufferPool(long maxRetained) {
+        this.maxRetained = maxRetained;
+
+        final int stripeCount = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()) * 2);
+        this.stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * The shared pool.
+     *
+     * @return the pool
+     */
+    public static BufferPool shared() {
+        return SHARED;
+    }
+
+    /**
+     * Get an array of at least the given size.
+     *
+     * @param size Minimum size.
+     * @return an array, which may contain data from previous use.
+     */
+    public byte[] acquire(int size) {
+        if (size > MAX_SIZE) {
+            return new byte[size];
+        }
+
+        final int sizeClass = sizeClass(size);
+        final byte[] pooled = stripe().poll(sizeClass);
+
+        if (pooled != null) {
+            retained.addAndGet(-pooled.length);
+            return pooled;
+        }
+
+        return new byte[MIN_SIZE << sizeClass];
+    }
+
+    /**
+     * Return an array to the pool.
+     * <p>
+     * The array must not be used after it is released. Arrays that are not of a pooled size, or that would exceed the
+     * retained limit, are dropped.
+     * </p>
+     *
+     * @param buf The array.
+     */
+    public void release(byte[] buf) {
+        if (buf == null || buf.length < MIN_SIZE || buf.length > MAX_SIZE || Integer.bitCount(buf.length) != 1) {
+            return;
+        }
+
+        if (retained.addAndGet(buf.length) > maxRetained) {
+            retained.addAndGet(-buf.length);
+            return;
+        }
+
+        stripe().offer(sizeClass(buf.length), buf);
+    }
+
+    /**
+     * Create an empty buffer, backed by arrays from this pool.
+     *
+     * @return the buffer
+     */
+    public PooledBuffer buffer() {
+        return new PooledBuffer(this);
+    }
+
+    /**
+     * Read the remainder of a stream into a buffer.
+     *
+     * @param in The stream. It is not closed.
+     * @return buffer containing the content of the stream.
+     * @throws IOException if the stream cannot be read
+     */
+    public PooledBuffer read(InputStream in) throws IOException {
+        return read(in, -1);
+    }
+
+    /**
+     * Read the remainder of a stream into a buffer, up to a limit.
+     *
+     * @param in The stream. It is not closed.
+     * @param max Most bytes to read, or negative if unlimited.
+     * @return buffer containing the content of the stream.
+     * @throws CaptureLimitException if the stream has more than the maximum; nothing is retained.
+     * @throws IOException if the stream cannot be read
+     */
+    public PooledBuffer read(InputStream in, long max) throws IOException {
+        final PooledBuffer buffer = buffer();
+        try {
+            buffer.readFrom(in, max);
+            return buffer;
+        } catch (final IOException | RuntimeException e) {
+            buffer.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Encode text into a buffer, without an intermediate array of the whole encoded text.
+     *
+     * @param text The text
+     * @param charset Charset to encode with
+     * @return buffer containing the encoded text.
+     */
+    public PooledBuffer encode(String text, Charset charset) {
+        final PooledBuffer buffer = buffer();
+        try (Writer writer = new OutputStreamWriter(buffer, charset)) {
+            writer.write(text);
+        } catch (final IOException e) {
+            // Writing to a buffer does not fail
+            throw new RuntimeException(e);
+        }
+        return buffer;
+    }
+
+    /**
+     * Number of bytes currently held in the pool.
+     *
+     * @return bytes retained.
+     */
+    public long retained() {
+        return retained.get();
+    }
+
+    static int sizeClass(int size) {
+        if (size <= MIN_SIZE) {
+            return 0;
+        }
+        return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_SHIFT;
+    }
+
+    private Stripe stripe() {
+        return stripes[(int) Thread.currentThread().getId() & (stripes.length - 1)];
+    }
+
+    private static long maxRetained() {
+        return ConfigSnapshot.current().getLong(JSONLD_BUFFER_POOL_MAX, DEFAULT_MAX_RETAINED);
+    }
+
+    /* Free arrays of each size class */
+    private static class Stripe {
+
+        @SuppressWarnings("unchecked")
+        final ArrayDeque<byte[]>[] free = new ArrayDeque[CLASSES];
+
+        Stripe() {
+            for (int i = 0; i < CLASSES; i++) {
+                free[i] = new ArrayDeque<>();
+            }
+        }
+
+        synchronized byte[] poll(int sizeClass) {
+            return free[sizeClass].pollLast();
+        }
+
+        synchronized void offer(int sizeClass, byte[] buf) {
+            free[sizeClass].addLast(buf);
+        }
+    }
+}
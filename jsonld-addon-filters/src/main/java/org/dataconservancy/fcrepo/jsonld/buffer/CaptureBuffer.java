@@ -0,0 +1,310 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.fcrepo.jsonld.buffer;
+
+import static java.nio.file.StandardOpenOption.DELETE_ON_CLOSE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static org.dataconservancy.fcrepo.jsonld.ConfigUtil.JSONLD_CAPTURE_MAX;
+import static org.dataconservancy.fcrepo.jsonld.ConfigUtil.JSONLD_CAPTURE_MEMORY;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.apache.commons.io.IOUtils;
+import org.dataconservancy.fcrepo.jsonld.ConfigSnapshot;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Captures content in memory up to a threshold, and in a temporary file beyond it.
+ * <p>
+ * Content up to <code>jsonld.capture.memory</code> bytes (1MB by default) is held in a {@link PooledBuffer}. Beyond
+ * that, it is spilled to a temporary file, and read back from there through memory mapping, so that the heap holds
+ * none of it. More than <code>jsonld.capture.max</code> bytes (unlimited by default) may not be written at all; doing
+ * so throws a {@link CaptureLimitException}.
+ * </p>
+ * <p>
+ * Mapped regions of a spilled file are never unmapped explicitly; there is no supported way to do so. They are left to
+ * garbage collection, so they may outlive {@link #release()}, which closes and deletes the file while they are still
+ * mapped. That is harmless on POSIX file systems, where the space is reclaimed once the last region is collected.
+ * </p>
+ *
+ * @author apb@jhu.edu
+ */
+public class CaptureBuffer extends OutputStream {
+
+    static final Logger LOG = LoggerFactory.getLogger(CaptureBuffer.class);
+
+    static final int DEFAULT_MEMORY = BufferPool.MAX_SIZE;
+
+    static final long UNLIMITED = -1;
+
+    /* Largest region of the temporary file mapped at once */
+    static final int MAP_SIZE = 64 * 1024 * 1024;
+
+    private final int memory;
+
+    private final long max;
+
+    private final PooledBuffer held;
+
+    private Path file;
+
+    private FileChannel channel;
+
+    private OutputStream spilled;
+
+    private long size;
+
+    private boolean exceeded;
+
+    /**
+     * Create a capture buffer.
+     *
+     * @param pool Pool of in-memory buffers.
+     * @param memory Most bytes to hold in memory.
+     * @param max Most bytes to capture, or negative if unlimited.
+     */
+    public CaptureBuffer(BufferPool pool, int memory, long max) {
+        this.held = pool.buffer();
+        this.memory = memory;
+        this.max = max;
+    }
+
+    /**
+     * Create a capture buffer with the configured limits.
+     *
+     * @return the buffer
+     */
+    public static CaptureBuffer configured() {
+        return new CaptureBuffer(BufferPool.shared(),
+                                 ConfigSnapshot.current().getInt(JSONLD_CAPTURE_MEMORY, DEFAULT_MEMORY),
+                                 configuredMax());
+    }
+
+    /**
+     * The configured hard limit on captured content, which also applies to bodies read whole into a
+     * {@link PooledBuffer}.
+     *
+     * @return most bytes to capture, or negative if unlimited.
+     */
+    public static long configuredMax() {
+        return ConfigSnapshot.current().getLong(JSONLD_CAPTURE_MAX, UNLIMITED);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (spilled == null && size < memory && (max < 0 || size < max)) {
+            held.write(b);
+            size++;
+        } else {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (exceeded || (max >= 0 && size + len > max)) {
+            exceeded = true;
+            throw new CaptureLimitException(max);
+        }
+
+        if (spilled == null && size + len > memory) {
+            spill();
+        }
+
+        if (spilled != null) {
+            spilled.write(b, off, len);
+        } else {
+            held.write(b, off, len);
+        }
+        size += len;
+    }
+
+    /**
+     * Read the remainder of a stream into the buffer.
+     *
+     * @param in The stream. It is not closed.
+     * @throws IOException if the stream cannot be read, or is too large.
+     */
+    public void readFrom(InputStream in) throws IOException {
+        IOUtils.copy(in, this);
+    }
+
+    private void spill() throws IOException {
+        file = Files.createTempFile("jsonld-capture", ".tmp");
+        channel = FileChannel.open(file, READ, WRITE, DELETE_ON_CLOSE);
+        LOG.debug("Spilling capture of more than {} bytes to {}", memory, file);
+
+        spilled = new BufferedOutputStream(Channels.newOutputStream(channel), 8192);
+        held.writeTo(spilled);
+        held.release();
+    }
+
+    /**
+     * Number of bytes captured.
+     *
+     * @return the size
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Determine if content was spilled to a temporary file.
+     *
+     * @return true if the content is in a file.
+     */
+    public boolean isSpilled() {
+        return spilled != null;
+    }
+
+    /**
+     * Determine if an attempt was made to write more than the maximum.
+     *
+     * @return true if the maximum was exceeded.
+     */
+    public boolean isExceeded() {
+        return exceeded;
+    }
+
+    /**
+     * Read the captured content, without copying it.
+     *
+     * @return stream of the content
+     * @throws IOException if a spilled file cannot be read
+     */
+    public InputStream inputStream() throws IOException {
+        if (spilled == null) {
+            return new ByteArrayInputStream(held.array(), 0, held.size());
+        }
+
+        spilled.flush();
+        return new MappedInputStream();
+    }
+
+    /**
+     * Decode the captured content.
+     *
+     * @param charset Charset of the content
+     * @return the content
+     * @throws IOException if a spilled file cannot be read
+     */
+    public String toString(Charset charset) throws IOException {
+        if (spilled == null) {
+            return held.toString(charset);
+        }
+        try (InputStream in = inputStream()) {
+            return IOUtils.toString(in, charset);
+        }
+    }
+
+    /**
+     * Write the captured content to a stream.
+     *
+     * @param out The stream
+     * @throws IOException if the content cannot be read or written
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        if (spilled == null) {
+            held.writeTo(out);
+        } else {
+            try (InputStream in = inputStream()) {
+                IOUtils.copy(in, out);
+            }
+        }
+    }
+
+    /**
+     * Discard the content, returning memory to the pool, and deleting any spilled file.
+     */
+    public void release() {
+        held.release();
+        size = 0;
+
+        if (channel != null) {
+            try {
+                channel.close();
+                Files.deleteIfExists(file);
+            } catch (final IOException e) {
+                LOG.warn("Could not delete capture file {}", file, e);
+            }
+            channel = null;
+            spilled = null;
+            file = null;
+        }
+    }
+
+    /* Reads a spilled file one mapped region at a time; each region is left to GC once the next is mapped */
+    private class MappedInputStream extends InputStream {
+
+        private final FileChannel source = channel;
+
+        private final long end = size;
+
+        private long position = 0;
+
+        private MappedByteBuffer region;
+
+        private boolean next() throws IOException {
+            if (region != null && region.hasRemaining()) {
+                return true;
+            }
+            if (position >= end) {
+                return false;
+            }
+            final long length = Math.min(MAP_SIZE, end - position);
+            region = source.map(MapMode.READ_ONLY, position, length);
+            position += length;
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return next() ? region.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!next()) {
+                return -1;
+            }
+            final int read = Math.min(len, region.remaining());
+            region.get(b, off, read);
+            return read;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, (region != null ? region.remaining() : 0) + end - position);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.fcrepo.jsonld.buffer;
+
+import java.io.IOException;
+
+/**
+ * Thrown when more content is written to a {@link CaptureBuffer} than it may hold.
+ *
+ * @author apb@jhu.edu
+ */
+public class CaptureLimitException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public CaptureLimitException(long max) {
+        super(String.format("Content is larger than the maximum of %d bytes", max));
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.fcrepo.jsonld.buffer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Growable byte buffer backed by arrays from a {@link BufferPool}.
+ * <p>
+ * Content is read in place, with {@link #array()}, {@link #toString(Charset)}, {@link #writeTo(OutputStream)}, or
+ * {@link #inputStream()}, rather than copied out. No array is taken from the pool until something is written.
+ * Once {@link #release() released}, the array goes back to the pool and the buffer is empty; it must not be read
+ * through an array obtained before.
+ * </p>
+ *
+ * @author apb@jhu.edu
+ */
+public class PooledBuffer extends OutputStream {
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private final BufferPool pool;
+
+    private byte[] buf = EMPTY;
+
+    private int count;
+
+    PooledBuffer(BufferPool pool) {
+        this.pool = pool;
+    }
+
+    @Override
+    public void write(int b) {
+        ensureCapacity(count + 1);
+        buf[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        ensureCapacity(count + len);
+        System.arraycopy(b, off, buf, count, len);
+        count += len;
+    }
+
+    /**
+     * Read the remainder of a stream into the buffer.
+     *
+     * @param in The stream. It is not closed.
+     * @throws IOException if the stream cannot be read
+     */
+    public void readFrom(InputStream in) throws IOException {
+        readFrom(in, -1);
+    }
+
+    /**
+     * Read the remainder of a stream into the buffer, up to a limit.
+     *
+     * @param in The stream. It is not closed.
+     * @param max Most bytes the buffer may hold, or negative if unlimited.
+     * @throws CaptureLimitException if the buffer would hold more than the maximum.
+     * @throws IOException if the stream cannot be read
+     */
+    public void readFrom(InputStream in, long max) throws IOException {
+        ensureCapacity(count + 1);
+        int read;
+        while ((read = in.read(buf, count, buf.length - count)) != -1) {
+            count += read;
+            if (max >= 0 && count > max) {
+                throw new CaptureLimitException(max);
+            }
+            if (count == buf.length) {
+                ensureCapacity(count + 1);
+            }
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity < 0) {
+            throw new OutOfMemoryError("Buffer too large");
+        }
+        if (capacity > buf.length) {
+            final byte[] grown = pool.acquire(Math.max(capacity, buf.length * 2));
+            System.arraycopy(buf, 0, grown, 0, count);
+            pool.release(buf);
+            buf = grown;
+        }
+    }
+
+    /**
+     * Number of bytes written.
+     *
+     * @return the size
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * The backing array; its first {@link #size()} bytes are the content.
+     *
+     * @return the array, valid until more is written, or the buffer is released.
+     */
+    public byte[] array() {
+        return buf;
+    }
+
+    /**
+     * Decode the content.
+     *
+     * @param charset Charset of the content
+     * @return the content as a String
+     */
+    public String toString(Charset charset) {
+        return new String(buf, 0, count, charset);
+    }
+
+    /**
+     * Write the content to a stream.
+     *
+     * @param out The stream
+     * @throws IOException if the stream cannot be written
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(buf, 0, count);
+    }
+
+    /**
+     * Read the content as a stream.
+     * <p>
+     * The buffer is released when the stream reaches its end, or is closed.
+     * </p>
+     *
+     * @return stream of the content
+     */
+    public ContentStream inputStream() {
+        return new ContentStream();
+    }
+
+    /**
+     * Discard the content, keeping the backing array.
+     */
+    public void reset() {
+        count = 0;
+    }
+
+    /**
+     * Discard the content, and return the backing array to the pool.
+     */
+    public void release() {
+        final byte[] released = buf;
+        buf = EMPTY;
+        count = 0;
+        pool.release(released);
+    }
+
+    /**
+     * Stream of the content of a buffer, which releases the buffer at its end.
+     */
+    public class ContentStream extends InputStream {
+
+        private int pos = 0;
+
+        @Override
+        public int read() {
+            if (pos >= count) {
+                release();
+                return -1;
+            }
+            return buf[pos++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (pos >= count) {
+                release();
+                return -1;
+            }
+            final int read = Math.min(len, count - pos);
+            System.arraycopy(buf, pos, b, off, read);
+            pos += read;
+            return read;
+        }
+
+        @Override
+        public int available() {
+            return Math.max(0, count - pos);
+        }
+
+        @Override
+        public void close() {
+            release();
+        }
+    }
+}
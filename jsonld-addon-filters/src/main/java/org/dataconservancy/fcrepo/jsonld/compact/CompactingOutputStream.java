@@ -18,12 +18,19 @@ package org.dataconservancy.fcrepo.jsonld.compact;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 
-import java.io.ByteArrayOutputStream;
 import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.URL;
+import java.util.function.BiConsumer;
+import java.util.function.LongConsumer;
 
+import org.apache.commons.io.output.CountingOutputStream;
+import org.dataconservancy.fcrepo.jsonld.BodyLog;
+import org.dataconservancy.fcrepo.jsonld.buffer.CaptureBuffer;
+import org.dataconservancy.fcrepo.jsonld.metrics.Counter;
+import org.dataconservancy.fcrepo.jsonld.metrics.Metrics;
+import org.dataconservancy.fcrepo.jsonld.metrics.ServerTiming;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -32,7 +39,12 @@ import org.slf4j.LoggerFactory;
  * <p>
  * If {@link #compactionEnabled} is called (before writing content, of course), then anything written to the wrapped
  * OutputStream will be collected in a buffer, compacted, and written to the wrapped buffer upon {@link #close()}.
- * Otherwise, the bytes are passed along unmodified.
+ * Otherwise, the bytes are passed along unmodified. The length of compacted content is given to a callback before it
+ * is written, so that an exact Content-Length may be set. Captured content is limited as described in
+ * {@link CaptureBuffer}; nothing is written if the limit is exceeded. If the compactor is streaming, compacted content
+ * is written as it is produced, with no length given; otherwise, content is compacted as a whole, even if it was spilled
+ * to a file. Before compacting, <code>X-CREATED</code> and
+ * <code>X-MODIFIED</code> headers are given to a callback, from the dates of the resource.
  * </p>
  *
  * @author apb@jhu.edu
@@ -41,13 +53,27 @@ public class CompactingOutputStream extends FilterOutputStream {
 
     private static final Logger LOG = LoggerFactory.getLogger(CompactingOutputStream.class);
 
+    private static final BodyLog BODY = new BodyLog(CompactingOutputStream.class);
+
+    private static final Counter COMPACTED = Metrics.shared().counter("compaction.compacted");
+
+    private static final Counter BYTES_IN = Metrics.shared().counter("compaction.bytes.in");
+
+    private static final Counter BYTES_OUT = Metrics.shared().counter("compaction.bytes.out");
+
     final Compactor compactor;
 
     boolean compactionEnabled = false;
 
     private final URL context;
 
-    final ByteArrayOutputStream captured = new ByteArrayOutputStream();
+    final CaptureBuffer captured = CaptureBuffer.configured();
+
+    LongConsumer compactedLength = len -> {
+    };
+
+    BiConsumer<String, String> headers = (name, value) -> {
+    };
 
     /**
      * Wrap the given OutputStream with the given compactor and context URL.
@@ -64,13 +90,31 @@ public class CompactingOutputStream extends FilterOutputStream {
 
     @Override
     public void write(int b) throws IOException {
-        if (compactionEnabled && context != null) {
+        if (isCompacting()) {
             captured.write(b);
         } else {
             super.write(b);
         }
     }
 
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (isCompacting()) {
+            captured.write(b, off, len);
+        } else {
+            out.write(b, off, len);
+        }
+    }
+
+    /**
+     * Determine if written content is captured for compaction.
+     *
+     * @return true if compaction is enabled, and there is a context to compact with.
+     */
+    boolean isCompacting() {
+        return compactionEnabled && context != null;
+    }
+
     /**
      * Tell the compactor to do JSON-LD compaction when it starts getting input.
      */
@@ -79,21 +123,54 @@ public class CompactingOutputStream extends FilterOutputStream {
         this.compactionEnabled = true;
     }
 
+    private void addDateHeaders() throws IOException {
+        final ResourceDates dates = ResourceDates.read(captured.inputStream());
+        if (dates.created != null) {
+            headers.accept("X-CREATED", dates.created);
+        }
+        if (dates.lastModified != null) {
+            headers.accept("X-MODIFIED", dates.lastModified);
+        }
+    }
+
     @Override
     public void close() throws IOException {
 
         try {
-            if (compactionEnabled && context != null && captured.size() > 0) {
-                LOG.debug("Going to compact raw input:\n {}", new String(captured.toByteArray()));
-                final String compacted = compactor.compact(new String(captured.toByteArray(), UTF_8), context);
-                LOG.debug("Returning compacted jsonld: {}", compacted);
-                super.out.write(compacted.getBytes(UTF_8));
+            if (captured.isExceeded()) {
+                LOG.debug("Captured content exceeded its limit, not compacting");
+            } else if (isCompacting() && captured.size() > 0) {
+                COMPACTED.increment();
+                BYTES_IN.add(captured.size());
+                addDateHeaders();
+                final CountingOutputStream counted = new CountingOutputStream(super.out);
+                if (compactor.isStreaming()) {
+                    // Compacted nodes are written as they are compacted, so their timings cannot be reported
+                    ServerTiming.appendTo(headers);
+                }
+                if (compactor.isStreaming() && compactor.compact(captured.inputStream(), context, counted)) {
+                    LOG.debug("Compacted captured jsonld node by node");
+                    BYTES_OUT.add(counted.getByteCount());
+                } else {
+                    final String raw = captured.toString(UTF_8);
+                    // Captured content is compacted once, even if closed more than once
+                    captured.release();
+                    BODY.debug("Going to compact raw input", () -> raw);
+                    final String compacted = compactor.compact(raw, context);
+                    BODY.debug("Returning compacted jsonld", () -> compacted);
+                    final byte[] bytes = compacted.getBytes(UTF_8);
+                    compactedLength.accept(bytes.length);
+                    ServerTiming.appendTo(headers);
+                    BYTES_OUT.add(bytes.length);
+                    super.out.write(bytes);
+                }
             } else {
                 LOG.debug("Not doing compaction");
             }
         } catch (final Exception e) {
             throw new RuntimeException("Could not compact jsonld", e);
         } finally {
+            captured.release();
             super.close();
         }
     }
@@ -16,20 +16,21 @@
 
 package org.dataconservancy.fcrepo.jsonld.compact;
 
+import static org.dataconservancy.fcrepo.jsonld.ConfigUtil.JSONLD_COMPACTION_STREAMING;
+import static org.dataconservancy.fcrepo.jsonld.ConfigUtil.JSONLD_CONTEXT_HEADER;
 import static org.dataconservancy.fcrepo.jsonld.ConfigUtil.JSONLD_MINIMAL_CONTEXT;
 import static org.dataconservancy.fcrepo.jsonld.ConfigUtil.JSONLD_PERSIST_CONTEXT;
-import static org.dataconservancy.fcrepo.jsonld.ConfigUtil.getValue;
 import static org.dataconservancy.fcrepo.jsonld.JsonldUtil.loadContexts;
 
 import java.io.IOException;
 import java.io.Writer;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.Enumeration;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.TreeMap;
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
 import javax.servlet.FilterConfig;
@@ -37,43 +38,108 @@ import javax.servlet.ServletException;
 import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServletRequest;
-import javax.servlet.http.HttpServletRequestWrapper;
 import javax.servlet.http.HttpServletResponse;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.github.jsonldjava.core.JsonLdOptions;
+import org.dataconservancy.fcrepo.jsonld.ConfigSnapshot;
 import org.dataconservancy.fcrepo.jsonld.LogUtil;
+import org.dataconservancy.fcrepo.jsonld.ReloadableConfig;
+import org.dataconservancy.fcrepo.jsonld.health.Health;
+import org.dataconservancy.fcrepo.jsonld.health.Warmup;
+import org.dataconservancy.fcrepo.jsonld.metrics.Counter;
+import org.dataconservancy.fcrepo.jsonld.metrics.Metrics;
+import org.dataconservancy.fcrepo.jsonld.metrics.ServerTiming;
+import org.dataconservancy.fcrepo.jsonld.metrics.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * Servlet filter which compacts responses according to configured context.
+ * <p>
+ * Clients may ask for any of the preloaded contexts instead of the default, as described in {@link ContextSelector}.
+ * All of these contexts are compiled when the filter is initialized, and again when the {@link ReloadableConfig
+ * configuration is reloaded}; requests in progress keep using the contexts they started with.
+ * </p>
+ * <p>
+ * The filter may be mapped to the <code>FORWARD</code> dispatcher as well as <code>REQUEST</code>, so that responses
+ * forwarded by filters mapped before it (e.g. the representation returned by a merge patch) are compacted too. A
+ * dispatch whose response is already being compacted by an enclosing one is passed through untouched, so nothing is
+ * compacted twice.
+ * </p>
  *
  * @author apb@jhu.edu
  */
 public class CompactionFilter implements Filter {
 
+    private static final Timer TIMER = Metrics.shared().timer("filter.compaction");
+
+    private static final Counter RESPONSES = Metrics.shared().counter("compaction.responses");
+
     public static final String CONTEXT_COMPACTION_URI_PROP = "compaction.uri";
 
-    private static final String JSONLD_VALUE_FIELD = "@value";
+    static final String GAUGE_CONTEXTS = "compaction.contexts";
+
+    static final String GAUGE_CONTEXTS_CACHED = "compaction.contexts.cached";
+
+    /* Request attribute present while a response is being compacted */
+    static final String COMPACTING = CompactionFilter.class.getName() + ".compacting";
 
-    private URL defaultContext;
+    private String initContext;
 
-    private Compactor compactor;
+    private volatile Configured configured;
+
+    private final Runnable reloader = this::reload;
 
     Logger LOG = LoggerFactory.getLogger(CompactionFilter.class);
 
     @Override
     public void init(FilterConfig filterConfig) throws ServletException {
-        LogUtil.adjustLogLevels();
+        final ConfigSnapshot config = ConfigSnapshot.refresh();
+        LogUtil.adjustLogLevels(config);
 
         LOG.info("Initializing compaction filter");
 
-        final String context = Optional.ofNullable(filterConfig.getInitParameter("context")).orElse(getValue(
-            CONTEXT_COMPACTION_URI_PROP));
+        initContext = filterConfig.getInitParameter("context");
+        configured = configure(config);
+        ReloadableConfig.addListener(reloader);
+        Metrics.shared().attach();
+
+        Health.register(GAUGE_CONTEXTS, this::contextStatus);
+        Health.register(GAUGE_CONTEXTS_CACHED, () -> configured.compactor.compiledCount());
+
+        final int iterations = Warmup.iterations(config);
+        if (iterations > 0) {
+            warm(configured, iterations);
+        }
+    }
+
+    /* Compact a sample with every context that may be used */
+    private static void warm(Configured warming, int iterations) {
+        final List<URL> contexts = new ArrayList<>(warming.contexts.allowed());
+        if (contexts.isEmpty() && warming.contexts.defaultContext() != null) {
+            contexts.add(warming.contexts.defaultContext());
+        }
+
+        final String sample = Warmup.sample(Warmup.EXPANDED_SAMPLE);
+        Warmup.warm("compaction", iterations, () -> {
+            for (final URL context : contexts) {
+                warming.compactor.compact(sample, context);
+            }
+        });
+    }
+
+    private void reload() {
+        try {
+            configured = configure(ConfigSnapshot.current());
+        } catch (final ServletException e) {
+            LOG.warn("Could not reconfigure compaction filter, keeping current configuration", e);
+        }
+    }
 
+    private Configured configure(ConfigSnapshot config) throws ServletException {
+        final String context = Optional.ofNullable(initContext).orElse(config.get(CONTEXT_COMPACTION_URI_PROP));
+
+        URL defaultContext = null;
         if (context != null) {
             LOG.info("Compacting responses with context '{}'", context);
             try {
@@ -87,87 +153,103 @@ public class CompactionFilter implements Filter {
 
         final JsonLdOptions options = new JsonLdOptions();
 
-        loadContexts(options);
+        final List<URL> preloaded = loadContexts(options, config);
 
         boolean limitContexts = false;
-        if (getValue(JSONLD_MINIMAL_CONTEXT) != null && !getValue(JSONLD_MINIMAL_CONTEXT).equals("false")) {
+        if (config.isSet(JSONLD_MINIMAL_CONTEXT)) {
             limitContexts = true;
         }
 
         boolean usePersistedContext = false;
-        if (getValue(JSONLD_PERSIST_CONTEXT) != null && !getValue(JSONLD_PERSIST_CONTEXT).equals("false")) {
+        if (config.isSet(JSONLD_PERSIST_CONTEXT)) {
             usePersistedContext = true;
         }
 
-        compactor = new Compactor(options, limitContexts, usePersistedContext);
+        boolean streaming = false;
+        if (config.isSet(JSONLD_COMPACTION_STREAMING)) {
+            streaming = true;
+        }
+
+        final Compactor compactor = new Compactor(options, limitContexts, usePersistedContext, streaming);
+
+        final List<URL> allowed = new ArrayList<>(preloaded);
+        if (defaultContext != null && !preloaded.isEmpty()) {
+            allowed.add(defaultContext);
+        }
+        final ContextSelector contexts = new ContextSelector(defaultContext, allowed, config.get(JSONLD_CONTEXT_HEADER));
+
+        for (final URL allowedContext : contexts.allowed()) {
+            try {
+                compactor.precompile(allowedContext.toExternalForm());
+                LOG.info("Compiled context '{}'", allowedContext);
+            } catch (final RuntimeException e) {
+                LOG.warn("Could not compile context '{}', it will be tried again when used", allowedContext, e);
+            }
+        }
+
+        return new Configured(compactor, contexts);
     }
 
     @Override
     public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException,
         ServletException {
+        if (request.getAttribute(COMPACTING) != null) {
+            LOG.debug("Response is already being compacted by an enclosing dispatch");
+            chain.doFilter(request, response);
+            return;
+        }
+
+        final long start = TIMER.start();
+        Health.request(request);
+        final boolean timing = ServerTiming.begin((HttpServletRequest) request);
+        request.setAttribute(COMPACTING, Boolean.TRUE);
+        try {
+            filter(request, response, chain);
+        } finally {
+            request.removeAttribute(COMPACTING);
+            if (timing) {
+                ServerTiming.end();
+            }
+            TIMER.stop(start);
+        }
+    }
+
+    private void filter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException,
+        ServletException {
 
         final HttpServletRequest req = (HttpServletRequest) request;
         final HttpServletResponse resp = (HttpServletResponse) response;
 
         LOG.debug("Compaction filter is considering response");
+        RESPONSES.increment();
+
+        final Configured current = configured;
+
+        CompactionWrapper compactionWrapper = null;
 
         try {
             LOG.debug("Compaction filter will examine response");
-            final CompactionWrapper compactionWrapper = new CompactionWrapper(resp,
-                                                                              compactor,
-                                                                              defaultContext);
+            compactionWrapper = new CompactionWrapper(resp,
+                                                      current.compactor,
+                                                      current.contexts.select(req));
             chain.doFilter(new CompactionRequestWrapper(req), compactionWrapper);
 
-            if (compactionWrapper.compactingOutputStream.compactionEnabled
-                && compactionWrapper.compactingOutputStream.captured.size() > 0) {
-                ObjectNode rawJson = asObject(new ObjectMapper()
-                                                  .readValue(
-                                                      compactionWrapper.compactingOutputStream.captured.toByteArray(),
-                                                      JsonNode.class));
-
-                String lastModified = null;
-                String created = null;
-
-                // Put created and last modified properties into headers.
-                // Must check for compact and expanded JSON-LD properties.
-
-                ObjectNode lastModifiedObject = asObject(
-                    rawJson.get("http://fedora.info/definitions/v4/repository#lastModified"));
-                ObjectNode createdObject = asObject(
-                    rawJson.get("http://fedora.info/definitions/v4/repository#created"));
-
-                if (lastModifiedObject == null) {
-                    if (rawJson.has("lastModified")) {
-                        lastModified = rawJson.get("lastModified").asText();
-                    }
-                } else {
-                    if (lastModifiedObject.has(JSONLD_VALUE_FIELD)) {
-                        lastModified = lastModifiedObject.get(JSONLD_VALUE_FIELD).asText();
-                    }
-                }
-
-                if (createdObject == null) {
-                    if (rawJson.has("created")) {
-                        created = rawJson.get("created").asText();
-                    }
-                } else {
-                    if (createdObject.has(JSONLD_VALUE_FIELD)) {
-                        created = createdObject.get(JSONLD_VALUE_FIELD).asText();
-                    }
-                }
-
-                if (created != null) {
-                    resp.addHeader("X-CREATED", created);
-                }
-
-                if (lastModified != null) {
-                    resp.addHeader("X-MODIFIED", lastModified);
-                }
+            if (compactionWrapper.compactingOutputStream.captured.isExceeded()) {
+                rejectTooLarge(compactionWrapper, resp);
+                return;
             }
 
+            // Dates of the resource are added as headers when the captured content is compacted
+            compactionWrapper.releaseLength();
             compactionWrapper.compactingOutputStream.close();
         } catch (final Exception e) {
+            if (compactionWrapper != null && compactionWrapper.compactingOutputStream.captured.isExceeded()) {
+                rejectTooLarge(compactionWrapper, resp);
+                return;
+            }
             LOG.warn("Internal error", e);
+            Metrics.shared().status(500);
+            Health.error();
             resp.setStatus(500);
             try (Writer out = resp.getWriter()) {
                 out.write("Internal error: " + e.getMessage());
@@ -177,71 +259,55 @@ public class CompactionFilter implements Filter {
         }
     }
 
-    private class CompactionRequestWrapper extends HttpServletRequestWrapper {
-
-        public CompactionRequestWrapper(HttpServletRequest request) {
-            super(request);
-            getHeaderNames();
-        }
-
-        @Override
-        public String getHeader(String name) {
-            final String orig = super.getHeader(name);
-            if (name.equalsIgnoreCase("accept")) {
-                if (orig == null || orig.equals("") || orig.equals("*/*")) {
-                    final String accepts = "application/ld+json, */*";
-                    LOG.debug("Transforming original accept header {} into  {}", orig, accepts);
-                    return accepts;
-                }
-                return orig;
-            } else if (name.equalsIgnoreCase("prefer")) {
-                // Ignore requests to modify representation since this filter overriding them unless it is a request
-                // for inbound references. The PASS Java client has a getIncoming method which relies on it.
-                if (orig != null && orig.startsWith("return=representation;") && !orig.contains("http://fedora.info/definitions/v4/repository#InboundReferences")) {
-                    final String prefers = "return=representation";
-                    LOG.debug("Transforming original prefer header {} into  {}", orig, prefers);
-                    return prefers;
-                }
-                return orig;
-            } else {
-                return orig;
-            }
-        }
-
-        @Override
-        public Enumeration<String> getHeaders(String name) {
-            if (name.equalsIgnoreCase("accept")) {
-                return Collections.enumeration(Arrays.asList(getHeader("accept")));
-            } else if (name.equalsIgnoreCase("prefer")) {
-                return Collections.enumeration(Arrays.asList(getHeader("prefer")));
-            } else {
-                return super.getHeaders(name);
+    /* The response is too large to compact; nothing of it has been sent, so an error can be sent instead */
+    private void rejectTooLarge(CompactionWrapper compactionWrapper, HttpServletResponse resp) throws IOException {
+        LOG.warn("Response too large to compact, limit exceeded after {} bytes", compactionWrapper.compactingOutputStream
+            .captured.size());
+        compactionWrapper.compactingOutputStream.captured.release();
+
+        if (!resp.isCommitted()) {
+            Metrics.shared().status(502);
+            Health.error();
+            resp.setStatus(502);
+            resp.setContentType("text/plain");
+            try (Writer out = resp.getWriter()) {
+                out.write("Response too large to compact");
             }
         }
-
-        @Override
-        public Enumeration<String> getHeaderNames() {
-            final Enumeration<String> origNames = super.getHeaderNames() == null ?
-                Collections.enumeration(Collections.emptyList()) : super.getHeaderNames();
-            final List<String> names = Collections.list(origNames);
-            if (!names.contains("accept")) {
-                names.add("accept");
-            }
-
-            return Collections.enumeration(names);
-        }
-
     }
 
     @Override
     public void destroy() {
-        // nothing
+        ReloadableConfig.removeListener(reloader);
+        Metrics.shared().detach();
+        Health.unregister(GAUGE_CONTEXTS);
+        Health.unregister(GAUGE_CONTEXTS_CACHED);
     }
 
-    private static ObjectNode asObject(JsonNode n) {
-        if (n != null && n.isArray()) {
-            return (ObjectNode) n.get(0);
+    /* Whether each context that may be used has been compiled */
+    private Map<String, Boolean> contextStatus() {
+        final Configured current = configured;
+        final Map<String, Boolean> status = new TreeMap<>();
+        for (final URL context : current.contexts.allowed()) {
+            status.put(context.toExternalForm(), current.compactor.isCompiled(context.toExternalForm()));
+        }
+        if (current.contexts.defaultContext() != null) {
+            final String context = current.contexts.defaultContext().toExternalForm();
+            status.put(context, current.compactor.isCompiled(context));
+        }
+        return status;
+    }
+
+    /* Everything a request needs from the configuration, replaced as a whole on reload */
+    private static class Configured {
+
+        final Compactor compactor;
+
+        final ContextSelector contexts;
+
+        Configured(Compactor compactor, ContextSelector contexts) {
+            this.compactor = compactor;
+            this.contexts = contexts;
         }
-        return (ObjectNode) n;
     }
 }
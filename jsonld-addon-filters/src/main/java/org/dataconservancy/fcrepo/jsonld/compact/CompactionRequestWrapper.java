@@ -0,0 +1,137 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.fcrepo.jsonld.compact;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Request wrapper that asks Fedora for JSON-LD, so that it can be compacted.
+ * <p>
+ * An <code>Accept</code> header that is absent, or only has wildcard media ranges, becomes
+ * <code>application/ld+json, *&#47;*</code>. A <code>Prefer: return=representation</code> with parameters has its
+ * parameters dropped, since they would be overridden by compaction anyway; unless they ask for inbound references,
+ * which the PASS Java client relies upon. The rewritten headers are computed once, when the request is wrapped.
+ * </p>
+ *
+ * @author apb@jhu.edu
+ */
+class CompactionRequestWrapper extends HttpServletRequestWrapper {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CompactionRequestWrapper.class);
+
+    static final String JSONLD_ACCEPT = "application/ld+json, */*";
+
+    static final String RETURN_REPRESENTATION = "return=representation";
+
+    static final String INBOUND_REFERENCES = "http://fedora.info/definitions/v4/repository#InboundReferences";
+
+    private final Map<String, List<String>> rewritten;
+
+    private final List<String> names;
+
+    public CompactionRequestWrapper(HttpServletRequest request) {
+        super(request);
+
+        final Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+        final List<String> accept = values(request, "accept");
+        if (isWildcard(accept)) {
+            LOG.debug("Transforming original accept header {} into {}", accept, JSONLD_ACCEPT);
+            headers.put("accept", Collections.singletonList(JSONLD_ACCEPT));
+        } else {
+            headers.put("accept", accept);
+        }
+
+        final List<String> prefer = new ArrayList<>();
+        for (final String value : values(request, "prefer")) {
+            prefer.add(rewritePrefer(value));
+        }
+        headers.put("prefer", Collections.unmodifiableList(prefer));
+
+        this.rewritten = Collections.unmodifiableMap(headers);
+
+        final List<String> names = request.getHeaderNames() == null ? new ArrayList<>() : Collections.list(request
+            .getHeaderNames());
+        if (names.stream().noneMatch("accept"::equalsIgnoreCase)) {
+            names.add("accept");
+        }
+        this.names = Collections.unmodifiableList(names);
+    }
+
+    private static List<String> values(HttpServletRequest request, String name) {
+        final Enumeration<String> values = request.getHeaders(name);
+        return values == null ? Collections.emptyList() : Collections.unmodifiableList(Collections.list(values));
+    }
+
+    /* True if there are no media ranges other than wildcards, in any of the given accept headers */
+    static boolean isWildcard(List<String> accept) {
+        for (final String value : accept) {
+            for (final String range : value.split(",")) {
+                final int params = range.indexOf(';');
+                final String mediaRange = (params < 0 ? range : range.substring(0, params)).trim();
+                if (!mediaRange.isEmpty() && !mediaRange.equals("*/*")) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    static String rewritePrefer(String prefer) {
+        final int params = prefer.indexOf(';');
+        if (params < 0 || !prefer.substring(0, params).trim().equalsIgnoreCase(RETURN_REPRESENTATION) ||
+            prefer.contains(INBOUND_REFERENCES)) {
+            return prefer;
+        }
+
+        LOG.debug("Transforming original prefer header {} into {}", prefer, RETURN_REPRESENTATION);
+        return RETURN_REPRESENTATION;
+    }
+
+    @Override
+    public String getHeader(String name) {
+        final List<String> values = rewritten.get(name);
+        if (values == null) {
+            return super.getHeader(name);
+        }
+        return values.isEmpty() ? null : values.get(0);
+    }
+
+    @Override
+    public Enumeration<String> getHeaders(String name) {
+        final List<String> values = rewritten.get(name);
+        if (values == null) {
+            return super.getHeaders(name);
+        }
+        return Collections.enumeration(values);
+    }
+
+    @Override
+    public Enumeration<String> getHeaderNames() {
+        return Collections.enumeration(names);
+    }
+}
@@ -28,6 +28,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
+ * Response wrapper that compacts JSON-LD bodies.
+ * <p>
+ * A Content-Length given by the wrapped servlet is held until the body is written. It is passed along if the body is
+ * not compacted; otherwise, the exact length of the compacted body is set instead.
+ * </p>
+ *
  * @author apb@jhu.edu
  */
 class CompactionWrapper extends HttpServletResponseWrapper {
@@ -40,12 +46,16 @@ class CompactionWrapper extends HttpServletResponseWrapper {
 
     final ServletOutputStream delegate;
 
+    private long heldLength = -1;
+
     public CompactionWrapper(HttpServletResponse response, Compactor compactor, URL context) {
         super(response);
 
         try {
             delegate = super.getOutputStream();
             compactingOutputStream = new CompactingOutputStream(delegate, compactor, context);
+            compactingOutputStream.compactedLength = super::setContentLengthLong;
+            compactingOutputStream.headers = response::addHeader;
         } catch (final IOException e) {
             throw new RuntimeException("Could not open response output stream", e);
         }
@@ -57,9 +67,16 @@ class CompactionWrapper extends HttpServletResponseWrapper {
 
             @Override
             public void write(int b) throws IOException {
+                releaseLength();
                 compactingOutputStream.write(b);
             }
 
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                releaseLength();
+                compactingOutputStream.write(b, off, len);
+            }
+
             @Override
             public void setWriteListener(WriteListener writeListener) {
                 delegate.setWriteListener(writeListener);
@@ -73,6 +90,7 @@ class CompactionWrapper extends HttpServletResponseWrapper {
             @Override
             public void close() throws IOException {
                 LOG.debug("Closing compacting output stream");
+                releaseLength();
                 compactingOutputStream.close();
             }
         };
@@ -80,16 +98,34 @@ class CompactionWrapper extends HttpServletResponseWrapper {
 
     @Override
     public void setContentLength(int len) {
-        LOG.debug("Ignoring content length of {}", len);
+        setContentLengthLong(len);
+    }
+
+    @Override
+    public void setContentLengthLong(long len) {
+        LOG.debug("Holding content length of {}", len);
+        heldLength = len;
+    }
+
+    /* Pass along a held content length, once the body is known not to be compacted */
+    void releaseLength() {
+        if (heldLength >= 0 && !compactingOutputStream.isCompacting()) {
+            super.setContentLengthLong(heldLength);
+        }
+        heldLength = -1;
     }
 
     @Override
     public PrintWriter getWriter() throws IOException {
-        return new PrintWriter(compactingOutputStream);
+        return new PrintWriter(getOutputStream());
     }
 
     @Override
     public void addHeader(String name, String value) {
+        if (name.equalsIgnoreCase("content-length")) {
+            setContentLengthLong(parseLength(value));
+            return;
+        }
         super.addHeader(name, value);
         if (name.equalsIgnoreCase("content-type") && value.startsWith(JSON_LD_MEDIA_TYPE)) {
             compactingOutputStream.enableCompaction();
@@ -98,9 +134,21 @@ class CompactionWrapper extends HttpServletResponseWrapper {
 
     @Override
     public void setHeader(String name, String value) {
-        super.addHeader(name, value);
+        if (name.equalsIgnoreCase("content-length")) {
+            setContentLengthLong(parseLength(value));
+            return;
+        }
+        super.setHeader(name, value);
         if (name.equalsIgnoreCase("content-type") && value.startsWith(JSON_LD_MEDIA_TYPE)) {
             compactingOutputStream.enableCompaction();
         }
     }
+
+    private static long parseLength(String value) {
+        try {
+            return Long.parseLong(value.trim());
+        } catch (final NumberFormatException e) {
+            return -1;
+        }
+    }
 }
@@ -20,28 +20,53 @@ import static com.github.jsonldjava.utils.JsonUtils.fromString;
 import static org.dataconservancy.fcrepo.jsonld.ContextUtil.PREDICATE_HAS_CONTEXT;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.github.jsonldjava.core.JsonLdError;
 import com.github.jsonldjava.core.JsonLdOptions;
-import com.github.jsonldjava.core.JsonLdProcessor;
 import com.github.jsonldjava.utils.JsonUtils;
 import org.dataconservancy.fcrepo.jsonld.JsonldNtriplesTranslator;
+import org.dataconservancy.fcrepo.jsonld.metrics.Counter;
+import org.dataconservancy.fcrepo.jsonld.metrics.Metrics;
+import org.dataconservancy.fcrepo.jsonld.metrics.ServerTiming;
+import org.dataconservancy.fcrepo.jsonld.metrics.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * Compacts jsonld according to a given context.
+ * <p>
+ * If streaming, a top-level array of nodes (as Fedora produces) may instead be compacted one node at a time with
+ * {@link #compact(InputStream, URL, OutputStream)}, writing each to the output as soon as it is compacted. This gives
+ * the same document as compacting the whole array, as compaction of each top-level node is independent of the others.
+ * </p>
+ * <p>
+ * Contexts are loaded and parsed once per URI, and kept as {@link CompiledContext}s for the life of the compactor.
+ * </p>
+ * <p>
+ * A compactor may be shared by any number of threads. Compiled contexts are kept in a concurrent map, and are not
+ * modified once compiled. The given options are only read, so must not be changed once given; contexts injected with
+ * {@link org.dataconservancy.fcrepo.jsonld.JsonldUtil#addStaticContext(URL, String, JsonLdOptions)} are kept in a
+ * copy-on-write {@link org.dataconservancy.fcrepo.jsonld.SnapshotDocumentLoader}, so may be added at any time.
+ * </p>
  *
  * @author apb@jhu.edu
  */
 class Compactor {
 
-    Logger LOG = LoggerFactory.getLogger(Compactor.class);
+    final Logger LOG = LoggerFactory.getLogger(Compactor.class);
 
     private final JsonLdOptions options;
 
@@ -57,13 +82,40 @@ class Compactor {
 
     private static final List<String> INTERNAL_ATTRS = Arrays.asList("@id", "@type", "@graph");
 
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final boolean streaming;
+
+    private final ConcurrentMap<String, CompiledContext> compiled = new ConcurrentHashMap<>();
+
+    private static final Timer TIMER = Metrics.shared().timer("stage.compact");
+
+    private static final Counter CONTEXT_HITS = Metrics.shared().counter("context.cache.hits");
+
+    private static final Counter CONTEXT_MISSES = Metrics.shared().counter("context.cache.misses");
+
     public Compactor(JsonLdOptions options, boolean limitCompaction, boolean usePersistedContext) {
+        this(options, limitCompaction, usePersistedContext, false);
+    }
+
+    public Compactor(JsonLdOptions options, boolean limitCompaction, boolean usePersistedContext,
+                     boolean streaming) {
         this.options = options;
         this.limitCompaction = limitCompaction;
         this.usePersistedContext = usePersistedContext;
+        this.streaming = streaming;
         this.translator = new JsonldNtriplesTranslator(options, false, false);
     }
 
+    /**
+     * Determine if content should be given to {@link #compact(InputStream, URL, OutputStream)}.
+     *
+     * @return true if streaming compaction is enabled.
+     */
+    public boolean isStreaming() {
+        return streaming;
+    }
+
     /**
      * Produce a compact representation of the given jsonld content.
      *
@@ -73,6 +125,7 @@ class Compactor {
      * @throws Exception
      */
     public String compact(String jsonld, URL defaultContext) {
+        final long start = TIMER.start();
         try {
 
             final String contextUri;
@@ -83,22 +136,128 @@ class Compactor {
                 contextUri = defaultContext.toExternalForm();
             }
 
-            final Map<String, Object> cxt = getContext(contextUri);
+            long stage = ServerTiming.start();
+            final CompiledContext cxt = getContext(contextUri);
+            ServerTiming.stop("context", stage);
+
+            stage = ServerTiming.start();
+            final Object parsed = fromString(jsonld);
+            ServerTiming.stop("parse", stage);
 
-            final String compacted = JsonUtils.toPrettyString(
-                JsonLdProcessor.compact(fromString(jsonld), cxt, options));
+            stage = ServerTiming.start();
+            final Map<String, Object> compacted = cxt.compact(parsed);
+            ServerTiming.stop("compact", stage);
 
             if (limitCompaction) {
                 LOG.debug("Limiting response to attributes defined in context {}", contextUri);
-                return stripAttrsNotDefinedInContext(compacted, contextUri, cxt.get("@context"));
+                stage = ServerTiming.start();
+                stripAttrsNotDefinedInContext(compacted, contextUri, cxt.document.get("@context"));
+                ServerTiming.stop("strip", stage);
             }
 
-            return compacted;
+            return JsonUtils.toPrettyString(compacted);
         } catch (final JsonLdError | IOException ex) {
             throw new RuntimeException("Error converting JsonLd", ex);
+        } finally {
+            TIMER.stop(start);
+        }
+    }
+
+    /**
+     * Compact a top-level array of JSON-LD nodes one node at a time, writing each as it is compacted.
+     * <p>
+     * Only the default context is used. If the content is not a top-level array, or persisted contexts are in use
+     * (which requires looking at the whole document to find), nothing is written, and the content should be compacted
+     * with {@link #compact(String, URL)} instead.
+     * </p>
+     *
+     * @param jsonld         The jsonld.
+     * @param defaultContext Context URI to use when compacting.
+     * @param out            Stream to write compacted JSON-LD to. It is not closed.
+     * @return true if the content was compacted, false if it cannot be streamed.
+     * @throws IOException if the content cannot be read, or the output written
+     */
+    @SuppressWarnings("unchecked")
+    public boolean compact(InputStream jsonld, URL defaultContext, OutputStream out) throws IOException {
+        if (usePersistedContext) {
+            return false;
+        }
+
+        final long start = TIMER.start();
+        try (JsonParser parser = MAPPER.getFactory().createParser(jsonld)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                return false;
+            }
+
+            final String contextUri = defaultContext.toExternalForm();
+            final CompiledContext cxt = getContext(contextUri);
+
+            final JsonGenerator generator = MAPPER.getFactory().createGenerator(out).useDefaultPrettyPrinter();
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+            Map<String, Object> first = null;
+            int count = 0;
+
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                final Map<String, Object> compacted = cxt.compact(MAPPER.readValue(parser, Map.class));
+
+                // Nodes with nothing but an @id are dropped in compaction
+                if (compacted.size() == 1 && compacted.containsKey("@context")) {
+                    continue;
+                }
+
+                if (count == 0) {
+                    // A lone node is not put in a @graph, so wait to see if there is another
+                    first = compacted;
+                } else {
+                    if (count == 1) {
+                        startGraph(generator, limitCompaction ? contextUri : first.get("@context"));
+                        writeNode(generator, first);
+                    }
+                    writeNode(generator, compacted);
+                }
+                count++;
+            }
+
+            if (parser.currentToken() != JsonToken.END_ARRAY) {
+                throw new IOException("Expected an array of JSON-LD nodes, got " + parser.currentToken());
+            }
+
+            if (count == 0) {
+                MAPPER.writeValue(generator, cxt.compact(new ArrayList<>()));
+            } else if (count == 1) {
+                if (limitCompaction) {
+                    stripAttrsNotDefinedInContext(first, contextUri, cxt.document.get("@context"));
+                }
+                MAPPER.writeValue(generator, first);
+            } else {
+                generator.writeEndArray();
+                generator.writeEndObject();
+            }
+
+            generator.flush();
+            LOG.debug("Compacted {} nodes", count);
+            return true;
+        } catch (final JsonLdError ex) {
+            throw new RuntimeException("Error converting JsonLd", ex);
+        } finally {
+            TIMER.stop(start);
         }
     }
 
+    private static void startGraph(JsonGenerator generator, Object context) throws IOException {
+        generator.writeStartObject();
+        generator.writeFieldName("@context");
+        MAPPER.writeValue(generator, context);
+        generator.writeFieldName("@graph");
+        generator.writeStartArray();
+    }
+
+    private static void writeNode(JsonGenerator generator, Map<String, Object> node) throws IOException {
+        node.remove("@context");
+        MAPPER.writeValue(generator, node);
+    }
+
     private String findPersistedContext(String jsonld, URL defaultContext) {
         for (final String triple : translator.translate(jsonld).split("\n")) {
             if (triple.contains("<" + PREDICATE_HAS_CONTEXT + ">")) {
@@ -116,9 +275,7 @@ class Compactor {
     }
 
     @SuppressWarnings("unchecked")
-    private String stripAttrsNotDefinedInContext(String jsonld, String context, Object parsedAttrs)
-        throws IOException {
-        final Map<String, Object> parsedJson = (Map<String, Object>) fromString(jsonld);
+    private void stripAttrsNotDefinedInContext(Map<String, Object> parsedJson, String context, Object parsedAttrs) {
         final Map<String, Object> attrs = (Map<String, Object>) parsedAttrs;
         final List<String> toRemove = new ArrayList<>();
 
@@ -154,12 +311,38 @@ class Compactor {
         parsedJson.keySet().removeAll(toRemove);
 
         parsedJson.put("@context", context);
+    }
+
+    /**
+     * Load and parse a context ahead of its first use.
+     *
+     * @param context URI of the context
+     * @throws JsonLdError if the context cannot be loaded or parsed
+     */
+    public void precompile(String context) {
+        getContext(context);
+    }
 
-        return JsonUtils.toPrettyString(parsedJson);
+    /* Whether a context has been compiled */
+    boolean isCompiled(String context) {
+        return compiled.containsKey(context);
     }
 
-    @SuppressWarnings("unchecked")
-    private Map<String, Object> getContext(String context) throws JsonLdError {
-        return (Map<String, Object>) options.getDocumentLoader().loadDocument(context).getDocument();
+    /* Number of compiled contexts */
+    int compiledCount() {
+        return compiled.size();
+    }
+
+    private CompiledContext getContext(String context) throws JsonLdError {
+        final CompiledContext cached = compiled.get(context);
+        if (cached != null) {
+            CONTEXT_HITS.increment();
+            return cached;
+        }
+        CONTEXT_MISSES.increment();
+        return compiled.computeIfAbsent(context, uri -> {
+            LOG.debug("Compiling context {}", uri);
+            return CompiledContext.compile(uri, options);
+        });
     }
 }
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.fcrepo.jsonld.compact;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.github.jsonldjava.core.Context;
+import com.github.jsonldjava.core.JsonLdApi;
+import com.github.jsonldjava.core.JsonLdError;
+import com.github.jsonldjava.core.JsonLdOptions;
+import com.github.jsonldjava.core.JsonLdProcessor;
+
+/**
+ * A JSON-LD context, parsed once so that it may be used to compact any number of documents.
+ * <p>
+ * {@link JsonLdProcessor#compact(Object, Object, JsonLdOptions)} parses its context on every call, which for a large
+ * context like PASS's costs as much as compacting a small document. This does the same compaction with a context
+ * parsed in advance. The parsed context is not modified in compaction, so may be shared between threads; each
+ * compaction works on a shallow copy of it.
+ * </p>
+ *
+ * @author apb@jhu.edu
+ */
+class CompiledContext {
+
+    /** The context document, as loaded */
+    final Map<String, Object> document;
+
+    private final Object context;
+
+    private final Context active;
+
+    private final JsonLdOptions options;
+
+    /* A context that aliases @graph needs the processor to compact the @graph keyword */
+    private final boolean graphAliased;
+
+    private CompiledContext(Map<String, Object> document, JsonLdOptions options) {
+        this.document = document;
+        this.options = options;
+        this.context = document.containsKey("@context") ? document.get("@context") : document;
+        this.active = new Context(options).parse(context);
+        this.graphAliased = active.getInverse().containsKey("@graph");
+    }
+
+    /**
+     * Load and parse a context.
+     *
+     * @param uri URI of the context document
+     * @param options Options whose document loader has the context.
+     * @return the compiled context.
+     * @throws JsonLdError if the context cannot be loaded or parsed
+     */
+    @SuppressWarnings("unchecked")
+    static CompiledContext compile(String uri, JsonLdOptions options) {
+        return new CompiledContext((Map<String, Object>) options.getDocumentLoader().loadDocument(uri).getDocument(),
+                                   options);
+    }
+
+    /**
+     * Compact JSON-LD, as {@link JsonLdProcessor#compact(Object, Object, JsonLdOptions)} would with this context.
+     *
+     * @param input The JSON-LD, parsed
+     * @return the compacted JSON-LD
+     * @throws JsonLdError if the JSON-LD cannot be compacted
+     */
+    Map<String, Object> compact(Object input) {
+        if (graphAliased) {
+            return JsonLdProcessor.compact(input, document, options);
+        }
+
+        final List<Object> expanded = JsonLdProcessor.expand(input, options);
+        Object compacted = new JsonLdApi(options).compact(active.clone(), null, expanded, options
+            .getCompactArrays());
+
+        if (compacted instanceof List) {
+            final Map<String, Object> graph = new LinkedHashMap<>();
+            if (!((List<?>) compacted).isEmpty()) {
+                graph.put("@graph", compacted);
+            }
+            compacted = graph;
+        }
+
+        @SuppressWarnings("unchecked")
+        final Map<String, Object> result = (Map<String, Object>) compacted;
+
+        if (context instanceof Map && !((Map<?, ?>) context).isEmpty()) {
+            result.put("@context", context);
+        } else if (context instanceof List && !((List<?>) context).isEmpty()) {
+            final List<?> contexts = (List<?>) context;
+            result.put("@context", contexts.size() == 1 && options.getCompactArrays() ? contexts.get(0) : context);
+        }
+
+        return result;
+    }
+}
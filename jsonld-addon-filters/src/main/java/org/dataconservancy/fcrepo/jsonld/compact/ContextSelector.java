@@ -0,0 +1,146 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.fcrepo.jsonld.compact;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.servlet.http.HttpServletRequest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Chooses the context to compact a response with, from those a client may ask for.
+ * <p>
+ * A client may name a context in the <code>profile</code> parameter of an <code>application/ld+json</code> media
+ * range in its <code>Accept</code> header, as in
+ * <code>Accept: application/ld+json; profile="http://www.w3.org/ns/json-ld#compacted http://example.org/context"</code>,
+ * or as the value of a configured request header. Only contexts in the given whitelist may be chosen; anything else
+ * is ignored, and the default context is used.
+ * </p>
+ *
+ * @author apb@jhu.edu
+ */
+class ContextSelector {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ContextSelector.class);
+
+    static final String JSONLD_MEDIA_TYPE = "application/ld+json";
+
+    private final URL defaultContext;
+
+    private final Map<String, URL> allowed = new LinkedHashMap<>();
+
+    private final String header;
+
+    /**
+     * Create a selector.
+     *
+     * @param defaultContext Context to use if none is chosen. May be null.
+     * @param allowed Contexts that may be chosen.
+     * @param header Name of a request header that names a context. May be null.
+     */
+    ContextSelector(URL defaultContext, Collection<URL> allowed, String header) {
+        this.defaultContext = defaultContext;
+        this.header = header;
+        for (final URL context : allowed) {
+            this.allowed.put(context.toExternalForm(), context);
+        }
+    }
+
+    /**
+     * Context to use if none is chosen.
+     *
+     * @return the context, or null if there is none.
+     */
+    URL defaultContext() {
+        return defaultContext;
+    }
+
+    /**
+     * Contexts that may be chosen.
+     *
+     * @return the contexts
+     */
+    Collection<URL> allowed() {
+        return Collections.unmodifiableCollection(allowed.values());
+    }
+
+    /**
+     * Choose the context to compact the response to a request with.
+     *
+     * @param request The request
+     * @return the chosen context, or the default context if none is chosen.
+     */
+    URL select(HttpServletRequest request) {
+        if (allowed.isEmpty()) {
+            return defaultContext;
+        }
+
+        if (header != null) {
+            final String named = request.getHeader(header);
+            if (named != null && allowed.containsKey(named.trim())) {
+                LOG.debug("Compacting with context {}, from header {}", named, header);
+                return allowed.get(named.trim());
+            }
+        }
+
+        for (final String profile : profiles(request.getHeaders("accept"))) {
+            if (allowed.containsKey(profile)) {
+                LOG.debug("Compacting with context {}, from accept profile", profile);
+                return allowed.get(profile);
+            }
+        }
+
+        return defaultContext;
+    }
+
+    /* URIs in the profile parameters of JSON-LD media ranges */
+    static List<String> profiles(Enumeration<String> accept) {
+        final List<String> profiles = new ArrayList<>();
+        if (accept == null) {
+            return profiles;
+        }
+
+        while (accept.hasMoreElements()) {
+            for (final String range : accept.nextElement().split(",(?=(?:[^\"]*\"[^\"]*\")*[^\"]*$)")) {
+                final String[] parts = range.split(";(?=(?:[^\"]*\"[^\"]*\")*[^\"]*$)");
+                if (!parts[0].trim().equalsIgnoreCase(JSONLD_MEDIA_TYPE)) {
+                    continue;
+                }
+                for (int i = 1; i < parts.length; i++) {
+                    final int eq = parts[i].indexOf('=');
+                    if (eq > 0 && parts[i].substring(0, eq).trim().equalsIgnoreCase("profile")) {
+                        final String value = parts[i].substring(eq + 1).trim().replaceAll("^\"|\"$", "");
+                        for (final String uri : value.split("\\s+")) {
+                            if (!uri.isEmpty()) {
+                                profiles.add(uri);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return profiles;
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.fcrepo.jsonld.compact;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Created and last modified dates of a Fedora resource, read from its JSON-LD.
+ * <p>
+ * Only the first node is looked at. Expanded Fedora properties (objects with an <code>@value</code>) are preferred;
+ * otherwise, compacted <code>created</code> and <code>lastModified</code> properties are used. The JSON is streamed
+ * rather than parsed into a tree, and reading stops once both expanded properties are found. Content that is not JSON
+ * has no dates; it is left to compaction to report.
+ * </p>
+ *
+ * @author apb@jhu.edu
+ */
+class ResourceDates {
+
+    static final String FEDORA_CREATED = "http://fedora.info/definitions/v4/repository#created";
+
+    static final String FEDORA_LAST_MODIFIED = "http://fedora.info/definitions/v4/repository#lastModified";
+
+    private static final JsonFactory JSON = new JsonFactory();
+
+    final String created;
+
+    final String lastModified;
+
+    private ResourceDates(String created, String lastModified) {
+        this.created = created;
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * Read dates from JSON-LD.
+     *
+     * @param jsonld The JSON-LD. It is not closed.
+     * @return the dates; either of which may be null if not present.
+     * @throws IOException if the JSON-LD cannot be read
+     */
+    static ResourceDates read(InputStream jsonld) throws IOException {
+        try {
+            return parse(jsonld);
+        } catch (final JsonParseException e) {
+            return new ResourceDates(null, null);
+        }
+    }
+
+    private static ResourceDates parse(InputStream jsonld) throws IOException {
+        try (JsonParser parser = JSON.createParser(jsonld)) {
+            parser.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+
+            JsonToken token = parser.nextToken();
+            if (token == JsonToken.START_ARRAY) {
+                token = parser.nextToken();
+            }
+            if (token != JsonToken.START_OBJECT) {
+                return new ResourceDates(null, null);
+            }
+
+            Expanded created = null;
+            Expanded lastModified = null;
+            String compactCreated = null;
+            String compactLastModified = null;
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME && (created == null || lastModified == null)) {
+                final String name = parser.getCurrentName();
+                parser.nextToken();
+
+                if (FEDORA_CREATED.equals(name)) {
+                    created = Expanded.read(parser);
+                } else if (FEDORA_LAST_MODIFIED.equals(name)) {
+                    lastModified = Expanded.read(parser);
+                } else if ("created".equals(name)) {
+                    compactCreated = text(parser);
+                } else if ("lastModified".equals(name)) {
+                    compactLastModified = text(parser);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+
+            return new ResourceDates(created != null ? created.value : compactCreated,
+                                     lastModified != null ? lastModified.value : compactLastModified);
+        }
+    }
+
+    /* Text of a scalar, or empty for an object or array */
+    private static String text(JsonParser parser) throws IOException {
+        if (parser.currentToken().isStructStart()) {
+            parser.skipChildren();
+            return "";
+        }
+        return parser.getText();
+    }
+
+    /* The @value of an expanded property value, or of the first of an array of them */
+    private static class Expanded {
+
+        String value;
+
+        static Expanded read(JsonParser parser) throws IOException {
+            final boolean array = parser.currentToken() == JsonToken.START_ARRAY;
+            if (array) {
+                parser.nextToken();
+            }
+
+            Expanded expanded = null;
+            if (parser.currentToken() == JsonToken.START_OBJECT) {
+                expanded = new Expanded();
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    final String name = parser.getCurrentName();
+                    parser.nextToken();
+                    if ("@value".equals(name)) {
+                        expanded.value = text(parser);
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            } else {
+                parser.skipChildren();
+            }
+
+            if (array && parser.currentToken() != JsonToken.END_ARRAY) {
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    parser.skipChildren();
+                }
+            }
+
+            return expanded;
+        }
+    }
+}
@@ -18,7 +18,6 @@ package org.dataconservancy.fcrepo.jsonld.deserialize;
 
 import static org.dataconservancy.fcrepo.jsonld.ConfigUtil.JSONLD_PERSIST_CONTEXT;
 import static org.dataconservancy.fcrepo.jsonld.ConfigUtil.JSONLD_STRICT;
-import static org.dataconservancy.fcrepo.jsonld.ConfigUtil.getValue;
 import static org.dataconservancy.fcrepo.jsonld.JsonldUtil.loadContexts;
 
 import java.io.IOException;
@@ -35,8 +34,16 @@ import javax.servlet.http.HttpServletResponse;
 
 import com.github.jsonldjava.core.JsonLdOptions;
 import org.dataconservancy.fcrepo.jsonld.BadRequestException;
+import org.dataconservancy.fcrepo.jsonld.ConfigSnapshot;
 import org.dataconservancy.fcrepo.jsonld.JsonldNtriplesTranslator;
 import org.dataconservancy.fcrepo.jsonld.LogUtil;
+import org.dataconservancy.fcrepo.jsonld.ReloadableConfig;
+import org.dataconservancy.fcrepo.jsonld.RequestTooLargeException;
+import org.dataconservancy.fcrepo.jsonld.health.Health;
+import org.dataconservancy.fcrepo.jsonld.health.Warmup;
+import org.dataconservancy.fcrepo.jsonld.metrics.Metrics;
+import org.dataconservancy.fcrepo.jsonld.metrics.ServerTiming;
+import org.dataconservancy.fcrepo.jsonld.metrics.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -45,27 +52,49 @@ import org.slf4j.LoggerFactory;
  */
 public class DeserializationFilter implements Filter {
 
-    JsonldNtriplesTranslator translator;
+    static final String GAUGE_CACHED = "deserialization.contexts.cached";
+
+    private static final Timer TIMER = Metrics.shared().timer("filter.deserialization");
+
+    volatile JsonldNtriplesTranslator translator;
+
+    private final Runnable reloader = () -> configure(ConfigSnapshot.current());
 
     private static final Logger LOG = LoggerFactory.getLogger(DeserializationFilter.class);
 
     @Override
     public void init(FilterConfig filterConfig) throws ServletException {
-        LogUtil.adjustLogLevels();
+        final ConfigSnapshot config = ConfigSnapshot.refresh();
+        LogUtil.adjustLogLevels(config);
 
         LOG.info("Initializing JSON-LD deserialiation");
 
+        configure(config);
+        ReloadableConfig.addListener(reloader);
+        Metrics.shared().attach();
+
+        Health.register(GAUGE_CACHED, () -> translator.cachedContexts());
+
+        final int iterations = Warmup.iterations(config);
+        if (iterations > 0) {
+            final JsonldNtriplesTranslator warming = translator;
+            final String sample = Warmup.sample(Warmup.COMPACT_SAMPLE);
+            Warmup.warm("deserialization", iterations, () -> warming.translate(sample));
+        }
+    }
+
+    private void configure(ConfigSnapshot config) {
         final JsonLdOptions options = new JsonLdOptions();
 
-        loadContexts(options);
+        loadContexts(options, config);
 
         boolean strict = false;
-        if (getValue(JSONLD_STRICT) != null && !getValue(JSONLD_STRICT).equals("false")) {
+        if (config.isSet(JSONLD_STRICT)) {
             strict = true;
         }
 
         boolean persistContexts = false;
-        if (getValue(JSONLD_PERSIST_CONTEXT) != null && !getValue(JSONLD_PERSIST_CONTEXT).equals("false")) {
+        if (config.isSet(JSONLD_PERSIST_CONTEXT)) {
             persistContexts = true;
         }
         translator = new JsonldNtriplesTranslator(options, strict, persistContexts);
@@ -74,6 +103,21 @@ public class DeserializationFilter implements Filter {
     @Override
     public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException,
         ServletException {
+        final long start = TIMER.start();
+        Health.request(request);
+        final boolean timing = ServerTiming.begin((HttpServletRequest) request);
+        try {
+            filter(request, response, chain);
+        } finally {
+            if (timing) {
+                ServerTiming.end();
+            }
+            TIMER.stop(start);
+        }
+    }
+
+    private void filter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException,
+        ServletException {
 
         final HttpServletResponse resp = (HttpServletResponse) response;
 
@@ -88,13 +132,26 @@ public class DeserializationFilter implements Filter {
             contentType.contains("application/ld+json")) {
             try {
                 LOG.debug("Deserialization filter is deserializing JSON-LD");
-                chain.doFilter(new DeserializationWrapper((HttpServletRequest) request, translator), response);
+                final DeserializationWrapper deserialized = new DeserializationWrapper((HttpServletRequest) request,
+                                                                                        translator);
+                ServerTiming.appendTo(resp::addHeader);
+                chain.doFilter(deserialized, response);
             } catch (final BadRequestException e) {
+                Metrics.shared().status(400);
+                Health.error();
                 resp.setStatus(400);
                 try (Writer out = resp.getWriter()) {
                     out.write(e.getMessage());
                 }
                 LOG.warn("Bad request", e);
+            } catch (final RequestTooLargeException e) {
+                Metrics.shared().status(413);
+                Health.error();
+                resp.setStatus(413);
+                try (Writer out = resp.getWriter()) {
+                    out.write(e.getMessage());
+                }
+                LOG.warn("Request too large", e);
             }
         } else {
             LOG.debug("Deserialization filter is doing nothing: " + method + ", " + contentType);
@@ -104,6 +161,8 @@ public class DeserializationFilter implements Filter {
 
     @Override
     public void destroy() {
-
+        ReloadableConfig.removeListener(reloader);
+        Metrics.shared().detach();
+        Health.unregister(GAUGE_CACHED);
     }
 }
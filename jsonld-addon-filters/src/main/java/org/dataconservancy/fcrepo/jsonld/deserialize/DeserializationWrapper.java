@@ -18,7 +18,6 @@ package org.dataconservancy.fcrepo.jsonld.deserialize;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Arrays;
@@ -29,10 +28,15 @@ import javax.servlet.ServletInputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletRequestWrapper;
 
-import org.apache.commons.io.IOUtils;
+import org.dataconservancy.fcrepo.jsonld.BodyLog;
 import org.dataconservancy.fcrepo.jsonld.JsonldNtriplesTranslator;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import org.dataconservancy.fcrepo.jsonld.RequestTooLargeException;
+import org.dataconservancy.fcrepo.jsonld.buffer.BufferPool;
+import org.dataconservancy.fcrepo.jsonld.buffer.CaptureBuffer;
+import org.dataconservancy.fcrepo.jsonld.buffer.CaptureLimitException;
+import org.dataconservancy.fcrepo.jsonld.buffer.PooledBuffer;
+import org.dataconservancy.fcrepo.jsonld.metrics.Counter;
+import org.dataconservancy.fcrepo.jsonld.metrics.Metrics;
 
 /**
  * @author apb@jhu.edu
@@ -41,11 +45,15 @@ class DeserializationWrapper extends HttpServletRequestWrapper {
 
     private final ServletInputStream originalInputStream;
 
-    final ByteArrayInputStream translatedOutputStream;
+    final PooledBuffer.ContentStream translatedOutputStream;
 
     private final JsonldNtriplesTranslator transltor;
 
-    private static final Logger LOG = LoggerFactory.getLogger(DeserializationWrapper.class);
+    private static final BodyLog BODY = new BodyLog(DeserializationWrapper.class);
+
+    private static final Counter BYTES_IN = Metrics.shared().counter("deserialization.bytes.in");
+
+    private static final Counter BYTES_OUT = Metrics.shared().counter("deserialization.bytes.out");
 
     /**
      * @param request
@@ -58,15 +66,27 @@ class DeserializationWrapper extends HttpServletRequestWrapper {
 
             try (InputStream in = originalInputStream) {
 
-                final String originalBody = IOUtils.toString(
-                    originalInputStream, UTF_8);
-                LOG.debug("Original content:\n" + originalBody);
+                final String originalBody;
+                // Decoded whole to be translated, so never spilled to a file
+                final PooledBuffer original = BufferPool.shared().read(in, CaptureBuffer.configuredMax());
+                try {
+                    BYTES_IN.add(original.size());
+                    originalBody = original.toString(UTF_8);
+                } finally {
+                    original.release();
+                }
+                BODY.debug("Original content", () -> originalBody);
 
                 final String translatedBody = transltor.translate(originalBody);
-                LOG.debug("Translated content:\b" + translatedBody);
-                translatedOutputStream = new ByteArrayInputStream(translatedBody.getBytes(UTF_8));
+                BODY.debug("Translated content", () -> translatedBody);
+                // Released back to the pool once read to the end
+                final PooledBuffer translated = BufferPool.shared().encode(translatedBody, UTF_8);
+                BYTES_OUT.add(translated.size());
+                translatedOutputStream = translated.inputStream();
 
             }
+        } catch (final CaptureLimitException e) {
+            throw new RequestTooLargeException("Request body too large to translate", e);
         } catch (final IOException e) {
             throw new RuntimeException(e);
         }
@@ -82,6 +102,11 @@ class DeserializationWrapper extends HttpServletRequestWrapper {
                 return translatedOutputStream.read();
             }
 
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return translatedOutputStream.read(b, off, len);
+            }
+
             @Override
             public void setReadListener(ReadListener readListener) {
                 originalInputStream.setReadListener(readListener);
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.fcrepo.jsonld.health;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Supplier;
+import javax.servlet.ServletRequest;
+
+/**
+ * State of the JSON-LD filters, as reported by the {@link HealthServlet}.
+ * <p>
+ * Filters count the requests they handle, and the error responses they send themselves, as {@link RecentRate recent
+ * rates}. They also register gauges for whatever is worth knowing about them, such as the size of their caches; a
+ * gauge is only read when health is asked for, so must be cheap to read, but costs nothing otherwise.
+ * </p>
+ *
+ * @author apb@jhu.edu
+ */
+public class Health {
+
+    static final String COUNTED = Health.class.getName() + ".counted";
+
+    private static final RecentRate REQUESTS = new RecentRate();
+
+    private static final RecentRate ERRORS = new RecentRate();
+
+    private static final Map<String, Supplier<?>> gauges = new ConcurrentSkipListMap<>();
+
+    private Health() {
+        // never called
+    }
+
+    /**
+     * Count a request handled by a filter, unless another filter has counted it already.
+     *
+     * @param request The request.
+     */
+    public static void request(ServletRequest request) {
+        if (request.getAttribute(COUNTED) == null) {
+            request.setAttribute(COUNTED, Boolean.TRUE);
+            REQUESTS.record();
+        }
+    }
+
+    /**
+     * Count an error response sent by a filter.
+     */
+    public static void error() {
+        ERRORS.record();
+    }
+
+    /**
+     * Register a gauge, replacing any of the same name.
+     *
+     * @param name Name of the gauge, e.g. <code>compaction.contexts</code>.
+     * @param gauge Supplies the current value; a number, string, boolean, or collection or map of them.
+     */
+    public static void register(String name, Supplier<?> gauge) {
+        gauges.put(name, gauge);
+    }
+
+    /**
+     * Remove a gauge.
+     *
+     * @param name Name of the gauge.
+     */
+    public static void unregister(String name) {
+        gauges.remove(name);
+    }
+
+    /**
+     * Requests handled in the last minute.
+     *
+     * @return the count
+     */
+    public static long requests() {
+        return REQUESTS.count();
+    }
+
+    /**
+     * Error responses sent in the last minute.
+     *
+     * @return the count
+     */
+    public static long errors() {
+        return ERRORS.count();
+    }
+
+    /**
+     * Read all gauges.
+     *
+     * @return sorted map of gauge names to values.
+     */
+    public static Map<String, Object> gauges() {
+        final Map<String, Object> values = new TreeMap<>();
+        for (final Map.Entry<String, Supplier<?>> gauge : gauges.entrySet()) {
+            values.put(gauge.getKey(), gauge.getValue().get());
+        }
+        return Collections.unmodifiableMap(values);
+    }
+}
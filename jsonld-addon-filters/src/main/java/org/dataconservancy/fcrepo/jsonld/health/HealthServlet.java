@@ -0,0 +1,85 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.fcrepo.jsonld.health;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.dataconservancy.fcrepo.jsonld.buffer.BufferPool;
+
+/**
+ * Reports the health and readiness of the JSON-LD filters.
+ * <p>
+ * The servlet is mapped under a prefix of choice, e.g. <code>/jsonld-health/*</code>. A GET of the prefix itself
+ * describes the state of the filters in JSON: whether they are ready, {@link Warmup warm-up} progress, requests and
+ * errors in the last minute, and the {@link Health#gauges() gauges} filters have registered. A GET of
+ * <code>ready</code> under the prefix gives only readiness, for polling by a load balancer. Either responds
+ * <code>200</code> once all warm-ups have finished, and <code>503</code> before. Nothing is computed that is not
+ * already at hand, so either may be polled as often as needed.
+ * </p>
+ *
+ * @author apb@jhu.edu
+ */
+public class HealthServlet extends HttpServlet {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    static final String READY = "/ready";
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        final boolean ready = Warmup.isWarm();
+
+        resp.setStatus(ready ? 200 : 503);
+        resp.setContentType("application/json");
+        resp.setCharacterEncoding("UTF-8");
+        resp.setHeader("Cache-Control", "no-store");
+        try (Writer out = resp.getWriter()) {
+            if (READY.equals(req.getPathInfo())) {
+                out.write(ready ? "{\"ready\":true}" : "{\"ready\":false}");
+            } else {
+                MAPPER.writeValue(out, health(ready));
+            }
+        }
+    }
+
+    static Map<String, Object> health(boolean ready) {
+        final long requests = Health.requests();
+        final long errors = Health.errors();
+
+        final Map<String, Object> recent = new LinkedHashMap<>();
+        recent.put("requests", requests);
+        recent.put("errors", errors);
+        recent.put("errorRate", requests > 0 ? (double) errors / requests : 0.0);
+
+        final Map<String, Object> health = new LinkedHashMap<>();
+        health.put("ready", ready);
+        health.put("warmup", Warmup.status());
+        health.put("lastMinute", recent);
+        health.put("buffers.retained", BufferPool.shared().retained());
+        health.putAll(Health.gauges());
+        return health;
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.fcrepo.jsonld.health;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongSupplier;
+
+/**
+ * Count of events in the last minute.
+ * <p>
+ * Events are counted in one bucket per second, in a ring of sixty. A bucket left over from a previous minute is
+ * cleared when next counted in, and ignored when summed. Each bucket is a single long, holding the second it counts
+ * (truncated to 32 bits) in its upper half, and the count in its lower half; so a bucket is cleared and counted in by
+ * one compare-and-set, and no count is lost to, or read across, a bucket being cleared.
+ * </p>
+ *
+ * @author apb@jhu.edu
+ */
+public class RecentRate {
+
+    static final int SECONDS = 60;
+
+    private static final long LOWER_HALF = 0xffffffffL;
+
+    /* Second and count of each bucket, packed into one long */
+    private final AtomicLongArray buckets = new AtomicLongArray(SECONDS);
+
+    private final LongSupplier clock;
+
+    /**
+     * Count events by wall clock time.
+     */
+    public RecentRate() {
+        this(() -> System.currentTimeMillis() / 1000);
+    }
+
+    /**
+     * Count events by the given clock.
+     *
+     * @param clock Supplies the current time, in seconds.
+     */
+    RecentRate(LongSupplier clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Count an event.
+     */
+    public void record() {
+        final long now = clock.getAsLong();
+        final int bucket = (int) (now % SECONDS);
+        final long stamp = now & LOWER_HALF;
+
+        long current;
+        long next;
+        do {
+            current = buckets.get(bucket);
+            next = (current >>> 32) == stamp ? current + 1 : (stamp << 32) | 1;
+        } while (!buckets.compareAndSet(bucket, current, next));
+    }
+
+    /**
+     * Number of events in the last minute, including the current second.
+     *
+     * @return the count
+     */
+    public long count() {
+        final long now = clock.getAsLong() & LOWER_HALF;
+        long count = 0;
+        for (int bucket = 0; bucket < SECONDS; bucket++) {
+            final long packed = buckets.get(bucket);
+            if (((now - (packed >>> 32)) & LOWER_HALF) < SECONDS) {
+                count += packed & LOWER_HALF;
+            }
+        }
+        return count;
+    }
+}
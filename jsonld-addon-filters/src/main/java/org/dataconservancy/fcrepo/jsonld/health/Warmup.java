@@ -0,0 +1,158 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.fcrepo.jsonld.health;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.dataconservancy.fcrepo.jsonld.ConfigUtil.JSONLD_WARMUP;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.io.IOUtils;
+import org.dataconservancy.fcrepo.jsonld.ConfigSnapshot;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Warms up JSON-LD processing after startup, so the first requests do not pay for class loading and cold code.
+ * <p>
+ * If <code>jsonld.warmup</code> is set to a number of iterations, filters run that many synthetic operations (e.g.
+ * compacting a {@link #sample(String) bundled sample document}) when initialized. Each filter warms up in a daemon
+ * thread of its own, so that initialization is not held up; until all have finished, the addon is not
+ * {@link #isWarm() warm}, and the {@link HealthServlet} reports it as not ready. A warm-up that fails stops, and is
+ * logged, but counts as finished; the filter will work as well (or not) as it would have without warming up.
+ * </p>
+ *
+ * @author apb@jhu.edu
+ */
+public class Warmup {
+
+    static final Logger LOG = LoggerFactory.getLogger(Warmup.class);
+
+    /** Expanded JSON-LD, as Fedora would produce it */
+    public static final String EXPANDED_SAMPLE = "warmup-expanded.jsonld";
+
+    /** Compact JSON-LD with an inline context, as a client would send it */
+    public static final String COMPACT_SAMPLE = "warmup-compact.jsonld";
+
+    /** Status of a warm-up in progress */
+    public static final String WARMING = "warming";
+
+    /** Status of a finished warm-up */
+    public static final String WARM = "warm";
+
+    /** Status of a warm-up that stopped on an error */
+    public static final String FAILED = "failed";
+
+    private static final Map<String, String> status = new ConcurrentHashMap<>();
+
+    private Warmup() {
+        // never called
+    }
+
+    /**
+     * Number of warm-up iterations configured.
+     *
+     * @param config The configuration.
+     * @return the number, or 0 if warm-up is off.
+     */
+    public static int iterations(ConfigSnapshot config) {
+        return Math.max(0, config.getInt(JSONLD_WARMUP, 0));
+    }
+
+    /**
+     * Run an operation a number of times, in the background.
+     *
+     * @param name Name of what is being warmed up, e.g. <code>compaction</code>.
+     * @param iterations Number of times to run the operation.
+     * @param operation The operation.
+     * @return future that completes when the warm-up is finished, or has failed.
+     */
+    public static CompletableFuture<Void> warm(String name, int iterations, Runnable operation) {
+        status.put(name, WARMING);
+        LOG.info("Warming up {} with {} iterations", name, iterations);
+
+        return CompletableFuture.runAsync(() -> {
+            final long start = System.nanoTime();
+            try {
+                for (int i = 0; i < iterations; i++) {
+                    operation.run();
+                }
+                status.put(name, WARM);
+                LOG.info("Warmed up {} in {} ms", name, (System.nanoTime() - start) / 1_000_000);
+            } catch (final RuntimeException e) {
+                LOG.warn("Warm-up of {} failed", name, e);
+            } catch (final Error e) {
+                LOG.error("Warm-up of {} failed", name, e);
+                throw e;
+            } finally {
+                // Anything that did not finish, including an Error, must not stay warming forever
+                status.replace(name, WARMING, FAILED);
+            }
+        }, task -> {
+            final Thread thread = new Thread(task, "jsonld-warmup-" + name);
+            thread.setDaemon(true);
+            thread.start();
+        });
+    }
+
+    /**
+     * Determine if all warm-ups have finished.
+     *
+     * @return true if none are in progress.
+     */
+    public static boolean isWarm() {
+        return !status.containsValue(WARMING);
+    }
+
+    /**
+     * Status of each warm-up that has been started.
+     *
+     * @return unmodifiable, sorted, map of names to status.
+     */
+    public static Map<String, String> status() {
+        return Collections.unmodifiableMap(new TreeMap<>(status));
+    }
+
+    /**
+     * Read a bundled sample document.
+     *
+     * @param name Name of the sample, e.g. {@link #EXPANDED_SAMPLE}.
+     * @return the content of the sample
+     */
+    public static String sample(String name) {
+        try (InputStream in = Warmup.class.getResourceAsStream(name)) {
+            if (in == null) {
+                throw new IllegalArgumentException("No such sample: " + name);
+            }
+            return IOUtils.toString(in, UTF_8);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /* Forget all warm-ups */
+    static void reset() {
+        status.clear();
+    }
+}
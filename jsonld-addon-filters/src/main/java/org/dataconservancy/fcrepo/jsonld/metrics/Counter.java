@@ -0,0 +1,65 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.fcrepo.jsonld.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Count of events, or of bytes.
+ * <p>
+ * A counter obtained while metrics are disabled counts nothing.
+ * </p>
+ *
+ * @author apb@jhu.edu
+ */
+public class Counter implements CounterMXBean {
+
+    static final Counter NOOP = new Counter(false);
+
+    private final boolean enabled;
+
+    private final LongAdder count = new LongAdder();
+
+    Counter(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Count one event.
+     */
+    public void increment() {
+        if (enabled) {
+            count.increment();
+        }
+    }
+
+    /**
+     * Add to the count.
+     *
+     * @param n amount to add
+     */
+    public void add(long n) {
+        if (enabled) {
+            count.add(n);
+        }
+    }
+
+    @Override
+    public long getCount() {
+        return count.sum();
+    }
+}
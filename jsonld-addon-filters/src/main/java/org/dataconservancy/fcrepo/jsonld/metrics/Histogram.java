@@ -0,0 +1,133 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.fcrepo.jsonld.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of non-negative values, with buckets of bounded relative error, in the manner of HdrHistogram.
+ * <p>
+ * Each power of two is divided into {@link #SUB_BUCKETS} linear buckets, so that any value is counted in a bucket no
+ * wider than 1/16 of the value; and quantiles are accurate to within about 6%. The full range of <code>long</code> is
+ * covered in a fixed number of buckets, so recording never allocates, and needs no locks.
+ * </p>
+ *
+ * @author apb@jhu.edu
+ */
+public class Histogram {
+
+    static final int SUB_BUCKET_BITS = 4;
+
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    private final LongAdder count = new LongAdder();
+
+    private final LongAdder sum = new LongAdder();
+
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Record a value.
+     *
+     * @param value The value. Negative values are counted as zero.
+     */
+    public void record(long value) {
+        final long v = Math.max(0, value);
+        counts.incrementAndGet(index(v));
+        count.increment();
+        sum.add(v);
+        if (v > max.get()) {
+            max.accumulateAndGet(v, Math::max);
+        }
+    }
+
+    /**
+     * Number of values recorded.
+     *
+     * @return the count
+     */
+    public long count() {
+        return count.sum();
+    }
+
+    /**
+     * Sum of values recorded.
+     *
+     * @return the sum
+     */
+    public long sum() {
+        return sum.sum();
+    }
+
+    /**
+     * Largest value recorded.
+     *
+     * @return the largest value, or zero if none were recorded.
+     */
+    public long max() {
+        return max.get();
+    }
+
+    /**
+     * Estimate the value at a given quantile.
+     *
+     * @param quantile The quantile, from 0 to 1.
+     * @return the highest value counted in the bucket containing the quantile, or zero if none were recorded.
+     */
+    public long valueAtQuantile(double quantile) {
+        final long total = count();
+        if (total == 0) {
+            return 0;
+        }
+
+        final long rank = Math.max(1, (long) Math.ceil(Math.min(1, Math.max(0, quantile)) * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(highest(i), max());
+            }
+        }
+        return max();
+    }
+
+    static int index(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        final int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /* Highest value counted in a bucket */
+    static long highest(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        final int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        final long sub = index % SUB_BUCKETS;
+        final long lowest = (1L << exponent) | (sub << (exponent - SUB_BUCKET_BITS));
+        return lowest + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.fcrepo.jsonld.metrics;
+
+import static org.dataconservancy.fcrepo.jsonld.ConfigUtil.JSONLD_METRICS;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.dataconservancy.fcrepo.jsonld.ConfigSnapshot;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Registry of named timers and counters.
+ * <p>
+ * Metrics are disabled unless <code>jsonld.metrics</code> is set. While disabled, every timer and counter is a shared
+ * one that does nothing, so instrumented code costs no more than a branch. When enabled, all metrics may be read in
+ * Prometheus text format from {@link PrometheusServlet}, and each metric is registered with the platform MBean server
+ * as <code>org.dataconservancy.fcrepo.jsonld:type=Timer,name=...</code> (or <code>type=Counter</code>) while any
+ * filter is {@link #attach() attached}.
+ * </p>
+ * <p>
+ * Names are dotted, e.g. <code>stage.compact</code>. Timers of whole filters are named <code>filter.*</code>, and of
+ * processing stages, <code>stage.*</code>.
+ * </p>
+ *
+ * @author apb@jhu.edu
+ */
+public class Metrics {
+
+    static final Logger LOG = LoggerFactory.getLogger(Metrics.class);
+
+    static final String JMX_DOMAIN = "org.dataconservancy.fcrepo.jsonld";
+
+    private static final Metrics SHARED = new Metrics(ConfigSnapshot.current().isSet(JSONLD_METRICS), true);
+
+    private final boolean enabled;
+
+    private final boolean jmx;
+
+    private final ConcurrentMap<String, Timer> timers = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<>();
+
+    /* Names registered with JMX by this registry */
+    private final List<ObjectName> registered = new ArrayList<>();
+
+    private int attached = 0;
+
+    /**
+     * Create a registry.
+     *
+     * @param enabled Whether metrics are recorded.
+     * @param jmx Whether metrics are registered with JMX.
+     */
+    public Metrics(boolean enabled, boolean jmx) {
+        this.enabled = enabled;
+        this.jmx = jmx && enabled;
+    }
+
+    /**
+     * The shared registry, used by all filters.
+     *
+     * @return the registry
+     */
+    public static Metrics shared() {
+        return SHARED;
+    }
+
+    /**
+     * Determine if metrics are recorded.
+     *
+     * @return true if enabled.
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Get or create a timer.
+     *
+     * @param name Name of the timer
+     * @return the timer
+     */
+    public Timer timer(String name) {
+        if (!enabled) {
+            return Timer.NOOP;
+        }
+        return timers.computeIfAbsent(name, n -> register("Timer", n, new Timer(true)));
+    }
+
+    /**
+     * Get or create a counter.
+     *
+     * @param name Name of the counter
+     * @return the counter
+     */
+    public Counter counter(String name) {
+        if (!enabled) {
+            return Counter.NOOP;
+        }
+        return counters.computeIfAbsent(name, n -> register("Counter", n, new Counter(true)));
+    }
+
+    /**
+     * Count a response with an error status sent by a filter, as <code>responses.status.NNN</code>.
+     *
+     * @param status The HTTP status
+     */
+    public void status(int status) {
+        if (enabled) {
+            counter("responses.status." + status).increment();
+        }
+    }
+
+    /**
+     * Register metrics with JMX, for as long as a filter uses them.
+     * <p>
+     * Filters attach on init, and {@link #detach() detach} when destroyed. Metrics are registered while any filter is
+     * attached, including metrics created in the meantime, and are unregistered when the last one detaches; so an
+     * undeployed webapp leaves nothing behind in the platform MBean server.
+     * </p>
+     */
+    public synchronized void attach() {
+        if (jmx && attached++ == 0) {
+            timers.forEach((name, timer) -> register("Timer", name, timer));
+            counters.forEach((name, counter) -> register("Counter", name, counter));
+        }
+    }
+
+    /**
+     * Stop using metrics, unregistering them from JMX if no other filter is attached.
+     */
+    public synchronized void detach() {
+        if (!jmx || attached == 0 || --attached > 0) {
+            return;
+        }
+
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (final ObjectName name : registered) {
+            try {
+                server.unregisterMBean(name);
+            } catch (final JMException e) {
+                LOG.warn("Could not unregister {} from JMX", name, e);
+            }
+        }
+        registered.clear();
+    }
+
+    /**
+     * All timers, by name.
+     *
+     * @return sorted, unmodifiable map of timers.
+     */
+    public SortedMap<String, Timer> timers() {
+        return Collections.unmodifiableSortedMap(new TreeMap<>(timers));
+    }
+
+    /**
+     * All counters, by name.
+     *
+     * @return sorted, unmodifiable map of counters.
+     */
+    public SortedMap<String, Counter> counters() {
+        return Collections.unmodifiableSortedMap(new TreeMap<>(counters));
+    }
+
+    private synchronized <T> T register(String type, String name, T metric) {
+        if (attached > 0) {
+            try {
+                final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                final ObjectName objectName = new ObjectName(JMX_DOMAIN + ":type=" + type + ",name=" + name);
+                if (!server.isRegistered(objectName)) {
+                    server.registerMBean(metric, objectName);
+                    registered.add(objectName);
+                }
+            } catch (final JMException e) {
+                LOG.warn("Could not register {} {} with JMX", type, name, e);
+            }
+        }
+        return metric;
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.fcrepo.jsonld.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Serves metrics in the Prometheus text exposition format.
+ * <p>
+ * Counters are written as <code>jsonld_NAME_total</code>, and timers as summaries named
+ * <code>jsonld_NAME_seconds</code> with 0.5, 0.9 and 0.99 quantiles, plus a <code>jsonld_NAME_seconds_max</code>
+ * gauge. Dots in names become underscores. If metrics are disabled, responds with 404.
+ * </p>
+ *
+ * @author apb@jhu.edu
+ */
+public class PrometheusServlet extends HttpServlet {
+
+    private static final long serialVersionUID = 1L;
+
+    static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final double[] QUANTILES = { 0.5, 0.9, 0.99 };
+
+    private static final double NANOS_PER_SECOND = 1_000_000_000d;
+
+    transient Metrics metrics = Metrics.shared();
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        if (!metrics.isEnabled()) {
+            resp.sendError(404, "Metrics are not enabled");
+            return;
+        }
+
+        resp.setStatus(200);
+        resp.setContentType(CONTENT_TYPE);
+        try (Writer out = resp.getWriter()) {
+            write(metrics, out);
+        }
+    }
+
+    static void write(Metrics metrics, Writer out) throws IOException {
+        for (final Map.Entry<String, Counter> counter : metrics.counters().entrySet()) {
+            final String name = name(counter.getKey()) + "_total";
+            out.write("# TYPE " + name + " counter\n");
+            out.write(name + " " + counter.getValue().getCount() + "\n");
+        }
+
+        for (final Map.Entry<String, Timer> timer : metrics.timers().entrySet()) {
+            final String name = name(timer.getKey()) + "_seconds";
+            final Histogram histogram = timer.getValue().histogram();
+            out.write("# TYPE " + name + " summary\n");
+            for (final double quantile : QUANTILES) {
+                out.write(name + "{quantile=\"" + quantile + "\"} " + seconds(histogram.valueAtQuantile(quantile)) +
+                    "\n");
+            }
+            out.write(name + "_count " + histogram.count() + "\n");
+            out.write(name + "_sum " + seconds(histogram.sum()) + "\n");
+            out.write("# TYPE " + name + "_max gauge\n");
+            out.write(name + "_max " + seconds(histogram.max()) + "\n");
+        }
+    }
+
+    static String name(String metric) {
+        return "jsonld_" + metric.replaceAll("[^a-zA-Z0-9_]", "_");
+    }
+
+    private static String seconds(long nanos) {
+        return Double.toString(nanos / NANOS_PER_SECOND);
+    }
+}
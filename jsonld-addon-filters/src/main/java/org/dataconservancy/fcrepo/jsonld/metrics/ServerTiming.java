@@ -0,0 +1,175 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.fcrepo.jsonld.metrics;
+
+import static org.dataconservancy.fcrepo.jsonld.ConfigUtil.JSONLD_TIMING;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.BiConsumer;
+import javax.servlet.http.HttpServletRequest;
+
+import org.dataconservancy.fcrepo.jsonld.ConfigSnapshot;
+import org.dataconservancy.fcrepo.jsonld.ReloadableConfig;
+import org.slf4j.MDC;
+
+/**
+ * Per-request timings of JSON-LD processing stages, reported in <code>Server-Timing</code> response headers.
+ * <p>
+ * This is off unless <code>jsonld.timing</code> is set, which may be changed by reloading the
+ * {@link ReloadableConfig configuration}. It is read again whenever the current {@link ConfigSnapshot} has changed,
+ * so nothing here listens for reloads, or keeps the configuration watched after the filters are destroyed. When on, the first filter to see a request begins timing it
+ * on the current thread, and gives it a trace ID. The ID is taken from an <code>X-Request-ID</code> request header if
+ * there is one, and is put in the SLF4J MDC as <code>traceId</code> until the request is done. Stages like
+ * <code>parse</code> or <code>compact</code> record their durations as they run, adding up if run more than once.
+ * Filters then {@link #appendTo(BiConsumer) append} those recorded since the last time, before the response is
+ * committed; e.g. <code>Server-Timing: trace;desc="1f3a", parse;dur=0.412, compact;dur=2.950</code>.
+ * </p>
+ *
+ * @author apb@jhu.edu
+ */
+public class ServerTiming {
+
+    public static final String SERVER_TIMING = "Server-Timing";
+
+    public static final String REQUEST_ID = "X-Request-ID";
+
+    public static final String MDC_TRACE_ID = "traceId";
+
+    private static volatile boolean enabled = false;
+
+    /* Snapshot that enabled was last read from */
+    private static volatile ConfigSnapshot configuredBy;
+
+    private static final ThreadLocal<ServerTiming> CURRENT = new ThreadLocal<>();
+
+    private static final int MAX_ID_LENGTH = 64;
+
+    private final String traceId;
+
+    private final Map<String, Long> pending = new LinkedHashMap<>();
+
+    private boolean traceSent;
+
+    private ServerTiming(String traceId) {
+        this.traceId = traceId;
+    }
+
+    /* Whether timing is on in the current configuration, read again only when the snapshot has changed */
+    private static boolean isEnabled() {
+        final ConfigSnapshot config = ConfigSnapshot.current();
+        if (config != configuredBy) {
+            enabled = config.isSet(JSONLD_TIMING);
+            configuredBy = config;
+        }
+        return enabled;
+    }
+
+    /**
+     * Begin timing a request on the current thread, unless it is already being timed, or timing is off.
+     *
+     * @param request The request.
+     * @return true if timing was begun, in which case the caller must call {@link #end()} when done.
+     */
+    public static boolean begin(HttpServletRequest request) {
+        if (!isEnabled() || CURRENT.get() != null) {
+            return false;
+        }
+
+        final ServerTiming timing = new ServerTiming(traceId(request.getHeader(REQUEST_ID)));
+        CURRENT.set(timing);
+        MDC.put(MDC_TRACE_ID, timing.traceId);
+        return true;
+    }
+
+    /**
+     * Stop timing the request on the current thread.
+     */
+    public static void end() {
+        CURRENT.remove();
+        MDC.remove(MDC_TRACE_ID);
+    }
+
+    /**
+     * Start timing a stage.
+     *
+     * @return start time, to be given to {@link #stop(String, long)}.
+     */
+    public static long start() {
+        return isEnabled() ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Record the duration of a stage, if the current request is being timed.
+     *
+     * @param stage Name of the stage.
+     * @param start Start time, from {@link #start()}.
+     */
+    public static void stop(String stage, long start) {
+        if (!isEnabled()) {
+            return;
+        }
+        final ServerTiming timing = CURRENT.get();
+        if (timing != null) {
+            timing.pending.merge(stage, System.nanoTime() - start, Long::sum);
+        }
+    }
+
+    /**
+     * Append a <code>Server-Timing</code> header with stages recorded since the last time, if any.
+     *
+     * @param headers Adds a header to the response.
+     */
+    public static void appendTo(BiConsumer<String, String> headers) {
+        if (!isEnabled()) {
+            return;
+        }
+        final ServerTiming timing = CURRENT.get();
+        if (timing == null) {
+            return;
+        }
+
+        final StringBuilder header = new StringBuilder();
+        if (!timing.traceSent) {
+            header.append("trace;desc=\"").append(timing.traceId).append('"');
+            timing.traceSent = true;
+        }
+        for (final Map.Entry<String, Long> stage : timing.pending.entrySet()) {
+            if (header.length() > 0) {
+                header.append(", ");
+            }
+            header.append(stage.getKey()).append(";dur=").append(String.format(Locale.ROOT, "%.3f", stage
+                .getValue() / 1_000_000d));
+        }
+        timing.pending.clear();
+
+        if (header.length() > 0) {
+            headers.accept(SERVER_TIMING, header.toString());
+        }
+    }
+
+    /* Use a given request ID if it is safe to put in headers and logs, otherwise make one up */
+    static String traceId(String requestId) {
+        if (requestId != null && !requestId.isEmpty() && requestId.length() <= MAX_ID_LENGTH && requestId.matches(
+            "[A-Za-z0-9._-]+")) {
+            return requestId;
+        }
+        return Long.toHexString(ThreadLocalRandom.current().nextLong());
+    }
+}
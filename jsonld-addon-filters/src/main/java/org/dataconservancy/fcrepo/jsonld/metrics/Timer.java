@@ -0,0 +1,105 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.fcrepo.jsonld.metrics;
+
+/**
+ * Records durations in a {@link Histogram}, in nanoseconds.
+ * <p>
+ * Use as <code>final long start = timer.start(); ... timer.stop(start);</code>. A timer obtained while metrics are
+ * disabled does not read the clock, and records nothing.
+ * </p>
+ *
+ * @author apb@jhu.edu
+ */
+public class Timer implements TimerMXBean {
+
+    static final Timer NOOP = new Timer(false);
+
+    private static final double NANOS_PER_MILLI = 1_000_000d;
+
+    private final boolean enabled;
+
+    private final Histogram histogram = new Histogram();
+
+    Timer(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Start timing.
+     *
+     * @return start time, to be given to {@link #stop(long)}.
+     */
+    public long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Stop timing, recording the elapsed time.
+     *
+     * @param start Start time, from {@link #start()}.
+     * @return elapsed nanoseconds, or zero if disabled.
+     */
+    public long stop(long start) {
+        if (!enabled) {
+            return 0;
+        }
+        final long elapsed = System.nanoTime() - start;
+        histogram.record(elapsed);
+        return elapsed;
+    }
+
+    /**
+     * Durations recorded so far.
+     *
+     * @return the histogram, in nanoseconds.
+     */
+    public Histogram histogram() {
+        return histogram;
+    }
+
+    @Override
+    public long getCount() {
+        return histogram.count();
+    }
+
+    @Override
+    public double getMeanMillis() {
+        final long count = histogram.count();
+        return count == 0 ? 0 : histogram.sum() / NANOS_PER_MILLI / count;
+    }
+
+    @Override
+    public double getP50Millis() {
+        return histogram.valueAtQuantile(0.5) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getP90Millis() {
+        return histogram.valueAtQuantile(0.9) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getP99Millis() {
+        return histogram.valueAtQuantile(0.99) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getMaxMillis() {
+        return histogram.max() / NANOS_PER_MILLI;
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.fcrepo.jsonld.metrics;
+
+/**
+ * JMX view of a {@link Timer}.
+ *
+ * @author apb@jhu.edu
+ */
+public interface TimerMXBean {
+
+    /**
+     * Number of events timed.
+     *
+     * @return the count
+     */
+    long getCount();
+
+    /**
+     * Mean duration.
+     *
+     * @return mean in milliseconds
+     */
+    double getMeanMillis();
+
+    /**
+     * Median duration.
+     *
+     * @return median in milliseconds
+     */
+    double getP50Millis();
+
+    /**
+     * 90th percentile duration.
+     *
+     * @return 90th percentile in milliseconds
+     */
+    double getP90Millis();
+
+    /**
+     * 99th percentile duration.
+     *
+     * @return 99th percentile in milliseconds
+     */
+    double getP99Millis();
+
+    /**
+     * Longest duration.
+     *
+     * @return maximum in milliseconds
+     */
+    double getMaxMillis();
+}
@@ -0,0 +1,299 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.fcrepo.jsonld.request;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import org.dataconservancy.fcrepo.jsonld.buffer.BufferPool;
+import org.dataconservancy.fcrepo.jsonld.buffer.PooledBuffer;
+
+/**
+ * Response which holds back status, headers, and body from the wrapped response.
+ * <p>
+ * Nothing is written to the wrapped response, and it is never committed, until {@link #replay()} is called. This
+ * allows a filter to inspect the outcome of a request, and decide whether to send it or to produce a different
+ * response instead.
+ * </p>
+ *
+ * @author apb@jhu.edu
+ */
+class DeferredResponse extends HttpServletResponseWrapper {
+
+    private interface Operation {
+
+        void apply(HttpServletResponse response) throws IOException;
+    }
+
+    private final List<Operation> operations = new ArrayList<>();
+
+    private final Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+    private final PooledBuffer body = BufferPool.shared().buffer();
+
+    private int status = SC_OK;
+
+    private boolean error = false;
+
+    private PrintWriter writer;
+
+    public DeferredResponse(HttpServletResponse response) {
+        super(response);
+    }
+
+    /**
+     * Determine if the deferred response is successful.
+     *
+     * @return true if the status is 2xx, and no error was sent.
+     */
+    public boolean isSuccess() {
+        return !error && status >= 200 && status < 300;
+    }
+
+    /**
+     * Send the deferred status, headers, and body to the wrapped response.
+     *
+     * @throws IOException if the wrapped response cannot be written
+     */
+    public void replay() throws IOException {
+        final HttpServletResponse response = (HttpServletResponse) getResponse();
+
+        if (writer != null) {
+            writer.flush();
+        }
+
+        for (final Operation op : operations) {
+            op.apply(response);
+        }
+
+        try {
+            if (!error && body.size() > 0) {
+                body.writeTo(response.getOutputStream());
+            }
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Discard the deferred body, returning its buffer to the pool. Needed whenever the response is not replayed.
+     */
+    public void release() {
+        body.release();
+    }
+
+    @Override
+    public void setStatus(int sc) {
+        status = sc;
+        operations.add(r -> r.setStatus(sc));
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public void setStatus(int sc, String sm) {
+        status = sc;
+        operations.add(r -> r.setStatus(sc, sm));
+    }
+
+    @Override
+    public int getStatus() {
+        return status;
+    }
+
+    @Override
+    public void sendError(int sc) {
+        status = sc;
+        error = true;
+        operations.add(r -> r.sendError(sc));
+    }
+
+    @Override
+    public void sendError(int sc, String msg) {
+        status = sc;
+        error = true;
+        operations.add(r -> r.sendError(sc, msg));
+    }
+
+    @Override
+    public void sendRedirect(String location) {
+        status = SC_FOUND;
+        operations.add(r -> r.sendRedirect(location));
+    }
+
+    @Override
+    public void setHeader(String name, String value) {
+        replaceHeader(name, value);
+        operations.add(r -> r.setHeader(name, value));
+    }
+
+    @Override
+    public void addHeader(String name, String value) {
+        appendHeader(name, value);
+        operations.add(r -> r.addHeader(name, value));
+    }
+
+    @Override
+    public void setDateHeader(String name, long date) {
+        replaceHeader(name, String.valueOf(date));
+        operations.add(r -> r.setDateHeader(name, date));
+    }
+
+    @Override
+    public void addDateHeader(String name, long date) {
+        appendHeader(name, String.valueOf(date));
+        operations.add(r -> r.addDateHeader(name, date));
+    }
+
+    @Override
+    public void setIntHeader(String name, int value) {
+        replaceHeader(name, String.valueOf(value));
+        operations.add(r -> r.setIntHeader(name, value));
+    }
+
+    @Override
+    public void addIntHeader(String name, int value) {
+        appendHeader(name, String.valueOf(value));
+        operations.add(r -> r.addIntHeader(name, value));
+    }
+
+    private void replaceHeader(String name, String value) {
+        final List<String> values = new ArrayList<>();
+        values.add(value);
+        headers.put(name, values);
+    }
+
+    private void appendHeader(String name, String value) {
+        headers.computeIfAbsent(name, k -> new ArrayList<>()).add(value);
+    }
+
+    @Override
+    public boolean containsHeader(String name) {
+        return headers.containsKey(name);
+    }
+
+    @Override
+    public String getHeader(String name) {
+        final List<String> values = headers.get(name);
+        return values == null || values.isEmpty() ? null : values.get(0);
+    }
+
+    @Override
+    public Collection<String> getHeaders(String name) {
+        return Collections.unmodifiableList(headers.getOrDefault(name, Collections.emptyList()));
+    }
+
+    @Override
+    public Collection<String> getHeaderNames() {
+        return Collections.unmodifiableSet(headers.keySet());
+    }
+
+    @Override
+    public void setContentType(String type) {
+        operations.add(r -> r.setContentType(type));
+    }
+
+    @Override
+    public void setContentLength(int len) {
+        operations.add(r -> r.setContentLength(len));
+    }
+
+    @Override
+    public void setContentLengthLong(long len) {
+        operations.add(r -> r.setContentLengthLong(len));
+    }
+
+    @Override
+    public void setCharacterEncoding(String charset) {
+        operations.add(r -> r.setCharacterEncoding(charset));
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() {
+        return new ServletOutputStream() {
+
+            @Override
+            public void write(int b) {
+                body.write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                body.write(b, off, len);
+            }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+                // Writes never block, but the container notifies the listener through the wrapped response
+                try {
+                    getResponse().getOutputStream().setWriteListener(writeListener);
+                } catch (final IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        };
+    }
+
+    @Override
+    public PrintWriter getWriter() throws UnsupportedEncodingException {
+        if (writer == null) {
+            writer = new PrintWriter(new OutputStreamWriter(body, getCharacterEncoding()));
+        }
+        return writer;
+    }
+
+    @Override
+    public void flushBuffer() {
+        // Nothing is sent until replayed
+    }
+
+    @Override
+    public boolean isCommitted() {
+        return false;
+    }
+
+    @Override
+    public void resetBuffer() {
+        body.reset();
+    }
+
+    @Override
+    public void reset() {
+        operations.clear();
+        headers.clear();
+        body.reset();
+        status = SC_OK;
+        error = false;
+    }
+}
@@ -17,19 +17,21 @@
 package org.dataconservancy.fcrepo.jsonld.request;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.dataconservancy.fcrepo.jsonld.ConfigUtil.JSONLD_PATCH_CONDITIONAL;
 import static org.dataconservancy.fcrepo.jsonld.ConfigUtil.JSONLD_PERSIST_CONTEXT;
 import static org.dataconservancy.fcrepo.jsonld.ConfigUtil.JSONLD_STRICT;
-import static org.dataconservancy.fcrepo.jsonld.ConfigUtil.getValue;
 import static org.dataconservancy.fcrepo.jsonld.JsonldUtil.loadContexts;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Writer;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Enumeration;
+import java.util.List;
 import java.util.Optional;
+import java.util.stream.Collectors;
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
 import javax.servlet.FilterConfig;
@@ -44,58 +46,152 @@ import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpServletResponseWrapper;
 
 import com.github.jsonldjava.core.JsonLdOptions;
-import org.apache.commons.io.IOUtils;
 import org.dataconservancy.fcrepo.jsonld.BadRequestException;
+import org.dataconservancy.fcrepo.jsonld.BodyLog;
+import org.dataconservancy.fcrepo.jsonld.ConfigSnapshot;
 import org.dataconservancy.fcrepo.jsonld.JsonMergePatchTranslator;
 import org.dataconservancy.fcrepo.jsonld.LogUtil;
+import org.dataconservancy.fcrepo.jsonld.ReloadableConfig;
+import org.dataconservancy.fcrepo.jsonld.RequestTooLargeException;
+import org.dataconservancy.fcrepo.jsonld.buffer.BufferPool;
+import org.dataconservancy.fcrepo.jsonld.buffer.CaptureBuffer;
+import org.dataconservancy.fcrepo.jsonld.buffer.CaptureLimitException;
+import org.dataconservancy.fcrepo.jsonld.buffer.PooledBuffer;
+import org.dataconservancy.fcrepo.jsonld.health.Health;
+import org.dataconservancy.fcrepo.jsonld.health.Warmup;
+import org.dataconservancy.fcrepo.jsonld.metrics.Counter;
+import org.dataconservancy.fcrepo.jsonld.metrics.Metrics;
+import org.dataconservancy.fcrepo.jsonld.metrics.ServerTiming;
+import org.dataconservancy.fcrepo.jsonld.metrics.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
+ * Translates JSON merge patch requests into SPARQL update.
+ * <p>
+ * Conditional request headers (e.g. <code>If-Match</code>) are passed through untouched, so Fedora evaluates them
+ * against the resource being patched, and the <code>ETag</code> of the patched resource is returned in the response.
+ * If so configured, merge patch requests that are not conditional are rejected with
+ * <code>428 Precondition Required</code>.
+ * </p>
+ * <p>
+ * If the request contains <code>Prefer: return=representation</code>, a successful patch is answered with the
+ * JSON-LD representation of the patched resource (compacted by the compaction filter, if present), rather than an
+ * empty response.
+ * </p>
+ * <p>
+ * The representation is fetched by forwarding a GET for the patched resource, using the request URI as it was sent,
+ * still percent-encoded. Filters mapped only to the <code>REQUEST</code> dispatcher do not see that GET unless they
+ * enclose this filter. So the {@link org.dataconservancy.fcrepo.jsonld.compact.CompactionFilter compaction filter}
+ * must either be mapped before this one, or be mapped to the <code>FORWARD</code> dispatcher as well.
+ * </p>
+ *
  * @author apb@jhu.edu
  */
 public class JsonMergePatchFilter implements Filter {
 
+    static final String GAUGE_CACHED = "merge_patch.plans.cached";
+
+    private static final Timer TIMER = Metrics.shared().timer("filter.merge_patch");
+
+    private static final BodyLog BODY = new BodyLog(JsonMergePatchFilter.class);
+
+    private static final Counter BYTES_IN = Metrics.shared().counter("merge_patch.bytes.in");
+
+    private static final Counter BYTES_OUT = Metrics.shared().counter("merge_patch.bytes.out");
+
     Logger LOG = LoggerFactory.getLogger(JsonMergePatchFilter.class);
 
     static final String JSON_MERGE_PATCH = "application/merge-patch+json";
 
     static final String SPARQL_UPDATE = "application/sparql-update";
 
-    JsonMergePatchTranslator translator;
+    static final String JSON_LD = "application/ld+json";
+
+    static final String RETURN_REPRESENTATION = "return=representation";
+
+    /*
+     * Request headers that pertain to the PATCH, and should not be given to the GET of its result. This includes every
+     * conditional header, so that the GET always returns the full representation rather than 304 or 412.
+     */
+    static final List<String> PATCH_ONLY_HEADERS = Arrays.asList("content-type", "content-length", "prefer",
+                                                                 "if-match", "if-none-match", "if-modified-since",
+                                                                 "if-unmodified-since", "if-range");
+
+    private volatile Configured configured;
+
+    private final Runnable reloader = () -> configured = configure(ConfigSnapshot.current());
 
     @Override
     public void init(FilterConfig filterConfig) throws ServletException {
-        LogUtil.adjustLogLevels();
+        final ConfigSnapshot config = ConfigSnapshot.refresh();
+        LogUtil.adjustLogLevels(config);
 
         LOG.info("Initializing JSON Merge Patch Filter");
 
+        configured = configure(config);
+        ReloadableConfig.addListener(reloader);
+        Metrics.shared().attach();
+
+        Health.register(GAUGE_CACHED, () -> configured.translator.cachedPlans());
+
+        final int iterations = Warmup.iterations(config);
+        if (iterations > 0) {
+            final JsonMergePatchTranslator warming = configured.translator;
+            final String sample = Warmup.sample(Warmup.COMPACT_SAMPLE);
+            Warmup.warm("merge_patch", iterations, () -> warming.toSparql(sample, null));
+        }
+    }
+
+    private Configured configure(ConfigSnapshot config) {
         final JsonLdOptions options = new JsonLdOptions();
 
-        loadContexts(options);
+        loadContexts(options, config);
 
         boolean strict = false;
-        if (getValue(JSONLD_STRICT) != null && !getValue(JSONLD_STRICT).equals("false")) {
+        if (config.isSet(JSONLD_STRICT)) {
             LOG.info("Using strict JSON-LD");
             strict = true;
         }
 
         boolean persistContexts = false;
-        if (getValue(JSONLD_PERSIST_CONTEXT) != null && !getValue(JSONLD_PERSIST_CONTEXT).equals("false")) {
+        if (config.isSet(JSONLD_PERSIST_CONTEXT)) {
             LOG.info("Will persist PATCHed context");
             persistContexts = true;
         }
 
-        translator = new JsonMergePatchTranslator(options, strict, persistContexts);
+        boolean conditional = false;
+        if (config.isSet(JSONLD_PATCH_CONDITIONAL)) {
+            LOG.info("Requiring conditional merge patch requests");
+            conditional = true;
+        }
+
+        return new Configured(new JsonMergePatchTranslator(options, strict, persistContexts), conditional);
     }
 
     @Override
     public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException,
+        ServletException {
+        final long start = TIMER.start();
+        Health.request(request);
+        final boolean timing = ServerTiming.begin((HttpServletRequest) request);
+        try {
+            filter(request, response, chain);
+        } finally {
+            if (timing) {
+                ServerTiming.end();
+            }
+            TIMER.stop(start);
+        }
+    }
+
+    private void filter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException,
         ServletException {
         final HttpServletRequest req = (HttpServletRequest) request;
         final HttpServletResponse resp = (HttpServletResponse) response;
 
         final String method = req.getMethod();
+        final Configured current = configured;
 
         final String contentType = Optional.ofNullable(req.getHeader(
             "content-type")).orElse(Optional.ofNullable(req.getContentType()).orElse(""));
@@ -103,14 +199,42 @@ public class JsonMergePatchFilter implements Filter {
         LOG.debug("Looking at request");
         if ("PATCH".equals(method) && contentType.contains(JSON_MERGE_PATCH)) {
             LOG.debug("Handling PATCH");
+
+            if (current.requireConditional && !isConditional(req)) {
+                LOG.debug("Rejecting unconditional PATCH");
+                Metrics.shared().status(428);
+                Health.error();
+                resp.setStatus(428);
+                try (Writer out = resp.getWriter()) {
+                    out.write("Merge patch requests must be conditional, e.g. provide an If-Match header");
+                }
+                return;
+            }
+
             try {
-                chain.doFilter(new JsonMergePatchWrapper(req), new JsonMergePatchResponseWrapper(resp));
+                if (prefersRepresentation(req)) {
+                    patchAndReturnRepresentation(req, resp, chain, current.translator);
+                } else {
+                    final JsonMergePatchWrapper patch = new JsonMergePatchWrapper(req, current.translator);
+                    ServerTiming.appendTo(resp::addHeader);
+                    chain.doFilter(patch, new JsonMergePatchResponseWrapper(resp));
+                }
             } catch (final BadRequestException e) {
+                Metrics.shared().status(400);
+                Health.error();
                 resp.setStatus(400);
                 try (Writer out = resp.getWriter()) {
                     out.write(e.getMessage());
                 }
                 LOG.warn("Bad request", e);
+            } catch (final RequestTooLargeException e) {
+                Metrics.shared().status(413);
+                Health.error();
+                resp.setStatus(413);
+                try (Writer out = resp.getWriter()) {
+                    out.write(e.getMessage());
+                }
+                LOG.warn("Request too large", e);
             }
         } else {
             LOG.debug("Not a json merge patch, ignoring");
@@ -120,26 +244,98 @@ public class JsonMergePatchFilter implements Filter {
 
     @Override
     public void destroy() {
-        // nothing
+        ReloadableConfig.removeListener(reloader);
+        Metrics.shared().detach();
+        Health.unregister(GAUGE_CACHED);
+    }
+
+    /*
+     * Apply the patch while holding back Fedora's response. If successful, GET the patched resource and return its
+     * representation in lieu of the (empty) patch response.
+     */
+    private void patchAndReturnRepresentation(HttpServletRequest req, HttpServletResponse resp, FilterChain chain,
+                                              JsonMergePatchTranslator translator)
+        throws IOException, ServletException {
+        final DeferredResponse patchResponse = new DeferredResponse(resp);
+
+        final JsonMergePatchWrapper patch = new JsonMergePatchWrapper(req, translator);
+        try {
+            ServerTiming.appendTo(resp::addHeader);
+            chain.doFilter(patch, new JsonMergePatchResponseWrapper(patchResponse));
+
+            if (patchResponse.isSuccess()) {
+                LOG.debug("PATCH succeeded, returning representation");
+                resp.setHeader("Preference-Applied", RETURN_REPRESENTATION);
+                req.getRequestDispatcher(resourcePath(req))
+                   .forward(new RepresentationRequestWrapper(req), new JsonMergePatchResponseWrapper(resp));
+            } else {
+                LOG.debug("PATCH was not successful ({}), not returning representation", patchResponse.getStatus());
+                patchResponse.replay();
+            }
+        } finally {
+            // Buffers go back to the pool however the patch turned out; releasing them again does nothing
+            patchResponse.release();
+            patch.translated.close();
+        }
+    }
+
+    private static boolean prefersRepresentation(HttpServletRequest req) {
+        final String prefer = req.getHeader("prefer");
+        if (prefer == null) {
+            return false;
+        }
+
+        for (final String preference : prefer.split("[,;]")) {
+            if (preference.trim().equalsIgnoreCase(RETURN_REPRESENTATION)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+     * Path of the patched resource within the context. This is taken from the request URI rather than the servlet path,
+     * since the latter is decoded, and ids containing e.g. %2F or %3F would no longer name the same resource.
+     */
+    private static String resourcePath(HttpServletRequest req) {
+        final String uri = req.getRequestURI();
+        final String contextPath = Optional.ofNullable(req.getContextPath()).orElse("");
+        return uri.startsWith(contextPath) ? uri.substring(contextPath.length()) : uri;
+    }
+
+    private static boolean isConditional(HttpServletRequest req) {
+        return req.getHeader("if-match") != null || req.getHeader("if-unmodified-since") != null;
     }
 
     class JsonMergePatchWrapper extends HttpServletRequestWrapper {
 
-        final ByteArrayInputStream translated;
+        final PooledBuffer.ContentStream translated;
 
         final int length;
 
-        public JsonMergePatchWrapper(HttpServletRequest request) {
+        public JsonMergePatchWrapper(HttpServletRequest request, JsonMergePatchTranslator translator) {
             super(request);
             try (InputStream origInput = super.getInputStream()) {
-                final String input = IOUtils.toString(origInput, UTF_8);
-                LOG.debug("Got input JSON patch:\n{}", input);
+                final String input;
+                // Decoded whole to be translated, so never spilled to a file
+                final PooledBuffer original = BufferPool.shared().read(origInput, CaptureBuffer.configuredMax());
+                try {
+                    BYTES_IN.add(original.size());
+                    input = original.toString(UTF_8);
+                } finally {
+                    original.release();
+                }
+                BODY.debug("Got input JSON patch", () -> input);
                 final String sparql = translator.toSparql(input, null);
 
-                final byte[] sparqlBody = sparql.getBytes(UTF_8);
-                LOG.debug("Translated to sparql/update:\n " + sparql);
-                length = sparqlBody.length;
-                translated = new ByteArrayInputStream(sparqlBody);
+                final PooledBuffer sparqlBody = BufferPool.shared().encode(sparql, UTF_8);
+                BODY.debug("Translated to sparql/update", () -> sparql);
+                length = sparqlBody.size();
+                BYTES_OUT.add(length);
+                // Released back to the pool once read to the end
+                translated = sparqlBody.inputStream();
+            } catch (final CaptureLimitException e) {
+                throw new RequestTooLargeException("Merge patch too large to translate", e);
             } catch (final IOException e) {
                 throw new RuntimeException("Could not read request body", e);
             }
@@ -158,6 +354,11 @@ public class JsonMergePatchFilter implements Filter {
                     return translated.read();
                 }
 
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    return translated.read(b, off, len);
+                }
+
                 @Override
                 public void setReadListener(ReadListener readListener) {
                     origInput.setReadListener(readListener);
@@ -207,6 +408,98 @@ public class JsonMergePatchFilter implements Filter {
         }
     }
 
+    /**
+     * GET request for the JSON-LD representation of a resource that has just been patched.
+     */
+    class RepresentationRequestWrapper extends HttpServletRequestWrapper {
+
+        public RepresentationRequestWrapper(HttpServletRequest request) {
+            super(request);
+        }
+
+        @Override
+        public String getMethod() {
+            return "GET";
+        }
+
+        @Override
+        public String getHeader(String name) {
+            if (name.equalsIgnoreCase("accept")) {
+                return JSON_LD;
+            } else if (PATCH_ONLY_HEADERS.contains(name.toLowerCase())) {
+                return null;
+            }
+            return super.getHeader(name);
+        }
+
+        @Override
+        public Enumeration<String> getHeaders(String name) {
+            if (name.equalsIgnoreCase("accept")) {
+                return Collections.enumeration(Arrays.asList(JSON_LD));
+            } else if (PATCH_ONLY_HEADERS.contains(name.toLowerCase())) {
+                return Collections.emptyEnumeration();
+            }
+            return super.getHeaders(name);
+        }
+
+        @Override
+        public Enumeration<String> getHeaderNames() {
+            final List<String> names = Optional.ofNullable(super.getHeaderNames())
+                                               .map(Collections::list)
+                                               .orElse(new ArrayList<>())
+                                               .stream()
+                                               .filter(n -> !PATCH_ONLY_HEADERS.contains(n.toLowerCase()))
+                                               .collect(Collectors.toList());
+            if (names.stream().noneMatch("accept"::equalsIgnoreCase)) {
+                names.add("accept");
+            }
+            return Collections.enumeration(names);
+        }
+
+        @Override
+        public String getContentType() {
+            return null;
+        }
+
+        @Override
+        public int getContentLength() {
+            return -1;
+        }
+
+        @Override
+        public long getContentLengthLong() {
+            return -1;
+        }
+
+        @Override
+        public ServletInputStream getInputStream() throws IOException {
+            final ServletInputStream origInput = super.getInputStream();
+
+            return new ServletInputStream() {
+
+                @Override
+                public int read() {
+                    return -1;
+                }
+
+                @Override
+                public void setReadListener(ReadListener readListener) {
+                    origInput.setReadListener(readListener);
+                }
+
+                @Override
+                public boolean isReady() {
+                    return true;
+                }
+
+                @Override
+                public boolean isFinished() {
+                    return true;
+                }
+            };
+        }
+    }
+
     class JsonMergePatchResponseWrapper extends HttpServletResponseWrapper {
 
         public JsonMergePatchResponseWrapper(HttpServletResponse response) {
@@ -224,13 +517,24 @@ public class JsonMergePatchFilter implements Filter {
 
         @Override
         public void setHeader(String name, String value) {
-            super.addHeader(name, value);
             if (name.equalsIgnoreCase("accept-patch")) {
-                super.addHeader(name, value + ", " + JSON_MERGE_PATCH);
+                super.setHeader(name, value + ", " + JSON_MERGE_PATCH);
             } else {
-                super.addHeader(name, value);
+                super.setHeader(name, value);
             }
         }
     }
 
+    /* Everything a request needs from the configuration, replaced as a whole on reload */
+    private static class Configured {
+
+        final JsonMergePatchTranslator translator;
+
+        final boolean requireConditional;
+
+        Configured(JsonMergePatchTranslator translator, boolean requireConditional) {
+            this.translator = translator;
+            this.requireConditional = requireConditional;
+        }
+    }
 }
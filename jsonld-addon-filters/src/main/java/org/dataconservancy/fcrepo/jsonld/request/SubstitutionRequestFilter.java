@@ -16,18 +16,10 @@
 
 package org.dataconservancy.fcrepo.jsonld.request;
 
-import static java.nio.charset.StandardCharsets.UTF_8;
-import static org.dataconservancy.fcrepo.jsonld.ConfigUtil.extract;
-import static org.dataconservancy.fcrepo.jsonld.ConfigUtil.props;
-
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.net.URLDecoder;
-import java.net.URLEncoder;
-import java.util.HashMap;
+import java.io.InputStream;
 import java.util.Map;
 import java.util.Optional;
-import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Function;
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
@@ -40,21 +32,32 @@ import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletRequestWrapper;
 
-import org.apache.commons.io.IOUtils;
+import org.dataconservancy.fcrepo.jsonld.ConfigSnapshot;
 import org.dataconservancy.fcrepo.jsonld.LogUtil;
+import org.dataconservancy.fcrepo.jsonld.ReloadableConfig;
+import org.dataconservancy.fcrepo.jsonld.metrics.Metrics;
+import org.dataconservancy.fcrepo.jsonld.metrics.Timer;
+import org.dataconservancy.fcrepo.jsonld.substitution.ByteSubstitutor;
+import org.dataconservancy.fcrepo.jsonld.substitution.SubstitutingInputStream;
+import org.dataconservancy.fcrepo.jsonld.substitution.SubstitutionRules;
+import org.dataconservancy.fcrepo.jsonld.substitution.SubstitutionRules.Substitution;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * Substitutes text found in request bodies, urlencoded form POSTS, or request query parameters.
  * <p>
- * Can be configured to selectively substitute based on incoming host, or content-type.
+ * Can be configured to selectively substitute based on incoming host, or content-type. See
+ * {@link SubstitutionRules} for how hosts and terms are configured. Bodies are substituted as they are read, rather
+ * than buffered; urlencoded bodies are substituted one name or value at a time.
  * </p>
  *
  * @author apb@jhu.edu
  */
 public class SubstitutionRequestFilter implements Filter {
 
+    private static final Timer TIMER = Metrics.shared().timer("filter.substitution_request");
+
     static final Logger LOG = LoggerFactory.getLogger(SubstitutionRequestFilter.class);
 
     static final String SUBSTITUTION_REQUEST_HOST = "request.substitute.filter.host";
@@ -63,46 +66,53 @@ public class SubstitutionRequestFilter implements Filter {
 
     static final String SUBSTITUTION_REQUEST_REPLACEMENT = "request.substitute.replacement";
 
-    Map<String, String> terms = new HashMap<>();
-
-    Map<String, String> replacements = new HashMap<>();
+    volatile SubstitutionRules rules;
 
-    Map<String, String> hosts = new HashMap<>();
+    private final Runnable reloader = () -> configure(ConfigSnapshot.current());
 
     @Override
     public void init(FilterConfig filterConfig) throws ServletException {
-        LogUtil.adjustLogLevels();
+        final ConfigSnapshot config = ConfigSnapshot.refresh();
+        LogUtil.adjustLogLevels(config);
 
         LOG.info("Initializing substitution filter");
 
-        extract(props(), SUBSTITUTION_REQUEST_HOST)
-            .entrySet().stream().forEach(e -> hosts.put(e.getValue(), e.getKey()));
-
-        terms = extract(props(), SUBSTITUTION_REQUEST_TERM);
-        replacements = extract(props(), SUBSTITUTION_REQUEST_REPLACEMENT);
+        configure(config);
+        ReloadableConfig.addListener(reloader);
+        Metrics.shared().attach();
+    }
 
-        hosts.entrySet().forEach(host -> LOG.info("{}: Replacing {} with {}",
-                                                  host.getKey(),
-                                                  terms.get(host.getValue()),
-                                                  replacements.get(host.getValue())));
+    private void configure(ConfigSnapshot config) {
+        rules = SubstitutionRules.fromConfig(config, SUBSTITUTION_REQUEST_HOST, SUBSTITUTION_REQUEST_TERM,
+                                             SUBSTITUTION_REQUEST_REPLACEMENT, null);
     }
 
     @Override
     public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException,
         ServletException {
+        final long start = TIMER.start();
+        try {
+            filter(request, response, chain);
+        } finally {
+            TIMER.stop(start);
+        }
+    }
+
+    private void filter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException,
+        ServletException {
 
         LOG.debug("Do filter");
 
-        final String host = ((HttpServletRequest) request).getHeader("host");
-        final String key = hosts.get(host);
+        final Substitution substitution = rules.forRequest((HttpServletRequest) request);
+        final ByteSubstitutor substitutor = substitution != null ? substitution.substitutor() : null;
 
-        if (!hosts.containsKey(host) || terms.get(key) == null) {
+        if (substitutor == null) {
             chain.doFilter(request, response);
             return;
         }
 
-        final HttpServletRequest req = new ParamReplacingWrapper((HttpServletRequest) request, param -> param.replace(
-            terms.get(key), replacements.get(key)));
+        final HttpServletRequest req = new ParamReplacingWrapper((HttpServletRequest) request,
+                                                                 substitutor::substitute);
 
         final String method = req.getMethod();
 
@@ -111,14 +121,10 @@ public class SubstitutionRequestFilter implements Filter {
 
         if ("POST".equals(method) && contentType.contains("urlencoded")) {
             LOG.debug("POST urlencoded");
-            chain.doFilter(new BodyReplacingWrapper(
-                req,
-                body -> encode(decode(body).replace(terms.get(key), replacements.get(key)))), response);
+            chain.doFilter(new BodyReplacingWrapper(req, substitutor::wrapUrlencoded), response);
         } else if ("POST".equals(method)) {
             LOG.debug("POST no urlencode");
-            chain.doFilter(new BodyReplacingWrapper(
-                req,
-                body -> body.replace(terms.get(key), replacements.get(key))), response);
+            chain.doFilter(new BodyReplacingWrapper(req, substitutor::wrap), response);
         } else {
             LOG.debug("Nothing, method: " + method);
             chain.doFilter(req, response);
@@ -127,56 +133,68 @@ public class SubstitutionRequestFilter implements Filter {
 
     @Override
     public void destroy() {
-        // Nothing
-    }
-
-    private static String encode(String content) {
-        try {
-            return URLEncoder.encode(content, UTF_8.toString());
-        } catch (final Exception e) {
-            throw new RuntimeException(e);
-        }
-    }
-
-    private static String decode(String content) {
-        try {
-            return URLDecoder.decode(content, UTF_8.toString());
-        } catch (final Exception e) {
-            throw new RuntimeException(e);
-        }
+        ReloadableConfig.removeListener(reloader);
+        Metrics.shared().detach();
     }
 
+    /* Substitutes the body as it is read. The length of the substituted body is not known in advance */
     private class BodyReplacingWrapper extends HttpServletRequestWrapper {
 
-        private final Function<String, String> replacer;
+        private final Function<InputStream, SubstitutingInputStream> replacer;
+
+        private ServletInputStream replaced;
 
-        public BodyReplacingWrapper(HttpServletRequest request, Function<String, String> replacer) {
+        public BodyReplacingWrapper(HttpServletRequest request,
+                                    Function<InputStream, SubstitutingInputStream> replacer) {
             super(request);
             this.replacer = replacer;
         }
 
+        @Override
+        public int getContentLength() {
+            return -1;
+        }
+
+        @Override
+        public long getContentLengthLong() {
+            return -1;
+        }
+
+        @Override
+        public String getHeader(String name) {
+            if ("content-length".equalsIgnoreCase(name)) {
+                return null;
+            }
+            return super.getHeader(name);
+        }
+
         @SuppressWarnings("resource")
         @Override
         public ServletInputStream getInputStream() throws IOException {
 
+            if (replaced != null) {
+                return replaced;
+            }
+
             final ServletInputStream delegate = super.getInputStream();
 
-            final AtomicReference<ByteArrayInputStream> translated = new AtomicReference<>();
+            final SubstitutingInputStream translated = replacer.apply(delegate);
 
-            return new ServletInputStream() {
+            replaced = new ServletInputStream() {
 
                 @Override
                 public int read() throws IOException {
+                    return translated.read();
+                }
 
-                    if (translated.get() == null) {
-                        final String content = IOUtils.toString(delegate, UTF_8);
-                        final String replaced = replacer.apply(content);
-                        translated.set(new ByteArrayInputStream(
-                            replaced.getBytes(UTF_8)));
-                        LOG.debug("Raw body: " + content);
-                        LOG.debug("Translated: " + replaced);
-                    }
-                    return translated.get().read();
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    return translated.read(b, off, len);
+                }
+
+                @Override
+                public int available() {
+                    return translated.available();
                 }
 
                 @Override
@@ -191,14 +209,16 @@ public class SubstitutionRequestFilter implements Filter {
 
                 @Override
                 public boolean isFinished() {
-                    return delegate.isFinished();
+                    return translated.isFinished();
                 }
 
                 @Override
                 public void close() throws IOException {
-                    delegate.close();
+                    translated.close();
                 }
             };
+
+            return replaced;
         }
     }
 
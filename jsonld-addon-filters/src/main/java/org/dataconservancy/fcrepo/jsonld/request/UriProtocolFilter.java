@@ -26,7 +26,10 @@ import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletRequestWrapper;
 
+import org.dataconservancy.fcrepo.jsonld.ConfigSnapshot;
 import org.dataconservancy.fcrepo.jsonld.LogUtil;
+import org.dataconservancy.fcrepo.jsonld.metrics.Metrics;
+import org.dataconservancy.fcrepo.jsonld.metrics.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -35,17 +38,29 @@ import org.slf4j.LoggerFactory;
  */
 public class UriProtocolFilter implements Filter {
 
+    private static final Timer TIMER = Metrics.shared().timer("filter.uri_protocol");
+
     Logger LOG = LoggerFactory.getLogger(UriProtocolFilter.class);
 
     @Override
     public void init(FilterConfig filterConfig) throws ServletException {
-        LogUtil.adjustLogLevels();
-
+        LogUtil.adjustLogLevels(ConfigSnapshot.refresh());
+        Metrics.shared().attach();
     }
 
     @Override
     public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException,
         ServletException {
+        final long start = TIMER.start();
+        try {
+            filter(request, response, chain);
+        } finally {
+            TIMER.stop(start);
+        }
+    }
+
+    private void filter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException,
+        ServletException {
 
         final HttpServletRequest req = ((HttpServletRequest) request);
 
@@ -69,7 +84,7 @@ public class UriProtocolFilter implements Filter {
 
     @Override
     public void destroy() {
-        // Nothing to do
+        Metrics.shared().detach();
     }
 
     private static class Protocol {
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.fcrepo.jsonld.response;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.function.LongConsumer;
+
+import org.dataconservancy.fcrepo.jsonld.buffer.BufferPool;
+import org.dataconservancy.fcrepo.jsonld.buffer.PooledBuffer;
+
+/**
+ * Holds back content up to a threshold, so that its exact length can be given before it is written.
+ * <p>
+ * If the content is finished within the threshold, its length is given to a callback (e.g. to set the Content-Length
+ * of a response), and then the content is written. Otherwise, held content is written as soon as the threshold is
+ * exceeded, and the rest streams through with no length given. Flushes are ignored while content is held, as they
+ * would commit a response before its length is known.
+ * </p>
+ *
+ * @author apb@jhu.edu
+ */
+class LengthBufferingOutputStream extends FilterOutputStream {
+
+    private final int threshold;
+
+    private final LongConsumer length;
+
+    private PooledBuffer held = BufferPool.shared().buffer();
+
+    /**
+     * Wrap an output stream.
+     *
+     * @param out Stream to write to.
+     * @param threshold Most bytes to hold back.
+     * @param length Receives the length of the content, if it is finished within the threshold.
+     */
+    LengthBufferingOutputStream(OutputStream out, int threshold, LongConsumer length) {
+        super(out);
+        this.threshold = threshold;
+        this.length = length;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (held == null) {
+            out.write(b, off, len);
+        } else if (held.size() + len <= threshold) {
+            held.write(b, off, len);
+        } else {
+            release();
+            out.write(b, off, len);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (held == null) {
+            out.flush();
+        }
+    }
+
+    /**
+     * Give the length of, and write, held content, without closing the wrapped stream.
+     *
+     * @throws IOException if the wrapped stream cannot be written
+     */
+    void finish() throws IOException {
+        if (held != null) {
+            length.accept(held.size());
+            release();
+        }
+    }
+
+    private void release() throws IOException {
+        final PooledBuffer released = held;
+        held = null;
+        try {
+            released.writeTo(out);
+        } finally {
+            released.release();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            out.close();
+        }
+    }
+}
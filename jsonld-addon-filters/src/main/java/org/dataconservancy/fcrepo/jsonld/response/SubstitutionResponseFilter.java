@@ -17,18 +17,10 @@
 package org.dataconservancy.fcrepo.jsonld.response;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
-import static org.dataconservancy.fcrepo.jsonld.ConfigUtil.extract;
-import static org.dataconservancy.fcrepo.jsonld.ConfigUtil.props;
 
-import java.io.ByteArrayOutputStream;
-import java.io.FilterOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Optional;
-import java.util.function.Function;
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
 import javax.servlet.FilterConfig;
@@ -41,94 +33,157 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpServletResponseWrapper;
 
+import org.dataconservancy.fcrepo.jsonld.ConfigSnapshot;
 import org.dataconservancy.fcrepo.jsonld.LogUtil;
+import org.dataconservancy.fcrepo.jsonld.ReloadableConfig;
+import org.dataconservancy.fcrepo.jsonld.metrics.Metrics;
+import org.dataconservancy.fcrepo.jsonld.metrics.Timer;
+import org.dataconservancy.fcrepo.jsonld.substitution.ByteSubstitutor;
+import org.dataconservancy.fcrepo.jsonld.substitution.SubstitutingOutputStream;
+import org.dataconservancy.fcrepo.jsonld.substitution.SubstitutionRules;
+import org.dataconservancy.fcrepo.jsonld.substitution.SubstitutionRules.Substitution;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Substitutes text found in response bodoes.
+ * Substitutes text found in response bodies.
  * <p>
- * Can be selectively configured to substitute conditionally based on incoming host, or media type.
+ * Can be selectively configured to substitute conditionally based on incoming host, or media type. See
+ * {@link SubstitutionRules} for how hosts and terms are configured. Bodies are substituted as they are streamed,
+ * rather than buffered.
+ * </p>
+ * <p>
+ * As substitution changes the length of a body, substituted bodies up to <code>response.substitute.buffer.max</code>
+ * bytes (64KB by default) are held until complete, and sent with their exact Content-Length. Larger bodies are
+ * streamed without one. The Content-Length of bodies that are not substituted is passed along as given.
  * </p>
  *
  * @author apb@jhu.edu
  */
 public class SubstitutionResponseFilter implements Filter {
 
+    private static final Timer TIMER = Metrics.shared().timer("filter.substitution_response");
+
     static final Logger LOG = LoggerFactory.getLogger(SubstitutionResponseFilter.class);
 
-    final String SUBSTITUTION_RESPONSE_HOST = "response.substitute.filter.host";
+    static final String SUBSTITUTION_RESPONSE_HOST = "response.substitute.filter.host";
 
-    final String SUBSTITUTION_RESPONSE_TYPES = "response.substitute.types";
+    static final String SUBSTITUTION_RESPONSE_TYPES = "response.substitute.types";
 
-    final String SUBSTITUTION_RESPONSE_TERM = "response.substitute.term";
+    static final String SUBSTITUTION_RESPONSE_TERM = "response.substitute.term";
 
-    final String SUBSTITUTION_RESPONSE_REPLACEMENT = "response.substitute.replacement";
+    static final String SUBSTITUTION_RESPONSE_REPLACEMENT = "response.substitute.replacement";
 
-    Map<String, String> types = new HashMap<>();
+    static final String SUBSTITUTION_RESPONSE_BUFFER = "response.substitute.buffer.max";
 
-    Map<String, String> terms = new HashMap<>();
+    static final int DEFAULT_BUFFER_MAX = 64 * 1024;
 
-    Map<String, String> replacements = new HashMap<>();
+    private volatile Configured configured;
 
-    Map<String, String> hosts = new HashMap<>();
+    private final Runnable reloader = this::reload;
 
     @Override
     public void init(FilterConfig filterConfig) throws ServletException {
         LOG.info("Initializing substitution response filter");
-        LogUtil.adjustLogLevels();
+        final ConfigSnapshot config = ConfigSnapshot.refresh();
+        LogUtil.adjustLogLevels(config);
+
+        final SubstitutionRules rules = SubstitutionRules.fromConfig(config, SUBSTITUTION_RESPONSE_HOST,
+                                                                     SUBSTITUTION_RESPONSE_TERM,
+                                                                     SUBSTITUTION_RESPONSE_REPLACEMENT,
+                                                                     SUBSTITUTION_RESPONSE_TYPES);
+
+        final String buffer = config.get(SUBSTITUTION_RESPONSE_BUFFER);
+        try {
+            configured = new Configured(rules, buffer != null ? Integer.parseInt(buffer.trim()) : DEFAULT_BUFFER_MAX);
+        } catch (final NumberFormatException e) {
+            throw new ServletException(String.format("Bad value of %s: '%s'", SUBSTITUTION_RESPONSE_BUFFER, buffer),
+                                       e);
+        }
 
-        extract(props(), SUBSTITUTION_RESPONSE_HOST)
-            .entrySet().stream().forEach(e -> hosts.put(e.getValue(), e.getKey()));
+        ReloadableConfig.addListener(reloader);
+        Metrics.shared().attach();
+    }
 
-        terms = extract(props(), SUBSTITUTION_RESPONSE_TERM);
-        replacements = extract(props(), SUBSTITUTION_RESPONSE_REPLACEMENT);
-        types = extract(props(), SUBSTITUTION_RESPONSE_TYPES);
+    /* Unlike at init, a bad buffer size keeps the current one rather than failing */
+    private void reload() {
+        final ConfigSnapshot config = ConfigSnapshot.current();
+        final SubstitutionRules rules = SubstitutionRules.fromConfig(config, SUBSTITUTION_RESPONSE_HOST,
+                                                                     SUBSTITUTION_RESPONSE_TERM,
+                                                                     SUBSTITUTION_RESPONSE_REPLACEMENT,
+                                                                     SUBSTITUTION_RESPONSE_TYPES);
+
+        final String buffer = config.get(SUBSTITUTION_RESPONSE_BUFFER);
+        int bufferMax = configured.bufferMax;
+        try {
+            bufferMax = buffer != null ? Integer.parseInt(buffer.trim()) : DEFAULT_BUFFER_MAX;
+        } catch (final NumberFormatException e) {
+            LOG.warn("Bad value of {}: '{}', keeping {}", SUBSTITUTION_RESPONSE_BUFFER, buffer, bufferMax);
+        }
 
-        hosts.entrySet().forEach(host -> LOG.info("{}: Replacing {} with {}",
-                                                  host.getKey(),
-                                                  terms.get(host.getValue()),
-                                                  replacements.get(host.getValue())));
+        configured = new Configured(rules, bufferMax);
     }
 
     @Override
     public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException,
         ServletException {
+        final long start = TIMER.start();
+        try {
+            filter(request, response, chain);
+        } finally {
+            TIMER.stop(start);
+        }
+    }
 
-        final String host = ((HttpServletRequest) request).getHeader("host");
-        final String key = hosts.get(host);
+    private void filter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException,
+        ServletException {
 
-        if (!hosts.containsKey(host) || terms.get(key) == null) {
+        final Configured current = configured;
+        final Substitution substitution = current.rules.forRequest((HttpServletRequest) request);
+
+        if (substitution == null) {
             chain.doFilter(request, response);
             return;
         }
 
-        chain.doFilter(request, new BodyReplacingFilter((HttpServletResponse) response, body ->
-            body.replace(terms.get(key), replacements.get(key)), types.get(key)));
+        final BodyReplacingFilter wrapped = new BodyReplacingFilter((HttpServletResponse) response, substitution,
+                                                                    current.bufferMax);
+        chain.doFilter(request, wrapped);
+        wrapped.finish();
     }
 
     @Override
     public void destroy() {
+        ReloadableConfig.removeListener(reloader);
+        Metrics.shared().detach();
     }
 
     private class BodyReplacingFilter extends HttpServletResponseWrapper {
 
-        ReplacingOutputStream outputWrapper;
+        SubstitutingOutputStream outputWrapper;
+
+        LengthBufferingOutputStream lengthBuffer;
+
+        PrintWriter writer;
 
         boolean enableReplacement = false;
 
-        final Function<String, String> transform;
+        long heldLength = -1;
+
+        final Substitution substitution;
 
-        final String mediaTypes;
+        /* Substitutor of the rules applying to the content type, once one is set that any rule applies to */
+        ByteSubstitutor substitutor;
+
+        final int bufferMax;
 
         /**
          * @param response
          */
-        public BodyReplacingFilter(HttpServletResponse response, Function<String, String> transform,
-                                   String mediaTypes) {
+        public BodyReplacingFilter(HttpServletResponse response, Substitution substitution, int bufferMax) {
             super(response);
-            this.transform = transform;
-            this.mediaTypes = Optional.ofNullable(mediaTypes).orElse("");
+            this.substitution = substitution;
+            this.bufferMax = bufferMax;
         }
 
         @SuppressWarnings("resource")
@@ -136,21 +191,29 @@ public class SubstitutionResponseFilter implements Filter {
         public ServletOutputStream getOutputStream() throws IOException {
 
             final ServletOutputStream delegate = super.getOutputStream();
-            if (outputWrapper == null) {
-                outputWrapper = new ReplacingOutputStream(delegate, transform);
-            }
 
             return new ServletOutputStream() {
 
                 @Override
                 public void write(int b) throws IOException {
                     if (enableReplacement) {
-                        outputWrapper.write(b);
+                        substituting(delegate).write(b);
                     } else {
+                        releaseLength();
                         delegate.write(b);
                     }
                 }
 
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    if (enableReplacement) {
+                        substituting(delegate).write(b, off, len);
+                    } else {
+                        releaseLength();
+                        delegate.write(b, off, len);
+                    }
+                }
+
                 @Override
                 public void setWriteListener(WriteListener writeListener) {
                     delegate.setWriteListener(writeListener);
@@ -163,101 +226,149 @@ public class SubstitutionResponseFilter implements Filter {
 
                 @Override
                 public void flush() throws IOException {
-                    outputWrapper.flush();
+                    if (enableReplacement) {
+                        substituting(delegate).flush();
+                    } else {
+                        releaseLength();
+                        delegate.flush();
+                    }
                 }
 
                 @Override
                 public void close() throws IOException {
                     if (enableReplacement) {
-                        outputWrapper.close();
+                        substituting(delegate).close();
                     } else {
+                        releaseLength();
                         delegate.close();
                     }
                 }
             };
         }
 
+        /*
+         * The substituting stream and its length buffer are created on first use, so that a response which is not
+         * substituted never takes a buffer from the pool.
+         */
+        private SubstitutingOutputStream substituting(ServletOutputStream delegate) {
+            if (outputWrapper == null) {
+                lengthBuffer = new LengthBufferingOutputStream(delegate, bufferMax, super::setContentLengthLong);
+                outputWrapper = substitutor.wrap(lengthBuffer);
+            }
+            return outputWrapper;
+        }
+
         @Override
         public PrintWriter getWriter() throws IOException {
-            if (outputWrapper == null) {
-                getOutputStream();
+            if (writer == null) {
+                writer = new PrintWriter(new OutputStreamWriter(getOutputStream(), UTF_8));
             }
-            return new PrintWriter(outputWrapper);
+            return writer;
+        }
+
+        /* Write out anything still held back for matching or for its length, once the response is complete */
+        void finish() throws IOException {
+            if (writer != null) {
+                writer.flush();
+            }
+            if (enableReplacement && outputWrapper != null) {
+                outputWrapper.finish();
+                lengthBuffer.finish();
+            } else if (!enableReplacement) {
+                releaseLength();
+            }
+        }
+
+        /* Pass along a held content length, if the body is not substituted */
+        void releaseLength() {
+            if (heldLength >= 0 && !enableReplacement) {
+                super.setContentLengthLong(heldLength);
+            }
+            heldLength = -1;
         }
 
         @Override
         public void setContentLength(int len) {
-            if (len <= 0) {
-                super.setContentLength(len);
-            }
+            setContentLengthLong(len);
+        }
+
+        @Override
+        public void setContentLengthLong(long len) {
+            heldLength = len;
         }
 
         @Override
         public void flushBuffer() throws IOException {
-            outputWrapper.flush();
+            if (writer != null) {
+                writer.flush();
+            }
+            if (enableReplacement && outputWrapper != null) {
+                outputWrapper.flush();
+            } else if (!enableReplacement) {
+                releaseLength();
+            }
         }
 
         @Override
         public void addHeader(String name, String value) {
+            if (name.equalsIgnoreCase("content-length")) {
+                setContentLengthLong(parseLength(value));
+                return;
+            }
             super.addHeader(name, value);
-            if (name.equalsIgnoreCase("content-type") && (mediaTypes.equals("") || mediaTypes.contains(value))) {
-                enableReplacement = true;
+            if (name.equalsIgnoreCase("content-type")) {
+                enableReplacementFor(value);
             }
         }
 
         @Override
         public void setHeader(String name, String value) {
-            super.addHeader(name, value);
-            if (name.equalsIgnoreCase("content-type") && (mediaTypes.equals("") || mediaTypes.contains(value))) {
-                enableReplacement = true;
+            if (name.equalsIgnoreCase("content-length")) {
+                setContentLengthLong(parseLength(value));
+                return;
+            }
+            super.setHeader(name, value);
+            if (name.equalsIgnoreCase("content-type")) {
+                enableReplacementFor(value);
             }
         }
 
         @Override
         public void setContentType(String type) {
-            if (mediaTypes.equals("") || mediaTypes.contains(type)) {
-                enableReplacement = true;
+            if (enableReplacementFor(type)) {
                 super.setContentType(type);
             }
         }
-    }
 
-    private class ReplacingOutputStream extends FilterOutputStream {
-
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-
-        final Function<String, String> transform;
-
-        public void reset() {
-            out = new ByteArrayOutputStream();
+        /* Substitute with the rules that apply to a content type, if there are any */
+        private boolean enableReplacementFor(String type) {
+            final ByteSubstitutor forType = substitution.substitutor(type);
+            if (forType != null) {
+                substitutor = forType;
+                enableReplacement = true;
+            }
+            return forType != null;
         }
+    }
 
-        public ReplacingOutputStream(OutputStream out, Function<String, String> transform) {
-            super(out);
-            this.transform = transform;
+    private static long parseLength(String value) {
+        try {
+            return Long.parseLong(value.trim());
+        } catch (final NumberFormatException e) {
+            return -1;
         }
+    }
 
-        @Override
-        public void write(int b) throws IOException {
-            out.write(b);
-        }
+    /* Everything a request needs from the configuration, replaced as a whole on reload */
+    private static class Configured {
 
-        @Override
-        public void flush() throws IOException {
-            super.out.write(transform.apply((new String(out.toByteArray(), UTF_8))).getBytes(UTF_8));
-            super.out.flush();
-            reset();
-        }
+        final SubstitutionRules rules;
 
-        @Override
-        public void close() throws IOException {
-            try {
-                flush();
-            } finally {
-                super.out.close();
-            }
-        }
+        final int bufferMax;
 
+        Configured(SubstitutionRules rules, int bufferMax) {
+            this.rules = rules;
+            this.bufferMax = bufferMax;
+        }
     }
-
 }
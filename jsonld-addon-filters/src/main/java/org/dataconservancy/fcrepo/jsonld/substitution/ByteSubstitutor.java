@@ -0,0 +1,263 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.fcrepo.jsonld.substitution;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Compiled set of term/replacement rules, matched over UTF-8 bytes.
+ * <p>
+ * Terms are compiled into a trie, with a dense transition table per state, and a table of the bytes that may start
+ * a term. Bytes that cannot start a term cost a single lookup; elsewhere, the trie is walked for at most the length of
+ * the longest term. The leftmost match is replaced and, of the terms matching there, the longest one. Matching
+ * resumes after each replacement, so replacements never overlap. A single term is therefore replaced exactly as
+ * {@link String#replace(CharSequence, CharSequence)} would.
+ * </p>
+ * <p>
+ * A substitutor is immutable apart from its hit counters, and may be shared by any number of threads. Per-stream
+ * matching state is kept by the streams it creates.
+ * </p>
+ *
+ * @author apb@jhu.edu
+ */
+public class ByteSubstitutor {
+
+    static final int ROOT = 0;
+
+    private final List<String> terms;
+
+    final byte[][] replacements;
+
+    private final LongAdder[] hits;
+
+    /* Result of a match that cannot be decided until more content is seen */
+    static final int MORE = -2;
+
+    /* Trie transitions, indexed by state, then byte; -1 if there is no transition */
+    final int[][] delta;
+
+    /* Rule index of the term ending at a state, or -1 */
+    final int[] terminal;
+
+    /* True for states with no transitions, i.e. no longer term may follow */
+    final boolean[] leaf;
+
+    final int[] termLengths;
+
+    final int maxTermLength;
+
+    /**
+     * Compile the given rules.
+     *
+     * @param rules Map of terms to their replacements. Rules with empty terms are ignored. If a term occurs more
+     *        than once, the first replacement wins.
+     */
+    public ByteSubstitutor(Map<String, String> rules) {
+        this(rules, term -> new LongAdder());
+    }
+
+    /**
+     * Compile the given rules, counting replacements of each term with the given counters.
+     *
+     * @param rules Map of terms to their replacements.
+     * @param counters Provides the counter for each term, so that counts may be shared between substitutors.
+     */
+    ByteSubstitutor(Map<String, String> rules, Function<String, LongAdder> counters) {
+        final Map<String, String> usable = new LinkedHashMap<>();
+        rules.forEach((term, replacement) -> {
+            if (term != null && !term.isEmpty()) {
+                usable.putIfAbsent(term, replacement == null ? "" : replacement);
+            }
+        });
+
+        this.terms = new ArrayList<>(usable.keySet());
+        this.replacements = new byte[terms.size()][];
+        this.termLengths = new int[terms.size()];
+        this.hits = new LongAdder[terms.size()];
+
+        final List<int[]> transitions = new ArrayList<>();
+        final List<Integer> terminals = new ArrayList<>();
+
+        transitions.add(newTransitions());
+        terminals.add(-1);
+
+        int max = 0;
+        for (int rule = 0; rule < terms.size(); rule++) {
+            final byte[] term = terms.get(rule).getBytes(UTF_8);
+            replacements[rule] = usable.get(terms.get(rule)).getBytes(UTF_8);
+            termLengths[rule] = term.length;
+            hits[rule] = counters.apply(terms.get(rule));
+            max = Math.max(max, term.length);
+
+            int state = ROOT;
+            for (final byte t : term) {
+                final int b = t & 0xff;
+                if (transitions.get(state)[b] < 0) {
+                    transitions.get(state)[b] = transitions.size();
+                    transitions.add(newTransitions());
+                    terminals.add(-1);
+                }
+                state = transitions.get(state)[b];
+            }
+            terminals.set(state, rule);
+        }
+
+        final int states = transitions.size();
+        this.maxTermLength = max;
+        this.delta = transitions.toArray(new int[states][]);
+        this.terminal = new int[states];
+        this.leaf = new boolean[states];
+
+        for (int state = 0; state < states; state++) {
+            terminal[state] = terminals.get(state);
+            leaf[state] = Arrays.stream(delta[state]).allMatch(next -> next < 0);
+        }
+    }
+
+    /**
+     * Find the longest term starting at a given position.
+     *
+     * @param buf Content
+     * @param from Position the term must start at
+     * @param end End of available content
+     * @param finished Whether there is more content after the end
+     * @return rule index of the longest matching term, -1 if none match, or {@link #MORE} if a longer term may match
+     *         once more content is available.
+     */
+    int longestMatch(byte[] buf, int from, int end, boolean finished) {
+        int state = ROOT;
+        int longest = -1;
+
+        for (int i = from; i < end; i++) {
+            state = delta[state][buf[i] & 0xff];
+            if (state < 0) {
+                return longest;
+            } else if (terminal[state] >= 0) {
+                longest = terminal[state];
+            }
+        }
+
+        return finished || leaf[state] ? longest : MORE;
+    }
+
+    /* Determine if a byte may start a term */
+    boolean starts(byte b) {
+        return delta[ROOT][b & 0xff] >= 0;
+    }
+
+    private static int[] newTransitions() {
+        final int[] transitions = new int[256];
+        Arrays.fill(transitions, -1);
+        return transitions;
+    }
+
+    /**
+     * Wrap an output stream, so that anything written to it is substituted.
+     *
+     * @param out The output stream to wrap.
+     * @return a new substituting stream
+     */
+    public SubstitutingOutputStream wrap(OutputStream out) {
+        return new SubstitutingOutputStream(out, this);
+    }
+
+    /**
+     * Wrap an input stream, so that anything read from it is substituted.
+     *
+     * @param in The input stream to wrap.
+     * @return a new substituting stream
+     */
+    public SubstitutingInputStream wrap(InputStream in) {
+        return new SubstitutingInputStream(in, out -> wrap(out));
+    }
+
+    /**
+     * Wrap an input stream of <code>application/x-www-form-urlencoded</code> content, so that the decoded names and
+     * values read from it are substituted.
+     *
+     * @param in The input stream to wrap.
+     * @return a new substituting stream
+     * @see UrlencodedSubstitutingOutputStream
+     */
+    public SubstitutingInputStream wrapUrlencoded(InputStream in) {
+        return new SubstitutingInputStream(in, out -> new UrlencodedSubstitutingOutputStream(out, this));
+    }
+
+    /**
+     * Substitute terms in a string.
+     *
+     * @param content The string
+     * @return the substituted string
+     */
+    public String substitute(String content) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(content.length());
+        try (SubstitutingOutputStream substituting = wrap(out)) {
+            substituting.write(content.getBytes(UTF_8));
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return new String(out.toByteArray(), UTF_8);
+    }
+
+    /**
+     * Determine if there are any terms to substitute.
+     *
+     * @return true if there are no rules.
+     */
+    public boolean isEmpty() {
+        return terms.isEmpty();
+    }
+
+    /**
+     * Maximum length of a term, in bytes.
+     *
+     * @return the length of the longest term.
+     */
+    public int maxTermLength() {
+        return maxTermLength;
+    }
+
+    /**
+     * Number of times each term has been replaced.
+     *
+     * @return Map of term to number of replacements, in rule order.
+     */
+    public Map<String, Long> hits() {
+        final Map<String, Long> counts = new LinkedHashMap<>();
+        for (int rule = 0; rule < terms.size(); rule++) {
+            counts.put(terms.get(rule), hits[rule].sum());
+        }
+        return counts;
+    }
+
+    void hit(int rule) {
+        hits[rule].increment();
+    }
+}
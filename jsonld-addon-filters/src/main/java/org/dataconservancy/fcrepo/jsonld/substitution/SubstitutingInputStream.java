@@ -0,0 +1,138 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.fcrepo.jsonld.substitution;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.function.Function;
+
+/**
+ * Substitutes terms in content as it is read.
+ * <p>
+ * The wrapped stream is read a chunk at a time, and each chunk is pushed through a substituting output stream into a
+ * small buffer that reads are served from. Memory use is bounded by the chunk size, plus any growth due to
+ * replacements within a chunk; the whole content is never held at once.
+ * </p>
+ *
+ * @author apb@jhu.edu
+ */
+public class SubstitutingInputStream extends InputStream {
+
+    static final int CHUNK_SIZE = 8192;
+
+    private final InputStream in;
+
+    private final Produced produced = new Produced();
+
+    private final OutputStream sink;
+
+    private final byte[] chunk = new byte[CHUNK_SIZE];
+
+    private int pos = 0;
+
+    private boolean eof = false;
+
+    /**
+     * Wrap an input stream.
+     *
+     * @param in Stream to substitute
+     * @param pipeline Creates the substituting output stream, given the stream substituted content is to be written
+     *        to. It is closed at the end of input, to write out anything it holds back.
+     */
+    SubstitutingInputStream(InputStream in, Function<OutputStream, OutputStream> pipeline) {
+        this.in = in;
+        this.sink = pipeline.apply(produced);
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fill()) {
+            return -1;
+        }
+        return produced.buffer()[pos++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+
+        if (!fill()) {
+            return -1;
+        }
+
+        final int n = Math.min(len, produced.size() - pos);
+        System.arraycopy(produced.buffer(), pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return produced.size() - pos;
+    }
+
+    /**
+     * Determine if all content has been read.
+     *
+     * @return true if the wrapped stream is exhausted, and all substituted content has been read.
+     */
+    public boolean isFinished() {
+        return eof && pos == produced.size();
+    }
+
+    /* Make sure there is substituted content to read, unless the input is exhausted */
+    private boolean fill() throws IOException {
+        while (pos == produced.size()) {
+            if (eof) {
+                return false;
+            }
+
+            produced.reset();
+            pos = 0;
+
+            final int n = in.read(chunk);
+            if (n < 0) {
+                eof = true;
+                sink.close();
+            } else {
+                sink.write(chunk, 0, n);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /* Buffer of substituted content that can be read without copying */
+    private static class Produced extends ByteArrayOutputStream {
+
+        Produced() {
+            super(CHUNK_SIZE);
+        }
+
+        byte[] buffer() {
+            return buf;
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.fcrepo.jsonld.substitution;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Substitutes terms in content as it is written.
+ * <p>
+ * Content is written through to the wrapped stream as it arrives, in bulk, except for a carry-over of fewer bytes than
+ * the longest term; i.e. the bytes that could still be the start of a term, or of a longer term than one already
+ * matched. These are held back across writes and flushes, so that a term split between writes is still found. They
+ * are written when the stream is {@link #finish() finished} or closed.
+ * </p>
+ *
+ * @author apb@jhu.edu
+ */
+public class SubstitutingOutputStream extends FilterOutputStream {
+
+    private final ByteSubstitutor substitutor;
+
+    private final byte[] single = new byte[1];
+
+    /* Carried-over content, with room for as much new content as is needed to decide all carried-over bytes */
+    private final byte[] carry;
+
+    private int carryLength = 0;
+
+    private long replaced = 0;
+
+    /**
+     * Wrap the given output stream.
+     *
+     * @param out Stream to write substituted content to.
+     * @param substitutor Compiled substitution rules.
+     */
+    public SubstitutingOutputStream(OutputStream out, ByteSubstitutor substitutor) {
+        super(out);
+        this.substitutor = substitutor;
+        this.carry = new byte[Math.max(1, 2 * substitutor.maxTermLength())];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        single[0] = (byte) b;
+        write(single, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+
+        if (carryLength > 0) {
+            // Decide carried-over bytes first, looking ahead into the new content as far as any term could reach
+            final int lookahead = Math.min(len, substitutor.maxTermLength());
+            System.arraycopy(b, off, carry, carryLength, lookahead);
+            final int total = carryLength + lookahead;
+
+            final int decided = scan(carry, 0, total, carryLength, false);
+            if (decided < carryLength) {
+                // Only possible if all the new content was needed as lookahead
+                carryLength = total - decided;
+                System.arraycopy(carry, decided, carry, 0, carryLength);
+                return;
+            }
+
+            off += decided - carryLength;
+            len -= decided - carryLength;
+            carryLength = 0;
+        }
+
+        final int decided = scan(b, off, off + len, off + len, false);
+
+        carryLength = off + len - decided;
+        System.arraycopy(b, decided, carry, 0, carryLength);
+    }
+
+    /*
+     * Substitute content from a buffer, deciding each position before the limit unless content runs out first.
+     * Returns the first undecided position.
+     */
+    private int scan(byte[] buf, int from, int end, int limit, boolean finished) throws IOException {
+        int unwritten = from;
+        int i = from;
+
+        while (i < limit) {
+            if (!substitutor.starts(buf[i])) {
+                i++;
+                continue;
+            }
+
+            final int rule = substitutor.longestMatch(buf, i, end, finished);
+            if (rule == ByteSubstitutor.MORE) {
+                break;
+            } else if (rule >= 0) {
+                out.write(buf, unwritten, i - unwritten);
+                out.write(substitutor.replacements[rule]);
+                substitutor.hit(rule);
+                replaced++;
+                i += substitutor.termLengths[rule];
+                unwritten = i;
+            } else {
+                i++;
+            }
+        }
+
+        out.write(buf, unwritten, i - unwritten);
+        return i;
+    }
+
+    /**
+     * Number of terms replaced in the content written to this stream so far.
+     *
+     * @return count of replacements
+     */
+    public long replaced() {
+        return replaced;
+    }
+
+    /**
+     * Write any carried-over content, without closing the wrapped stream.
+     *
+     * @throws IOException if the wrapped stream cannot be written
+     */
+    public void finish() throws IOException {
+        scan(carry, 0, carryLength, carryLength, true);
+        carryLength = 0;
+    }
+
+    /**
+     * Flushes the wrapped stream.
+     * <p>
+     * Carried-over bytes are not written, as they may be the start of a term that continues in the next write.
+     * </p>
+     */
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,356 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.fcrepo.jsonld.substitution;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import javax.servlet.http.HttpServletRequest;
+
+import org.dataconservancy.fcrepo.jsonld.ConfigSnapshot;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Substitution rules for any number of hosts, each host having any number of terms to replace.
+ * <p>
+ * Rules are configured by key, as in <code>prefix.filter.host.KEY</code>, <code>prefix.term.KEY</code>, and
+ * <code>prefix.replacement.KEY</code> (and optionally <code>prefix.types.KEY</code>). The key may be empty. The
+ * host of a rule is a comma-separated list of host patterns, each of which may contain <code>*</code> wildcards,
+ * and may have a port. A pattern without a port matches the host on any port.
+ * </p>
+ * <p>
+ * The host of a request is taken from the first <code>X-Forwarded-Host</code>, if present, otherwise from the
+ * <code>Host</code> header. The rules matching a host are found once for each host, when first seen (or at
+ * construction, for hosts named without wildcards). Of those, the rules that apply to a media type are compiled into
+ * a single {@link ByteSubstitutor}, once for each media type seen; a rule restricted to some media types is never
+ * applied to others. Each rule counts its replacements, across all hosts.
+ * </p>
+ *
+ * @author apb@jhu.edu
+ */
+public class SubstitutionRules {
+
+    static final Logger LOG = LoggerFactory.getLogger(SubstitutionRules.class);
+
+    /* Upper bound on cached hosts, so that arbitrary Host headers cannot grow the cache without limit */
+    static final int MAX_CACHED_HOSTS = 1024;
+
+    /* Upper bound on media types cached for each host, for the same reason */
+    static final int MAX_CACHED_TYPES = 64;
+
+    static final Substitution NONE = new Substitution(Collections.emptyList());
+
+    static final ByteSubstitutor NO_TERMS = new ByteSubstitutor(Collections.emptyMap());
+
+    private final List<Rule> rules;
+
+    private final Map<String, Substitution> byHost = new ConcurrentHashMap<>();
+
+    /**
+     * Compile the given rules.
+     *
+     * @param rules Rules, in order of precedence.
+     */
+    public SubstitutionRules(List<Rule> rules) {
+        this.rules = Collections.unmodifiableList(new ArrayList<>(rules));
+
+        for (final Rule rule : rules) {
+            for (final HostPattern pattern : rule.hosts) {
+                if (!pattern.isWildcard()) {
+                    forHost(pattern.toString());
+                }
+            }
+        }
+    }
+
+    /**
+     * Read rules from configuration.
+     *
+     * @param config The configuration.
+     * @param hostPrefix Property prefix of rule hosts.
+     * @param termPrefix Property prefix of rule terms.
+     * @param replacementPrefix Property prefix of rule replacements.
+     * @param typesPrefix Property prefix of rule media types. May be null, if rules are not restricted by media type.
+     * @return the rules
+     */
+    public static SubstitutionRules fromConfig(ConfigSnapshot config, String hostPrefix, String termPrefix,
+                                               String replacementPrefix, String typesPrefix) {
+        final Map<String, String> terms = config.withPrefix(termPrefix);
+        final Map<String, String> replacements = config.withPrefix(replacementPrefix);
+        final Map<String, String> types = typesPrefix != null ? config.withPrefix(typesPrefix) : Collections
+            .emptyMap();
+
+        final List<Rule> rules = config.withPrefix(hostPrefix).entrySet().stream()
+            .sorted(Map.Entry.comparingByKey())
+            .filter(e -> terms.get(e.getKey()) != null && !terms.get(e.getKey()).isEmpty())
+            .map(e -> new Rule(e.getKey(), e.getValue(), terms.get(e.getKey()), replacements.get(e.getKey()),
+                               types.get(e.getKey())))
+            .collect(Collectors.toList());
+
+        rules.forEach(r -> LOG.info("{}: Replacing {} with {}", r.hosts, r.term, r.replacement));
+
+        return new SubstitutionRules(rules);
+    }
+
+    /**
+     * Determine if there are any rules at all.
+     *
+     * @return true if there are no rules.
+     */
+    public boolean isEmpty() {
+        return rules.isEmpty();
+    }
+
+    /**
+     * Find the substitution for a request.
+     *
+     * @param request The request
+     * @return the substitution, or null if no rules apply to the request's host.
+     */
+    public Substitution forRequest(HttpServletRequest request) {
+        final String forwarded = request.getHeader("x-forwarded-host");
+        if (forwarded != null && !forwarded.trim().isEmpty()) {
+            return forHost(forwarded.split(",")[0]);
+        }
+        return forHost(request.getHeader("host"));
+    }
+
+    /**
+     * Find the substitution for a host.
+     *
+     * @param host Host, as given in the Host header; possibly with a port.
+     * @return the substitution, or null if no rules apply to the host.
+     */
+    public Substitution forHost(String host) {
+        if (host == null || rules.isEmpty()) {
+            return null;
+        }
+
+        final String normalized = host.trim().toLowerCase();
+
+        Substitution substitution = byHost.get(normalized);
+        if (substitution == null) {
+            substitution = compile(normalized);
+            if (byHost.size() < MAX_CACHED_HOSTS) {
+                byHost.putIfAbsent(normalized, substitution);
+            }
+        }
+
+        return substitution == NONE ? null : substitution;
+    }
+
+    private Substitution compile(String host) {
+        final int colon = portSeparator(host);
+        final String name = colon < 0 ? host : host.substring(0, colon);
+        final int port = colon < 0 ? -1 : parsePort(host.substring(colon + 1));
+
+        final List<Rule> matching = rules.stream()
+            .filter(r -> r.matches(name, port))
+            .collect(Collectors.toList());
+
+        return matching.isEmpty() ? NONE : new Substitution(matching);
+    }
+
+    /* Index of the colon between a host name (or bracketed IPv6 address) and a port, or -1 if there is no port */
+    static int portSeparator(String host) {
+        final int colon = host.lastIndexOf(':');
+        if (colon < 0) {
+            return -1;
+        } else if (host.startsWith("[")) {
+            return colon > host.lastIndexOf(']') ? colon : -1;
+        } else {
+            return host.indexOf(':') == colon ? colon : -1;
+        }
+    }
+
+    static int parsePort(String port) {
+        try {
+            return Integer.parseInt(port);
+        } catch (final NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Number of replacements made by each rule.
+     *
+     * @return Map of rule key and term, to number of replacements.
+     */
+    public Map<String, Long> hits() {
+        final Map<String, Long> hits = new LinkedHashMap<>();
+        rules.forEach(r -> hits.put(r.key + ": " + r.term, r.hits.sum()));
+        return hits;
+    }
+
+    /**
+     * The substitution to apply to a given host.
+     */
+    public static class Substitution {
+
+        /* Key of rules that apply to all media types */
+        private static final String ALL_TYPES = "";
+
+        final List<Rule> rules;
+
+        private final Map<String, ByteSubstitutor> byType = new ConcurrentHashMap<>();
+
+        Substitution(List<Rule> rules) {
+            this.rules = rules;
+        }
+
+        /**
+         * Compiled terms and replacements of the rules matching the host that apply to all media types, e.g. for
+         * requests.
+         *
+         * @return the substitutor, or null if every rule matching the host is restricted to some media types.
+         */
+        public ByteSubstitutor substitutor() {
+            return substitutor(ALL_TYPES);
+        }
+
+        /**
+         * Compiled terms and replacements of the rules matching the host that apply to a media type.
+         *
+         * @param mediaType Media type, as given in a Content-Type header.
+         * @return the substitutor, or null if no rule matching the host applies to the media type.
+         */
+        public ByteSubstitutor substitutor(String mediaType) {
+            final String type = mediaType == null ? ALL_TYPES : mediaType;
+
+            ByteSubstitutor substitutor = byType.get(type);
+            if (substitutor == null) {
+                substitutor = compile(type);
+                if (byType.size() < MAX_CACHED_TYPES) {
+                    byType.putIfAbsent(type, substitutor);
+                }
+            }
+
+            return substitutor == NO_TERMS ? null : substitutor;
+        }
+
+        private ByteSubstitutor compile(String type) {
+            final Map<String, String> terms = new LinkedHashMap<>();
+            final Map<String, LongAdder> counters = new LinkedHashMap<>();
+
+            for (final Rule rule : rules) {
+                if (rule.appliesTo(type)) {
+                    terms.putIfAbsent(rule.term, rule.replacement);
+                    counters.putIfAbsent(rule.term, rule.hits);
+                }
+            }
+
+            return terms.isEmpty() ? NO_TERMS : new ByteSubstitutor(terms, counters::get);
+        }
+    }
+
+    /**
+     * A single term and replacement, for some hosts.
+     */
+    public static class Rule {
+
+        final String key;
+
+        final List<HostPattern> hosts;
+
+        final String term;
+
+        final String replacement;
+
+        final String types;
+
+        final LongAdder hits = new LongAdder();
+
+        /**
+         * Create a rule.
+         *
+         * @param key Configuration key of the rule.
+         * @param hosts Comma-separated host patterns.
+         * @param term Term to replace.
+         * @param replacement Replacement. Null is taken as the empty string.
+         * @param types Media types the rule applies to, or null for all.
+         */
+        public Rule(String key, String hosts, String term, String replacement, String types) {
+            this.key = key;
+            this.hosts = new ArrayList<>();
+            for (final String host : hosts.split(",")) {
+                if (!host.trim().isEmpty()) {
+                    this.hosts.add(new HostPattern(host.trim().toLowerCase()));
+                }
+            }
+            this.term = term;
+            this.replacement = replacement == null ? "" : replacement;
+            this.types = types;
+        }
+
+        /* Rules without types apply to every media type; others to those listed */
+        boolean appliesTo(String mediaType) {
+            return types == null || types.isEmpty() || (!mediaType.isEmpty() && types.contains(mediaType));
+        }
+
+        boolean matches(String host, int port) {
+            for (final HostPattern pattern : hosts) {
+                if (pattern.matches(host, port)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /* Host name, possibly with wildcards, and an optional port */
+    static class HostPattern {
+
+        final String pattern;
+
+        final Pattern host;
+
+        final int port;
+
+        HostPattern(String pattern) {
+            this.pattern = pattern;
+
+            final int colon = portSeparator(pattern);
+            final String name = colon < 0 ? pattern : pattern.substring(0, colon);
+            this.port = colon < 0 ? -1 : parsePort(pattern.substring(colon + 1));
+
+            this.host = Pattern.compile(Arrays.stream(name.split("\\*", -1))
+                                            .map(Pattern::quote)
+                                            .collect(Collectors.joining(".*")));
+        }
+
+        boolean isWildcard() {
+            return pattern.contains("*");
+        }
+
+        boolean matches(String name, int port) {
+            return (this.port < 0 || this.port == port) && host.matcher(name).matches();
+        }
+
+        @Override
+        public String toString() {
+            return pattern;
+        }
+    }
+}
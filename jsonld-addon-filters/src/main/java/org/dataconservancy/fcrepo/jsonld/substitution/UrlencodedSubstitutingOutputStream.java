@@ -0,0 +1,248 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.fcrepo.jsonld.substitution;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Substitutes terms in the names and values of <code>application/x-www-form-urlencoded</code> content, as it is
+ * written.
+ * <p>
+ * Content is processed one token (i.e. name or value) at a time. The <code>&amp;</code> and <code>=</code> separators
+ * are passed through as they are. Each token is decoded, substituted, and re-encoded as by
+ * {@link java.net.URLEncoder} if any term was replaced in it. Tokens with no replacements are passed through byte for
+ * byte. A token is held in memory up to {@link #VERBATIM_LIMIT} bytes; longer tokens are re-encoded and streamed
+ * through, so memory use does not depend on the size of the content.
+ * </p>
+ * <p>
+ * Malformed percent escapes are taken literally, rather than rejected.
+ * </p>
+ *
+ * @author apb@jhu.edu
+ */
+public class UrlencodedSubstitutingOutputStream extends FilterOutputStream {
+
+    static final int VERBATIM_LIMIT = 65536;
+
+    private static final byte[] HEX = "0123456789ABCDEF".getBytes();
+
+    /* Raw bytes of the current token, while it is short enough to pass through as-is */
+    private final ByteArrayOutputStream raw = new ByteArrayOutputStream();
+
+    /* Re-encoded bytes of the current token, while it is short enough to pass through as-is */
+    private final ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+
+    private final SubstitutingOutputStream substituting;
+
+    private boolean verbatim = true;
+
+    private long replacedBeforeToken = 0;
+
+    private boolean percent = false;
+
+    private int firstHex = -1;
+
+    private byte[] decoded = new byte[256];
+
+    private int decodedLength;
+
+    private final byte[] single = new byte[1];
+
+    /**
+     * Wrap the given output stream.
+     *
+     * @param out Stream to write substituted content to.
+     * @param substitutor Compiled substitution rules.
+     */
+    public UrlencodedSubstitutingOutputStream(OutputStream out, ByteSubstitutor substitutor) {
+        super(out);
+        this.substituting = substitutor.wrap(new Encoder());
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        single[0] = (byte) b;
+        write(single, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        final int end = off + len;
+        int start = off;
+
+        for (int i = off; i < end; i++) {
+            if (b[i] == '&' || b[i] == '=') {
+                token(b, start, i - start);
+                endToken();
+                out.write(b[i]);
+                start = i + 1;
+            }
+        }
+
+        token(b, start, end - start);
+    }
+
+    /* Part of a token, between separators */
+    private void token(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return;
+        }
+
+        if (verbatim) {
+            raw.write(b, off, len);
+        }
+
+        if (decoded.length < len + 2) {
+            decoded = new byte[len + 2];
+        }
+        decodedLength = 0;
+
+        for (int i = off; i < off + len; i++) {
+            decode(b[i]);
+        }
+
+        substituting.write(decoded, 0, decodedLength);
+
+        if (verbatim && raw.size() > VERBATIM_LIMIT) {
+            // Too long to hold; commit to re-encoding, and stream the rest of the token
+            verbatim = false;
+            encoded.writeTo(out);
+            encoded.reset();
+            raw.reset();
+        }
+    }
+
+    private void decode(byte c) {
+        if (percent) {
+            final int value = Character.digit(c, 16);
+            if (value < 0) {
+                literalEscape();
+            } else if (firstHex < 0) {
+                firstHex = c;
+                return;
+            } else {
+                decoded[decodedLength++] = (byte) ((Character.digit(firstHex, 16) << 4) + value);
+                percent = false;
+                firstHex = -1;
+                return;
+            }
+        }
+
+        if (c == '%') {
+            percent = true;
+        } else if (c == '+') {
+            decoded[decodedLength++] = ' ';
+        } else {
+            decoded[decodedLength++] = c;
+        }
+    }
+
+    /* An incomplete escape is taken as literal characters */
+    private void literalEscape() {
+        decoded[decodedLength++] = '%';
+        if (firstHex >= 0) {
+            decoded[decodedLength++] = (byte) firstHex;
+        }
+        percent = false;
+        firstHex = -1;
+    }
+
+    private void endToken() throws IOException {
+        if (percent) {
+            decodedLength = 0;
+            literalEscape();
+            substituting.write(decoded, 0, decodedLength);
+        }
+
+        substituting.finish();
+
+        if (verbatim) {
+            if (substituting.replaced() > replacedBeforeToken) {
+                encoded.writeTo(out);
+            } else {
+                raw.writeTo(out);
+            }
+        }
+
+        raw.reset();
+        encoded.reset();
+        verbatim = true;
+        replacedBeforeToken = substituting.replaced();
+    }
+
+    /**
+     * Flushes the wrapped stream.
+     * <p>
+     * The current token is not written, as it may continue in the next write.
+     * </p>
+     */
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            endToken();
+        } finally {
+            out.close();
+        }
+    }
+
+    /* Encodes substituted bytes of a token, as URLEncoder does */
+    private class Encoder extends OutputStream {
+
+        private byte[] escaped = new byte[768];
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (escaped.length < len * 3) {
+                escaped = new byte[len * 3];
+            }
+            int n = 0;
+
+            for (int i = off; i < off + len; i++) {
+                final int c = b[i] & 0xff;
+                if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') ||
+                    c == '.' || c == '-' || c == '*' || c == '_') {
+                    escaped[n++] = (byte) c;
+                } else if (c == ' ') {
+                    escaped[n++] = '+';
+                } else {
+                    escaped[n++] = '%';
+                    escaped[n++] = HEX[c >> 4];
+                    escaped[n++] = HEX[c & 0xf];
+                }
+            }
+
+            if (verbatim) {
+                encoded.write(escaped, 0, n);
+            } else {
+                out.write(escaped, 0, n);
+            }
+        }
+    }
+}
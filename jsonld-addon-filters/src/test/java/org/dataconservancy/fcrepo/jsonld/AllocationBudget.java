@@ -0,0 +1,127 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.fcrepo.jsonld;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Properties;
+
+import com.sun.management.ThreadMXBean;
+
+/**
+ * Allocation budgets for hot paths, checked against <code>allocation-budget.properties</code>.
+ * <p>
+ * The bytes an operation allocates are measured on the calling thread, with
+ * {@link ThreadMXBean#getThreadAllocatedBytes(long)}, after the operation has been run enough times to load classes,
+ * fill caches, and be compiled. The least of several rounds is taken, so that a stray allocation (such as a log
+ * buffer growing) does not count. A budget that is exceeded fails the test; raise it in the properties file only for
+ * a change that is meant to allocate more.
+ * </p>
+ *
+ * @author apb@jhu.edu
+ */
+public class AllocationBudget {
+
+    static final String BUDGET_FILE = "/allocation-budget.properties";
+
+    static final int WARMUP = 2000;
+
+    static final int ROUNDS = 5;
+
+    static final int ITERATIONS = 200;
+
+    private static final Properties budgets = load();
+
+    private AllocationBudget() {
+        // never called
+    }
+
+    /**
+     * Measure the bytes allocated per run of an operation.
+     *
+     * @param operation The operation.
+     * @return the bytes allocated, per run
+     * @throws Exception if the operation fails
+     */
+    public static long measure(Operation operation) throws Exception {
+        final ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue("Thread allocation is not measured by this JVM", threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        for (int i = 0; i < WARMUP; i++) {
+            operation.run();
+        }
+
+        final long thread = Thread.currentThread().getId();
+        long least = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            final long before = threads.getThreadAllocatedBytes(thread);
+            for (int i = 0; i < ITERATIONS; i++) {
+                operation.run();
+            }
+            least = Math.min(least, (threads.getThreadAllocatedBytes(thread) - before) / ITERATIONS);
+        }
+        return least;
+    }
+
+    /**
+     * Assert that an operation allocates no more than its budget.
+     *
+     * @param name Name of the budget in <code>allocation-budget.properties</code>.
+     * @param operation The operation.
+     * @throws Exception if the operation fails
+     */
+    public static void assertWithinBudget(String name, Operation operation) throws Exception {
+        final String budget = budgets.getProperty(name);
+        assertTrue("No allocation budget for " + name + " in " + BUDGET_FILE, budget != null);
+
+        final long allowed = Long.parseLong(budget.trim());
+        final long allocated = measure(operation);
+        assertTrue(String.format("%s allocated %d bytes per operation, over its budget of %d", name, allocated,
+                                 allowed), allocated <= allowed);
+    }
+
+    private static Properties load() {
+        final Properties props = new Properties();
+        try (InputStream in = AllocationBudget.class.getResourceAsStream(BUDGET_FILE)) {
+            if (in != null) {
+                props.load(in);
+            }
+        } catch (final IOException e) {
+            throw new RuntimeException("Could not read " + BUDGET_FILE, e);
+        }
+        return props;
+    }
+
+    /**
+     * Operation to measure.
+     */
+    @FunctionalInterface
+    public interface Operation {
+
+        /**
+         * Run the operation once.
+         *
+         * @throws Exception if the operation fails
+         */
+        void run() throws Exception;
+    }
+}
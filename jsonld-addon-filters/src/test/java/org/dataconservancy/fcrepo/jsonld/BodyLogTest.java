@@ -0,0 +1,105 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.fcrepo.jsonld;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.slf4j.Logger;
+
+/**
+ * @author apb@jhu.edu
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class BodyLogTest {
+
+    @Mock
+    Logger log;
+
+    @Mock
+    Supplier<String> body;
+
+    @Test
+    public void debugDisabledTest() {
+        new BodyLog(log, 10, 1).debug("body", body);
+
+        verify(body, never()).get();
+        verify(log, never()).debug(anyString(), any(Object[].class));
+    }
+
+    @Test
+    public void truncatedTest() {
+        when(log.isDebugEnabled()).thenReturn(true);
+
+        final BodyLog toTest = new BodyLog(log, 5, 1);
+        toTest.debug("short", () -> "12345");
+        toTest.debug("long", () -> "1234567890");
+
+        verify(log).debug("{}:\n{}", "short", "12345");
+        verify(log).debug("{} (first {} of {} characters):\n{}", "long", 5, 10, "12345");
+    }
+
+    @Test
+    public void sampledTest() {
+        when(log.isDebugEnabled()).thenReturn(true);
+        when(body.get()).thenReturn("body");
+
+        final BodyLog toTest = new BodyLog(log, 10, 3);
+        for (int i = 0; i < 7; i++) {
+            toTest.debug("body", body);
+        }
+
+        verify(body, times(3)).get();
+    }
+
+    /* A negative maximum logs nothing of the body, rather than failing */
+    @Test
+    public void negativeMaxTest() {
+        when(log.isDebugEnabled()).thenReturn(true);
+
+        new BodyLog(log, -1, 1).debug("body", () -> "12345");
+
+        verify(log).debug("{} (first {} of {} characters):\n{}", "body", 0, 5, "");
+    }
+
+    /* Limits are read each time a body is logged, so a reload changes them */
+    @Test
+    public void reloadedTest() {
+        when(log.isDebugEnabled()).thenReturn(true);
+
+        final AtomicInteger max = new AtomicInteger(5);
+        final BodyLog toTest = new BodyLog(log, max::get, () -> 1);
+
+        toTest.debug("before", () -> "1234567890");
+        max.set(10);
+        toTest.debug("after", () -> "1234567890");
+
+        verify(log).debug("{} (first {} of {} characters):\n{}", "before", 5, 10, "12345");
+        verify(log).debug("{}:\n{}", "after", "1234567890");
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.fcrepo.jsonld;
+
+import static java.util.Collections.emptyMap;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * @author apb@jhu.edu
+ */
+public class ConfigSnapshotTest {
+
+    static final String KEY = "config.snapshot.test";
+
+    @After
+    public void tearDown() {
+        System.clearProperty(KEY);
+        ConfigSnapshot.refresh();
+    }
+
+    @Test
+    public void precedenceTest() {
+        final Map<String, String> env = new HashMap<>();
+        env.put("A_B", "env");
+        env.put("C_D", "env");
+        env.put("E_F", "env");
+
+        final Map<String, String> system = new HashMap<>();
+        system.put("c.d", "system");
+        system.put("e.f", "system");
+
+        final Map<String, String> file = new HashMap<>();
+        file.put("e.f", "file");
+
+        final ConfigSnapshot toTest = new ConfigSnapshot(env, system, file);
+
+        assertEquals("env", toTest.get("a.b"));
+        assertEquals("system", toTest.get("C_D"));
+        assertEquals("file", toTest.get("e.f"));
+        assertNull(toTest.get("g.h"));
+    }
+
+    @Test
+    public void typedTest() {
+        final Map<String, String> system = new HashMap<>();
+        system.put("flag.on", "yes");
+        system.put("flag.off", "false");
+        system.put("number", " 42 ");
+        system.put("large", "12345678901");
+        system.put("bad", "forty-two");
+
+        final ConfigSnapshot toTest = new ConfigSnapshot(emptyMap(), system, emptyMap());
+
+        assertTrue(toTest.isSet("flag.on"));
+        assertFalse(toTest.isSet("flag.off"));
+        assertFalse(toTest.isSet("flag.missing"));
+        assertEquals(42, toTest.getInt("number", 0));
+        assertEquals(Integer.MAX_VALUE, toTest.getInt("large", 0));
+        assertEquals(12345678901L, toTest.getLong("large", 0));
+        assertEquals(7, toTest.getInt("bad", 7));
+        assertEquals(7, toTest.getLong("missing", 7));
+    }
+
+    /* Only the prefix itself, or the prefix followed by a separator, match; dots are not wildcards */
+    @Test
+    public void withPrefixTest() {
+        final Map<String, String> env = new HashMap<>();
+        env.put("MY_PREFIX_KEY1", "value1");
+
+        final Map<String, String> system = new HashMap<>();
+        system.put("my.prefix", "value");
+        system.put("my.prefix.key2.sub", "value2");
+        system.put("my.prefixes.key", "bogus");
+        system.put("myXprefix.key", "bogus");
+        system.put("my.prefiy.key", "bogus");
+
+        final Map<String, String> extracted = new ConfigSnapshot(env, system, emptyMap()).withPrefix("my.prefix");
+
+        assertEquals(3, extracted.size());
+        assertEquals("value", extracted.get(""));
+        assertEquals("value1", extracted.get("key1"));
+        assertEquals("value2", extracted.get("key2.sub"));
+    }
+
+    @Test
+    public void refreshTest() {
+        final ConfigSnapshot before = ConfigSnapshot.refresh();
+        assertSame(before, ConfigSnapshot.current());
+
+        System.setProperty(KEY, "value");
+        assertNull(ConfigSnapshot.current().get(KEY));
+
+        final ConfigSnapshot after = ConfigSnapshot.refresh();
+        assertSame(after, ConfigSnapshot.current());
+        assertEquals("value", after.get(KEY));
+        assertTrue(after.names().contains(KEY));
+    }
+}
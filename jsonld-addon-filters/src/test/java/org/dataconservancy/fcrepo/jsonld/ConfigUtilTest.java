@@ -63,6 +63,13 @@ public class ConfigUtilTest {
         assertEquals(KEY, removePrefix(PREFIX, join(",", PREFIX, KEY)));
     }
 
+    /* Dots in a prefix are not a pattern matching any character */
+    @Test
+    public void removeLiteralPrefixTest() {
+        assertEquals("theXprefix.key", removePrefix("the.prefix", "theXprefix.key"));
+        assertEquals("", removePrefix("the.prefix", "the.prefix"));
+    }
+
     @Test
     public void extractPropsTest() {
         final String PREFIX = "my.prefix";
@@ -77,6 +84,8 @@ public class ConfigUtilTest {
         System.setProperty(PREFIX, VALUE3);
 
         System.setProperty("does.not.match", "bogus");
+        System.setProperty("my.prefixes.also.not", "bogus");
+        System.setProperty("myXprefix.nor.this", "bogus");
 
         final Map<String, String> extracted = extract(props(), PREFIX);
 
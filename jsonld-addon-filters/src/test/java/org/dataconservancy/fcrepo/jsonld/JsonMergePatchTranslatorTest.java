@@ -20,6 +20,7 @@ import static org.dataconservancy.fcrepo.jsonld.ContextUtil.PREDICATE_HAS_CONTEX
 import static org.dataconservancy.fcrepo.jsonld.JsonldUtil.addStaticContext;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.StringReader;
 import java.net.URI;
@@ -108,6 +109,67 @@ public class JsonMergePatchTranslatorTest extends JsonMergePatchTests {
             "http://example.org/farm")).toList().size());
     }
 
+    @Test
+    public void cachedPlanTest() throws Exception {
+        final JsonMergePatchTranslator translator = new JsonMergePatchTranslator(options, false, false);
+
+        final String patch1 = "{ " +
+                              "\"@id\": \"test:123\", " +
+                              "\"healthy\": false, " +
+                              "\"milkVolume\": 1.5, " +
+                              "\"@context\": \"http://example.org/farm\"" +
+                              "}";
+
+        final String patch2 = "{ " +
+                              "\"milkVolume\": 2.5, " +
+                              "\"@context\": \"http://example.org/farm\", " +
+                              "\"healthy\": true, " +
+                              "\"@id\": \"test:123\"" +
+                              "}";
+
+        final Model rdf = toModel(INITIAL);
+        UpdateAction.parseExecute(translator.toSparql(patch1, null), rdf);
+        UpdateAction.parseExecute(translator.toSparql(patch2, null), rdf);
+
+        // Same context and fields, in a different order, share a plan
+        assertEquals(1, translator.plans.size());
+
+        final Model expected = toModel(INITIAL);
+        UpdateAction.parseExecute(toTest.toSparql(patch2, null), expected);
+        assertTrue(expected.isIsomorphicWith(rdf));
+    }
+
+    /* A strict patch is parsed once, then checked against the default context it was given */
+    @Test
+    public void strictTest() throws Exception {
+        final JsonMergePatchTranslator strict = new JsonMergePatchTranslator(options, true, false);
+
+        final String patch = "{ " +
+                             "\"@id\": \"test:123\", " +
+                             "\"healthy\": false " +
+                             "}";
+
+        final Model rdf = toModel(INITIAL);
+        UpdateAction.parseExecute(strict.toSparql(patch, URI.create("http://example.org/farm")), rdf);
+
+        final Model expected = toModel(INITIAL);
+        UpdateAction.parseExecute(toTest.toSparql(patch, URI.create("http://example.org/farm")), expected);
+        assertTrue(expected.isIsomorphicWith(rdf));
+
+        final String unexpected = "{ " +
+                                  "\"@id\": \"test:123\", " +
+                                  "\"unexpectedProperty\": true, " +
+                                  "\"@context\": \"http://example.org/farm\"" +
+                                  "}";
+
+        try {
+            strict.toSparql(unexpected, null);
+            fail("Should have thrown a valiation error");
+        } catch (final BadRequestException e) {
+            assertTrue(e.getMessage().contains("unexpectedProperty"));
+        }
+    }
+
     private Model toModel(String jsonld) {
         return ModelFactory.createDefaultModel().read(new StringReader(nt.translate(jsonld)), null,
                                                       "NTriples");
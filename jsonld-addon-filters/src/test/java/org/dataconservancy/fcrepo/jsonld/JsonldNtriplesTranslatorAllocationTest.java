@@ -0,0 +1,124 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.fcrepo.jsonld;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.dataconservancy.fcrepo.jsonld.AllocationBudget.assertWithinBudget;
+import static org.dataconservancy.fcrepo.jsonld.AllocationBudget.measure;
+import static org.dataconservancy.fcrepo.jsonld.JsonldUtil.addStaticContext;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.jsonldjava.core.JsonLdOptions;
+import com.github.jsonldjava.utils.JsonUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Allocation of deserialization, per request.
+ *
+ * @author apb@jhu.edu
+ */
+public class JsonldNtriplesTranslatorAllocationTest {
+
+    static final String CONTEXT_URI = "http://example.org/allocationTest/farm.jsonld";
+
+    static JsonLdOptions options = new JsonLdOptions();
+
+    static Map<String, Object> compact;
+
+    static Object context;
+
+    static ObjectMapper mapper = new ObjectMapper();
+
+    @BeforeClass
+    public static void loadContext() throws Exception {
+        addStaticContext(new URL(CONTEXT_URI), JsonldNtriplesTranslatorAllocationTest.class.getResourceAsStream(
+            "/context.jsonld"), options);
+
+        compact = read("/compact.json");
+        context = read("/context.jsonld").get("@context");
+    }
+
+    /* Strict, with a context URI, as PASS clients send */
+    @Test
+    public void translateTest() throws Exception {
+        final JsonldNtriplesTranslator translator = new JsonldNtriplesTranslator(options, true, true);
+        final String jsonld = withContext(CONTEXT_URI);
+
+        assertWithinBudget("translate", () -> translator.translate(jsonld));
+    }
+
+    /* Strict, with the context inline, whose terms cannot be cached */
+    @Test
+    public void translateInlineContextTest() throws Exception {
+        final JsonldNtriplesTranslator translator = new JsonldNtriplesTranslator(options, true, true);
+        final String jsonld = withContext(context);
+
+        assertWithinBudget("translate.inline", () -> translator.translate(jsonld));
+    }
+
+    /* Strict translation parses once; it used to parse into a Jackson tree to verify, then again to translate */
+    @Test
+    public void translateSingleParseTest() throws Exception {
+        final JsonldNtriplesTranslator translator = new JsonldNtriplesTranslator(options, true, true);
+        final String jsonld = withContext(CONTEXT_URI);
+
+        final long once = measure(() -> translator.translate(jsonld));
+        final long twice = measure(() -> {
+            mapper.readTree(jsonld);
+            translator.translate(jsonld);
+        });
+
+        assertTrue(String.format("Parsing once allocated %d bytes, parsing twice %d", once, twice), once < twice);
+    }
+
+    /* A merge patch used to be parsed into a Jackson tree and written out again before it was translated */
+    @Test
+    public void patchTest() throws Exception {
+        final JsonMergePatchTranslator translator = new JsonMergePatchTranslator(options, true, false);
+        final String patch = withContext(CONTEXT_URI);
+
+        assertWithinBudget("patch", () -> translator.toSparql(patch, null));
+
+        final long once = measure(() -> translator.toSparql(patch, null));
+        final long reserialized = measure(() -> translator.toSparql(mapper.writeValueAsString(mapper.readTree(
+            patch)), null));
+
+        assertTrue(String.format("Parsing once allocated %d bytes, reserializing %d", once, reserialized),
+                   once < reserialized);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> read(String resource) throws IOException {
+        return (Map<String, Object>) JsonUtils.fromString(IOUtils.toString(
+            JsonldNtriplesTranslatorAllocationTest.class.getResourceAsStream(resource), UTF_8));
+    }
+
+    /* The compact test fixture, with the given context */
+    private static String withContext(Object cxt) throws IOException {
+        final Map<String, Object> jsonld = new LinkedHashMap<>(compact);
+        jsonld.put("@context", cxt);
+        return JsonUtils.toString(jsonld);
+    }
+}
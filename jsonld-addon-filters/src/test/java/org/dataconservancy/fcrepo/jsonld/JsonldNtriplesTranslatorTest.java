@@ -19,13 +19,16 @@ package org.dataconservancy.fcrepo.jsonld;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.dataconservancy.fcrepo.jsonld.ContextUtil.PREDICATE_HAS_CONTEXT;
 import static org.dataconservancy.fcrepo.jsonld.JsonldUtil.addStaticContext;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.StringReader;
 import java.net.URL;
+import java.util.Arrays;
 
 import com.github.jsonldjava.core.JsonLdOptions;
+import com.github.jsonldjava.utils.JsonUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.jena.rdf.model.Model;
 import org.apache.jena.rdf.model.ModelFactory;
@@ -147,6 +150,117 @@ public class JsonldNtriplesTranslatorTest {
         validating.translate(goodAlias);
     }
 
+    /* Terms for a context URI are compiled once, and reused for subsequent requests */
+    @Test
+    public void compiledValidationTest() throws Exception {
+        final JsonldNtriplesTranslator validating = new JsonldNtriplesTranslator(options, true, false);
+
+        final String cow = "{ " +
+                           "\"@id\": \"test:123\", " +
+                           "\"healthy\": true, " +
+                           "\"@context\": \"http://example.org/farm.jsonld\"" +
+                           "}";
+
+        final String unexpected = "{ " +
+                                  "\"@context\": \"http://example.org/farm.jsonld\", " +
+                                  "\"@id\": \"test:123\", " +
+                                  "\"unexpectedProperty\": {\"nested\": [1, 2]}" +
+                                  "}";
+
+        validating.translate(cow);
+        validating.translate(cow);
+
+        try {
+            validating.translate(unexpected);
+            fail("Should have thrown a valiation error");
+        } catch (final BadRequestException e) {
+            assertTrue(e.getMessage().contains("unexpectedProperty"));
+        }
+
+        assertEquals(1, validating.terms.size());
+    }
+
+    @Test
+    public void validationNoContextTest() {
+        final JsonldNtriplesTranslator validating = new JsonldNtriplesTranslator(options, true, false);
+
+        try {
+            validating.translate("{\"@id\": \"test:123\", \"healthy\": true}");
+            fail("Should have thrown a valiation error");
+        } catch (final BadRequestException e) {
+            // expected
+        }
+    }
+
+    /* Already-parsed JSON-LD translates the same as its text */
+    @Test
+    public void parsedTest() throws Exception {
+        final JsonldNtriplesTranslator validating = new JsonldNtriplesTranslator(options, true, false);
+
+        final String JSON = "{ " +
+                            "\"@id\": \"test:123\", " +
+                            "\"@type\": \"Cow\", " +
+                            "\"healthy\": true, " +
+                            "\"milkVolume\": 100.6, " +
+                            "\"barn\": \"test:/barn\", " +
+                            "\"calves\": [\"test:/1\", \"test:2\"], " +
+                            "\"@context\": \"http://example.org/farm.jsonld\"" +
+                            "}";
+
+        final Model fromString = ModelFactory.createDefaultModel();
+        fromString.read(new StringReader(validating.translate(JSON)), null, "N-Triples");
+
+        final Model fromParsed = ModelFactory.createDefaultModel();
+        fromParsed.read(new StringReader(validating.translate(JsonUtils.fromString(JSON))), null, "N-Triples");
+
+        assertTrue(fromString.size() > 0);
+        assertTrue(fromString.isIsomorphicWith(fromParsed));
+    }
+
+    @Test
+    public void validationParsedUnexpectedFieldTest() throws Exception {
+        final JsonldNtriplesTranslator validating = new JsonldNtriplesTranslator(options, true, false);
+
+        final Object unexpected = JsonUtils.fromString("{ " +
+                                                       "\"@id\": \"test:123\", " +
+                                                       "\"@type\": \"Cow\", " +
+                                                       "\"unexpectedProperty\": true, " +
+                                                       "\"@context\": \"http://example.org/farm.jsonld\"" +
+                                                       "}");
+
+        try {
+            validating.translate(unexpected);
+            fail("Should have thrown a valiation error");
+        } catch (final BadRequestException e) {
+            assertTrue(e.getMessage().contains("unexpectedProperty"));
+        }
+    }
+
+    @Test
+    public void validationParsedNoContextTest() throws Exception {
+        final JsonldNtriplesTranslator validating = new JsonldNtriplesTranslator(options, true, false);
+
+        try {
+            validating.translate(JsonUtils.fromString("{\"@id\": \"test:123\", \"healthy\": true}"));
+            fail("Should have thrown a valiation error");
+        } catch (final BadRequestException e) {
+            // expected
+        }
+    }
+
+    /* Strict translation needs a JSON object, to check its fields against the context */
+    @Test
+    public void validationParsedNotObjectTest() {
+        final JsonldNtriplesTranslator validating = new JsonldNtriplesTranslator(options, true, false);
+
+        try {
+            validating.translate((Object) Arrays.asList("test:123"));
+            fail("Should have thrown a valiation error");
+        } catch (final BadRequestException e) {
+            // expected
+        }
+    }
+
     @Test
     public void noIdTest() {
         final JsonldNtriplesTranslator validating = new JsonldNtriplesTranslator(options, true, false);
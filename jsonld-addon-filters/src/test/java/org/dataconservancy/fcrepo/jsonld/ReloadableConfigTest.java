@@ -0,0 +1,154 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.fcrepo.jsonld;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.dataconservancy.fcrepo.jsonld.ConfigUtil.JSONLD_CONFIG_FILE;
+import static org.dataconservancy.fcrepo.jsonld.ConfigUtil.JSONLD_CONFIG_POLL;
+import static org.dataconservancy.fcrepo.jsonld.ConfigUtil.getValue;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.Arrays;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.dataconservancy.fcrepo.jsonld.metrics.ServerTiming;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+/**
+ * @author apb@jhu.edu
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class ReloadableConfigTest {
+
+    static final String KEY = "reloadable.config.test.key";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Mock
+    Runnable listener;
+
+    @Mock
+    Runnable failing;
+
+    File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = folder.newFile("jsonld.properties");
+        System.setProperty(JSONLD_CONFIG_FILE, file.getPath());
+        System.setProperty(JSONLD_CONFIG_POLL, "0");
+    }
+
+    @After
+    public void tearDown() {
+        ReloadableConfig.removeListener(listener);
+        ReloadableConfig.removeListener(failing);
+        System.clearProperty(JSONLD_CONFIG_FILE);
+        System.clearProperty(JSONLD_CONFIG_POLL);
+        System.clearProperty(KEY);
+        ReloadableConfig.reload();
+    }
+
+    @Test
+    public void fileOverridesSystemPropertiesTest() throws Exception {
+        System.setProperty(KEY, "fromSystem");
+        ReloadableConfig.reload();
+        assertEquals("fromSystem", getValue(KEY));
+
+        Files.write(file.toPath(), Arrays.asList("# test", "RELOADABLE_CONFIG_TEST_KEY = fromFile "), UTF_8);
+        ReloadableConfig.reload();
+
+        assertEquals("fromFile", getValue(KEY));
+        assertTrue(ConfigUtil.props().anyMatch(KEY::equals));
+
+        Files.write(file.toPath(), Arrays.asList("# nothing"), UTF_8);
+        ReloadableConfig.reload();
+        assertEquals("fromSystem", getValue(KEY));
+    }
+
+    @Test
+    public void listenersCalledTest() throws Exception {
+        ReloadableConfig.addListener(failing);
+        ReloadableConfig.addListener(listener);
+        doThrow(new IllegalStateException("bad config")).when(failing).run();
+
+        Files.write(file.toPath(), Arrays.asList(KEY + "=value"), UTF_8);
+        ReloadableConfig.reload();
+
+        verify(listener, times(1)).run();
+        assertEquals("value", getValue(KEY));
+
+        ReloadableConfig.removeListener(listener);
+        ReloadableConfig.reload();
+        verify(listener, times(1)).run();
+    }
+
+    @Test
+    public void missingFileKeepsConfigTest() throws Exception {
+        Files.write(file.toPath(), Arrays.asList(KEY + "=value"), UTF_8);
+        ReloadableConfig.reload();
+        ReloadableConfig.addListener(listener);
+
+        Files.delete(file.toPath());
+        ReloadableConfig.reload();
+
+        assertEquals("value", getValue(KEY));
+        verify(listener, times(1)).run();
+    }
+
+    @Test
+    public void noFileTest() {
+        System.clearProperty(JSONLD_CONFIG_FILE);
+        ReloadableConfig.reload();
+
+        assertNull(getValue(KEY));
+        verify(listener, never()).run();
+    }
+
+    /* Nothing but filters keeps the configuration MBean registered */
+    @Test
+    public void mbeanUnregisteredTest() throws Exception {
+        final ObjectName name = new ObjectName(ReloadableConfig.OBJECT_NAME);
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ServerTiming.start();
+
+        ReloadableConfig.addListener(listener);
+        assertTrue(server.isRegistered(name));
+
+        ReloadableConfig.removeListener(listener);
+        assertFalse(server.isRegistered(name));
+    }
+}
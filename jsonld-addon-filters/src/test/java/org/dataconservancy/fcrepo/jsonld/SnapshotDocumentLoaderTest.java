@@ -0,0 +1,136 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.fcrepo.jsonld;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.github.jsonldjava.core.DocumentLoader;
+import org.junit.Test;
+
+/**
+ * @author apb@jhu.edu
+ */
+public class SnapshotDocumentLoaderTest {
+
+    static final String DOC = "{\"@context\": {\"name\": \"http://example.org/name\", \"tags\": [\"a\", \"b\"]}}";
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void injectedDocsAreUnmodifiableTest() throws Exception {
+        final SnapshotDocumentLoader loader = new SnapshotDocumentLoader().addInjectedDoc("http://example.org/a", DOC);
+
+        final Map<String, Object> doc = (Map<String, Object>) loader.loadDocument("http://example.org/a")
+            .getDocument();
+        final Map<String, Object> context = (Map<String, Object>) doc.get("@context");
+
+        assertEquals("http://example.org/name", context.get("name"));
+        try {
+            context.put("name", "http://example.org/other");
+            fail("Injected context should not be modifiable");
+        } catch (final UnsupportedOperationException e) {
+            // expected
+        }
+        try {
+            ((List<Object>) context.get("tags")).add("c");
+            fail("Injected context should not be modifiable");
+        } catch (final UnsupportedOperationException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void snapshotTest() throws Exception {
+        final SnapshotDocumentLoader loader = new SnapshotDocumentLoader().addInjectedDoc("http://example.org/a", DOC);
+        final SnapshotDocumentLoader snapshot = loader.snapshot();
+
+        loader.addInjectedDoc("http://example.org/b", DOC);
+
+        assertTrue(loader.injected().containsKey("http://example.org/b"));
+        assertTrue(snapshot.injected().containsKey("http://example.org/a"));
+        assertFalse(snapshot.injected().containsKey("http://example.org/b"));
+    }
+
+    /* Documents injected into a loader before it is replaced are still found */
+    @Test
+    public void fallbackTest() throws Exception {
+        final DocumentLoader plain = new DocumentLoader();
+        plain.addInjectedDoc("http://example.org/plain", DOC);
+
+        final SnapshotDocumentLoader loader = new SnapshotDocumentLoader(plain);
+
+        assertTrue(loader.injected().isEmpty());
+        assertEquals(plain.loadDocument("http://example.org/plain").getDocument(), loader.loadDocument(
+            "http://example.org/plain").getDocument());
+    }
+
+    /* Readers always find every document added before they look, while another thread adds more */
+    @Test
+    public void concurrentAddAndLoadTest() throws Exception {
+        final int readers = 4;
+        final int added = 500;
+        final SnapshotDocumentLoader loader = new SnapshotDocumentLoader().addInjectedDoc("http://example.org/0", DOC);
+
+        final ExecutorService threads = Executors.newFixedThreadPool(readers + 1);
+        final CountDownLatch start = new CountDownLatch(1);
+        try {
+            final Future<?> writer = threads.submit(() -> {
+                start.await();
+                for (int i = 1; i <= added; i++) {
+                    loader.addInjectedDoc("http://example.org/" + i, DOC);
+                }
+                return null;
+            });
+
+            final List<Future<?>> reading = new ArrayList<>();
+            for (int r = 0; r < readers; r++) {
+                reading.add(threads.submit(() -> {
+                    start.await();
+                    while (!writer.isDone()) {
+                        final int seen = loader.injected().size();
+                        for (int i = 0; i < seen; i++) {
+                            assertNotNull(loader.loadDocument("http://example.org/" + i).getDocument());
+                        }
+                    }
+                    return null;
+                }));
+            }
+
+            start.countDown();
+            writer.get(30, TimeUnit.SECONDS);
+            for (final Future<?> reader : reading) {
+                reader.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            threads.shutdownNow();
+        }
+
+        assertEquals(added + 1, loader.injected().size());
+    }
+}
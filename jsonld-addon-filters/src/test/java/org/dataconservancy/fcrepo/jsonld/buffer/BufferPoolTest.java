@@ -0,0 +1,117 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.fcrepo.jsonld.buffer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.apache.commons.io.IOUtils.toInputStream;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.InputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+/**
+ * @author apb@jhu.edu
+ */
+public class BufferPoolTest {
+
+    @Test
+    public void sizeClassTest() {
+        final BufferPool toTest = new BufferPool(Long.MAX_VALUE);
+
+        assertEquals(BufferPool.MIN_SIZE, toTest.acquire(1).length);
+        assertEquals(BufferPool.MIN_SIZE, toTest.acquire(BufferPool.MIN_SIZE).length);
+        assertEquals(BufferPool.MIN_SIZE * 2, toTest.acquire(BufferPool.MIN_SIZE + 1).length);
+        assertEquals(BufferPool.MAX_SIZE, toTest.acquire(BufferPool.MAX_SIZE).length);
+        assertEquals(BufferPool.MAX_SIZE + 1, toTest.acquire(BufferPool.MAX_SIZE + 1).length);
+    }
+
+    @Test
+    public void reuseTest() {
+        final BufferPool toTest = new BufferPool(Long.MAX_VALUE);
+
+        final byte[] buf = toTest.acquire(10000);
+        toTest.release(buf);
+        assertEquals(buf.length, toTest.retained());
+
+        assertSame(buf, toTest.acquire(9000));
+        assertEquals(0, toTest.retained());
+    }
+
+    /* Arrays released beyond the retained limit are dropped */
+    @Test
+    public void retainedLimitTest() {
+        final BufferPool toTest = new BufferPool(BufferPool.MIN_SIZE);
+
+        final byte[] first = toTest.acquire(1);
+        final byte[] second = toTest.acquire(1);
+        toTest.release(first);
+        toTest.release(second);
+
+        assertEquals(BufferPool.MIN_SIZE, toTest.retained());
+        assertSame(first, toTest.acquire(1));
+        assertNotSame(second, toTest.acquire(1));
+    }
+
+    /* A buffer grows through size classes, keeping its content, and returns its array once read to the end */
+    @Test
+    public void bufferTest() throws Exception {
+        final BufferPool toTest = new BufferPool(Long.MAX_VALUE);
+
+        final StringBuilder content = new StringBuilder();
+        while (content.length() < BufferPool.MIN_SIZE * 5) {
+            content.append("küh über küh ");
+        }
+
+        final PooledBuffer buffer = toTest.read(toInputStream(content, UTF_8));
+        assertEquals(content.toString(), buffer.toString(UTF_8));
+        assertEquals(BufferPool.MIN_SIZE * 7, toTest.retained());
+
+        final InputStream in = buffer.inputStream();
+        assertEquals(content.toString(), IOUtils.toString(in, UTF_8));
+        assertEquals(0, buffer.size());
+        assertEquals(BufferPool.MIN_SIZE * 15, toTest.retained());
+    }
+
+    /* Reading more than the maximum fails, and keeps nothing from the pool */
+    @Test
+    public void readLimitTest() throws Exception {
+        final BufferPool toTest = new BufferPool(Long.MAX_VALUE);
+
+        assertEquals("küh", toTest.read(toInputStream("küh", UTF_8), 4).toString(UTF_8));
+
+        try {
+            toTest.read(toInputStream("küh über küh", UTF_8), 4);
+            fail("Expected the limit to be exceeded");
+        } catch (final CaptureLimitException e) {
+            assertEquals(BufferPool.MIN_SIZE, toTest.retained());
+        }
+    }
+
+    @Test
+    public void encodeTest() {
+        final BufferPool toTest = new BufferPool(Long.MAX_VALUE);
+
+        final PooledBuffer buffer = toTest.encode("küh über küh", UTF_8);
+        assertEquals("küh über küh".getBytes(UTF_8).length, buffer.size());
+        assertEquals("küh über küh", buffer.toString(UTF_8));
+    }
+}
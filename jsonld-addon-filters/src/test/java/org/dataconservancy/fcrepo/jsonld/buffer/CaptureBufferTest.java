@@ -0,0 +1,85 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.fcrepo.jsonld.buffer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.apache.commons.io.IOUtils.toInputStream;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+/**
+ * @author apb@jhu.edu
+ */
+public class CaptureBufferTest {
+
+    static final String CONTENT = "küh über küh ";
+
+    @Test
+    public void inMemoryTest() throws Exception {
+        final CaptureBuffer toTest = new CaptureBuffer(new BufferPool(0), 1024, -1);
+        toTest.write(CONTENT.getBytes(UTF_8));
+
+        assertFalse(toTest.isSpilled());
+        assertEquals(CONTENT, toTest.toString(UTF_8));
+        assertEquals(CONTENT, IOUtils.toString(toTest.inputStream(), UTF_8));
+    }
+
+    /* Content beyond the memory threshold is spilled, and read back in full */
+    @Test
+    public void spillTest() throws Exception {
+        final StringBuilder content = new StringBuilder();
+        while (content.length() < 10000) {
+            content.append(CONTENT);
+        }
+
+        final CaptureBuffer toTest = new CaptureBuffer(new BufferPool(0), 1024, -1);
+        toTest.readFrom(toInputStream(content, UTF_8));
+
+        assertTrue(toTest.isSpilled());
+        assertEquals(content.toString().getBytes(UTF_8).length, toTest.size());
+        assertEquals(content.toString(), toTest.toString(UTF_8));
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        toTest.writeTo(out);
+        assertEquals(content.toString(), out.toString("UTF-8"));
+
+        toTest.release();
+        assertEquals(0, toTest.size());
+    }
+
+    @Test
+    public void limitTest() throws Exception {
+        final CaptureBuffer toTest = new CaptureBuffer(new BufferPool(0), 4, 10);
+        toTest.write("0123456789".getBytes(UTF_8));
+
+        try {
+            toTest.write('a');
+            fail("Should have exceeded the limit");
+        } catch (final CaptureLimitException e) {
+            assertTrue(toTest.isExceeded());
+        }
+
+        assertEquals("0123456789", toTest.toString(UTF_8));
+    }
+}
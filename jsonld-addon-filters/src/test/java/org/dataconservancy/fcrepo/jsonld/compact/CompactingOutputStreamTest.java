@@ -17,15 +17,24 @@
 package org.dataconservancy.fcrepo.jsonld.compact;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.dataconservancy.fcrepo.jsonld.ConfigUtil.JSONLD_CAPTURE_MAX;
+import static org.dataconservancy.fcrepo.jsonld.ConfigUtil.JSONLD_CAPTURE_MEMORY;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 
 import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URL;
 
+import org.dataconservancy.fcrepo.jsonld.ConfigSnapshot;
+import org.dataconservancy.fcrepo.jsonld.buffer.CaptureLimitException;
 import org.junit.Test;
 
 /**
@@ -73,4 +82,63 @@ public class CompactingOutputStreamTest {
 
     }
 
+    /* Spilled content that cannot be streamed is still compacted, as it is within the capture limit */
+    @Test
+    public void spilledNotStreamableTest() throws Exception {
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final String INPUT = "{\"this is more than eight bytes\": true}";
+        final URL CONTEXT = new URL("http://example.org/context");
+        final String COMPACTED = "compacted";
+
+        final Compactor compactor = mock(Compactor.class);
+        when(compactor.isStreaming()).thenReturn(true);
+        when(compactor.compact(any(InputStream.class), eq(CONTEXT), any(OutputStream.class))).thenReturn(false);
+        when(compactor.compact(eq(INPUT), eq(CONTEXT))).thenReturn(COMPACTED);
+
+        System.setProperty(JSONLD_CAPTURE_MEMORY, "8");
+        ConfigSnapshot.refresh();
+        try {
+            final CompactingOutputStream toTest = new CompactingOutputStream(out, compactor, CONTEXT);
+            toTest.enableCompaction();
+            toTest.write(INPUT.getBytes(UTF_8));
+
+            assertTrue(toTest.captured.isSpilled());
+            toTest.close();
+        } finally {
+            System.clearProperty(JSONLD_CAPTURE_MEMORY);
+            ConfigSnapshot.refresh();
+        }
+
+        assertEquals(COMPACTED, new String(out.toByteArray(), UTF_8));
+    }
+
+    /* Content beyond the capture limit is not compacted, or written */
+    @Test
+    public void exceededTest() throws Exception {
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final Compactor compactor = mock(Compactor.class);
+
+        System.setProperty(JSONLD_CAPTURE_MAX, "8");
+        ConfigSnapshot.refresh();
+        try {
+            final CompactingOutputStream toTest = new CompactingOutputStream(out, compactor, new URL(
+                "http://example.org/context"));
+            toTest.enableCompaction();
+            try {
+                toTest.write("more than eight bytes".getBytes(UTF_8));
+                fail("Expected the capture limit to be exceeded");
+            } catch (final CaptureLimitException e) {
+                assertTrue(toTest.captured.isExceeded());
+            }
+            toTest.close();
+        } finally {
+            System.clearProperty(JSONLD_CAPTURE_MAX);
+            ConfigSnapshot.refresh();
+        }
+
+        verifyZeroInteractions(compactor);
+        assertEquals(0, out.size());
+    }
 }
@@ -18,18 +18,23 @@ package org.dataconservancy.fcrepo.jsonld.compact;
 
 import static java.lang.String.join;
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.dataconservancy.fcrepo.jsonld.ConfigUtil.JSONLD_CAPTURE_MAX;
 import static org.dataconservancy.fcrepo.jsonld.JsonldUtil.COMPACTION_PROP_PRELOAD_FILES;
 import static org.dataconservancy.fcrepo.jsonld.JsonldUtil.COMPACTION_PROP_PRELOAD_URIS;
 import static org.dataconservancy.fcrepo.jsonld.compact.CompactionFilter.CONTEXT_COMPACTION_URI_PROP;
 import static org.dataconservancy.fcrepo.jsonld.test.JsonldTestUtil.assertCompact;
 import static org.dataconservancy.fcrepo.jsonld.test.JsonldTestUtil.getUncompactedJsonld;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.nio.file.Paths;
 import javax.servlet.FilterChain;
 import javax.servlet.FilterConfig;
@@ -117,6 +122,7 @@ public class CompactionFilterTest {
         System.clearProperty(PRELOAD_FILE_PROP);
         System.clearProperty(PRELOAD_URI_PROP);
         System.clearProperty(CONTEXT_COMPACTION_URI_PROP);
+        System.clearProperty(JSONLD_CAPTURE_MAX);
     }
 
     @Test
@@ -141,6 +147,34 @@ public class CompactionFilterTest {
         assertCompact(new String(out.toByteArray(), UTF_8));
     }
 
+    /* A response larger than the capture limit is rejected, rather than compacted or sent partially */
+    @Test
+    public void tooLargeTest() throws Exception {
+        final String CONTEXT_URI = "http://example.org/CompactionFilterTest";
+
+        System.setProperty(CONTEXT_COMPACTION_URI_PROP, CONTEXT_URI);
+        System.setProperty(PRELOAD_URI_PROP, CONTEXT_URI);
+        System.setProperty(PRELOAD_FILE_PROP, getContextFileLocation());
+        System.setProperty(JSONLD_CAPTURE_MAX, "100");
+
+        final StringWriter body = new StringWriter();
+        when(originalResponse.getWriter()).thenReturn(new PrintWriter(body));
+
+        final CompactionFilter toTest = new CompactionFilter();
+        toTest.init(mock(FilterConfig.class));
+
+        toTest.doFilter(originalRequest, originalResponse, (req, resp) -> {
+            ((HttpServletResponse) resp).setHeader("Content-Type", "application/ld+json");
+            try (OutputStream o = resp.getOutputStream()) {
+                o.write(getUncompactedJsonld().getBytes(UTF_8));
+            }
+        });
+
+        verify(originalResponse).setStatus(502);
+        assertEquals(0, out.size());
+        assertEquals("Response too large to compact", body.toString());
+    }
+
     private static String getContextFileLocation() {
         try {
             return Paths.get(JsonldTestUtil.class.getResource("/preload-context.jsonld").toURI()).toFile()
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.fcrepo.jsonld.compact;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.enumeration;
+import static org.dataconservancy.fcrepo.jsonld.compact.CompactionRequestWrapper.INBOUND_REFERENCES;
+import static org.dataconservancy.fcrepo.jsonld.compact.CompactionRequestWrapper.JSONLD_ACCEPT;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import javax.servlet.http.HttpServletRequest;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+/**
+ * @author apb@jhu.edu
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class CompactionRequestWrapperTest {
+
+    @Mock
+    HttpServletRequest request;
+
+    @Test
+    public void noAcceptTest() {
+        when(request.getHeaderNames()).thenReturn(enumeration(asList("Host")));
+
+        final CompactionRequestWrapper toTest = new CompactionRequestWrapper(request);
+
+        assertEquals(JSONLD_ACCEPT, toTest.getHeader("Accept"));
+        assertEquals(asList(JSONLD_ACCEPT), Collections.list(toTest.getHeaders("accept")));
+        assertEquals(asList("Host", "accept"), Collections.list(toTest.getHeaderNames()));
+        assertNull(toTest.getHeader("prefer"));
+        assertFalse(toTest.getHeaders("prefer").hasMoreElements());
+    }
+
+    @Test
+    public void wildcardAcceptTest() {
+        assertTrue(CompactionRequestWrapper.isWildcard(asList("")));
+        assertTrue(CompactionRequestWrapper.isWildcard(asList("*/*")));
+        assertTrue(CompactionRequestWrapper.isWildcard(asList(" */* ; q=0.8")));
+        assertFalse(CompactionRequestWrapper.isWildcard(asList("text/turtle, */*;q=0.1")));
+        assertFalse(CompactionRequestWrapper.isWildcard(asList("*/*", "application/n-triples")));
+    }
+
+    @Test
+    public void specificAcceptTest() {
+        when(request.getHeaders("accept")).thenReturn(enumeration(asList("text/turtle")));
+        when(request.getHeaderNames()).thenReturn(enumeration(asList("Accept")));
+
+        final CompactionRequestWrapper toTest = new CompactionRequestWrapper(request);
+
+        assertEquals("text/turtle", toTest.getHeader("ACCEPT"));
+        assertEquals(asList("Accept"), Collections.list(toTest.getHeaderNames()));
+    }
+
+    @Test
+    public void preferTest() {
+        final String inbound = "return=representation; include=\"" + INBOUND_REFERENCES + "\"";
+        when(request.getHeaders("prefer")).thenReturn(enumeration(asList(
+            "return=representation; omit=\"http://www.w3.org/ns/ldp#PreferContainment\"",
+            inbound,
+            "handling=lenient; received=\"minimal\"")));
+
+        final CompactionRequestWrapper toTest = new CompactionRequestWrapper(request);
+
+        assertEquals("return=representation", toTest.getHeader("Prefer"));
+        assertEquals(asList("return=representation", inbound, "handling=lenient; received=\"minimal\""),
+                     Collections.list(toTest.getHeaders("prefer")));
+    }
+}
@@ -18,7 +18,11 @@ package org.dataconservancy.fcrepo.jsonld.compact;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 
@@ -128,6 +132,43 @@ public class CompactionWrapperTest {
         assertEquals(COMPACTED_TEXT, new String(out.toByteArray(), UTF_8));
     }
 
+    /* The compacted length is set, rather than the length given for the uncompacted body */
+    @Test
+    public void compactedLengthTest() throws Exception {
+        final CompactionWrapper toTest = new CompactionWrapper(response, compactor, context);
+        toTest.setContentLength(INPUT_TEXT.length());
+        toTest.setHeader("Content-Type", "application/ld+json");
+        try (OutputStream o = toTest.getOutputStream()) {
+            o.write(INPUT_TEXT.getBytes(UTF_8));
+        }
+
+        verify(response).setContentLengthLong(COMPACTED_TEXT.length());
+        verify(response, never()).setContentLengthLong(INPUT_TEXT.length());
+    }
+
+    @Test
+    public void passThroughLengthTest() throws Exception {
+        final CompactionWrapper toTest = new CompactionWrapper(response, compactor, context);
+        toTest.setHeader("Content-Length", String.valueOf(INPUT_TEXT.length()));
+        toTest.setContentType("text/turtle");
+        try (OutputStream o = toTest.getOutputStream()) {
+            o.write(INPUT_TEXT.getBytes(UTF_8));
+        }
+
+        verify(response).setContentLengthLong(INPUT_TEXT.length());
+        verify(response, never()).setHeader(eq("Content-Length"), anyString());
+    }
+
+    @Test
+    public void noCompactionWithoutLengthTest() throws Exception {
+        final CompactionWrapper toTest = new CompactionWrapper(response, compactor, context);
+        try (OutputStream o = toTest.getOutputStream()) {
+            o.write(INPUT_TEXT.getBytes(UTF_8));
+        }
+
+        verify(response, never()).setContentLengthLong(anyLong());
+    }
+
     private URL context() {
         try {
             return new URL("http://example.org/context");
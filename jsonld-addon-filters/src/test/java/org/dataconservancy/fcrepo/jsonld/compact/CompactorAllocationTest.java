@@ -0,0 +1,76 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.fcrepo.jsonld.compact;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.dataconservancy.fcrepo.jsonld.AllocationBudget.assertWithinBudget;
+import static org.dataconservancy.fcrepo.jsonld.JsonldUtil.addStaticContext;
+import static org.dataconservancy.fcrepo.jsonld.test.JsonldTestUtil.getUncompactedJsonld;
+
+import java.io.ByteArrayInputStream;
+import java.net.URL;
+
+import com.github.jsonldjava.core.JsonLdOptions;
+import org.apache.commons.io.output.NullOutputStream;
+import org.dataconservancy.fcrepo.jsonld.health.Warmup;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Allocation of compaction, per response.
+ *
+ * @author apb@jhu.edu
+ */
+public class CompactorAllocationTest {
+
+    static JsonLdOptions options = new JsonLdOptions();
+
+    static URL CONTEXT_URL;
+
+    @BeforeClass
+    public static void loadContext() throws Exception {
+        CONTEXT_URL = new URL("http://example.org/compactorAllocationTest/farm.jsonld");
+        addStaticContext(CONTEXT_URL, CompactorAllocationTest.class.getResourceAsStream("/context.jsonld"), options);
+    }
+
+    @Test
+    public void compactTest() throws Exception {
+        final Compactor compactor = new Compactor(options, true, false);
+        final String jsonld = getUncompactedJsonld();
+
+        assertWithinBudget("compact", () -> compactor.compact(jsonld, CONTEXT_URL));
+    }
+
+    /* Finding the persisted context translates the whole document to triples first */
+    @Test
+    public void compactPersistedContextTest() throws Exception {
+        final Compactor compactor = new Compactor(options, true, true);
+        final String jsonld = getUncompactedJsonld();
+
+        assertWithinBudget("compact.persisted", () -> compactor.compact(jsonld, CONTEXT_URL));
+    }
+
+    @Test
+    public void compactStreamingTest() throws Exception {
+        final Compactor compactor = new Compactor(options, true, false, true);
+        final byte[] jsonld = Warmup.sample(Warmup.EXPANDED_SAMPLE).getBytes(UTF_8);
+
+        assertWithinBudget("compact.streaming", () -> compactor.compact(new ByteArrayInputStream(jsonld),
+                                                                        CONTEXT_URL,
+                                                                        NullOutputStream.NULL_OUTPUT_STREAM));
+    }
+}
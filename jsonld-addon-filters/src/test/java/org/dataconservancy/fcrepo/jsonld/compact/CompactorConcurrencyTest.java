@@ -0,0 +1,121 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.fcrepo.jsonld.compact;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.dataconservancy.fcrepo.jsonld.JsonldUtil.addStaticContext;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.github.jsonldjava.core.JsonLdOptions;
+import org.apache.commons.io.IOUtils;
+import org.dataconservancy.fcrepo.jsonld.JsonldNtriplesTranslator;
+import org.dataconservancy.fcrepo.jsonld.test.JsonldTestUtil;
+import org.junit.Test;
+
+/**
+ * Shares one compactor and translator between threads, while contexts are added, and checks that every result is
+ * the same as when single threaded.
+ *
+ * @author apb@jhu.edu
+ */
+public class CompactorConcurrencyTest {
+
+    static final int THREADS = 8;
+
+    static final int ITERATIONS = 250;
+
+    static final String CONTEXT = "http://example.org/concurrencyTest/farm";
+
+    static final String FIXTURE_CONTEXT = "http://example.org/farm";
+
+    static final String COMPACT = "{ " +
+                                  "\"@id\": \"\", " +
+                                  "\"@type\": \"Cow\", " +
+                                  "\"healthy\": false, " +
+                                  "\"name\": \"yoda\", " +
+                                  "\"weight\": 124, " +
+                                  "\"@context\": \"" + CONTEXT + "\"" +
+                                  "}";
+
+    @Test
+    public void sharedCompactorTest() throws Exception {
+        final JsonLdOptions options = new JsonLdOptions();
+        final String context = IOUtils.toString(JsonldTestUtil.class.getResourceAsStream("/context.jsonld"), UTF_8);
+        addStaticContext(new URL(CONTEXT), context, options);
+
+        final Compactor compactor = new Compactor(options, true, true);
+        final JsonldNtriplesTranslator translator = new JsonldNtriplesTranslator(options, true, false);
+
+        // Compacted with the context named by its persisted hasContext triple; most are added while running
+        final String persisted = IOUtils.toString(JsonldTestUtil.class.getResourceAsStream(
+            "/compact-uri-with-persisted-context.json"), UTF_8).replace(FIXTURE_CONTEXT, CONTEXT);
+        final String hasContext = "\"@id\": \"" + CONTEXT + "\"";
+
+        final String expectedCompact = compactor.compact(persisted, new URL(CONTEXT));
+        final String expectedTriples = translator.translate(COMPACT);
+        assertTrue(expectedCompact.contains(CONTEXT));
+
+        final AtomicInteger added = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        final ExecutorService threads = Executors.newFixedThreadPool(THREADS + 1);
+        try {
+            final List<Future<?>> workers = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                workers.add(threads.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < ITERATIONS; i++) {
+                        final String cxt = added.get() > 0 ? CONTEXT + "/" + (i % added.get()) : CONTEXT;
+                        final String doc = persisted.replace(hasContext, "\"@id\": \"" + cxt + "\"");
+
+                        assertEquals(expectedCompact.replace(CONTEXT, cxt), compactor.compact(doc, new URL(
+                            CONTEXT)));
+                        assertEquals(expectedTriples, translator.translate(COMPACT));
+                    }
+                    return null;
+                }));
+            }
+
+            final Future<?> adding = threads.submit(() -> {
+                start.await();
+                for (int i = 0; i < ITERATIONS; i++) {
+                    addStaticContext(new URL(CONTEXT + "/" + i), context, options);
+                    added.incrementAndGet();
+                }
+                return null;
+            });
+
+            start.countDown();
+            adding.get(60, TimeUnit.SECONDS);
+            for (final Future<?> worker : workers) {
+                worker.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            threads.shutdownNow();
+        }
+    }
+}
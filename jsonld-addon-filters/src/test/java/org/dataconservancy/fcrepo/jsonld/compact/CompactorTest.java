@@ -20,14 +20,23 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.dataconservancy.fcrepo.jsonld.JsonldUtil.addStaticContext;
 import static org.dataconservancy.fcrepo.jsonld.test.JsonldTestUtil.assertCompact;
 import static org.dataconservancy.fcrepo.jsonld.test.JsonldTestUtil.getUncompactedJsonld;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 
 import com.github.jsonldjava.core.JsonLdOptions;
+import com.github.jsonldjava.core.JsonLdProcessor;
+import com.github.jsonldjava.utils.JsonUtils;
 import org.apache.commons.io.IOUtils;
+import org.dataconservancy.fcrepo.jsonld.health.Warmup;
 import org.dataconservancy.fcrepo.jsonld.test.JsonldTestUtil;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -57,6 +66,15 @@ public class CompactorTest {
         assertCompact(compactor.compact(JSON, CONTEXT_URL));
     }
 
+    /* The bundled warm-up sample can be compacted with any context */
+    @Test
+    public void warmupSampleTest() throws Exception {
+        final String sample = Warmup.sample(Warmup.EXPANDED_SAMPLE);
+
+        assertTrue(new Compactor(options, true, true).compact(sample, CONTEXT_URL).contains("submissions/warmup"));
+        assertTrue(new Compactor(options, false, false).compact(sample, CONTEXT_URL).contains("submissions/warmup"));
+    }
+
     @Test
     public void dropUnknownAttrTest() throws Exception {
         final Compactor willDrop = new Compactor(options, true, false);
@@ -94,6 +112,61 @@ public class CompactorTest {
         assertFalse(results.contains(CONTEXT_URL.toExternalForm()));
     }
 
+    /* Compacting node by node gives the same document as compacting all at once */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void streamingTest() throws Exception {
+        final Compactor streaming = new Compactor(options, false, false, true);
+        final Compactor whole = new Compactor(options, false, false);
+
+        final Map<String, Object> node = (Map<String, Object>) JsonLdProcessor.expand(JsonUtils.fromString(
+            getUncompactedJsonld())).get(0);
+
+        final List<Object> nodes = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            final Map<String, Object> copy = (Map<String, Object>) JsonUtils.fromString(JsonUtils.toString(node));
+            copy.put("@id", "http://example.org/cows/" + i);
+            nodes.add(copy);
+
+            final String expanded = JsonUtils.toString(nodes);
+            assertEquals(JsonUtils.fromString(whole.compact(expanded, CONTEXT_URL)),
+                         JsonUtils.fromString(streamingCompact(streaming, expanded)));
+        }
+
+        final String compacted = streamingCompact(streaming, JsonUtils.toString(nodes));
+        final Map<String, Object> graph = (Map<String, Object>) JsonUtils.fromString(compacted);
+        assertEquals(3, ((List<Object>) graph.get("@graph")).size());
+    }
+
+    /* Content that is not an array of nodes is left for compaction as a whole */
+    @Test
+    public void streamingNotArrayTest() throws Exception {
+        final Compactor streaming = new Compactor(options, true, false, true);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        assertFalse(streaming.compact(new ByteArrayInputStream(getUncompactedJsonld().getBytes(UTF_8)), CONTEXT_URL,
+                                      out));
+        assertEquals(0, out.size());
+    }
+
+    private static String streamingCompact(Compactor compactor, String jsonld) throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertTrue(compactor.compact(new ByteArrayInputStream(jsonld.getBytes(UTF_8)), CONTEXT_URL, out));
+        return out.toString("UTF-8");
+    }
+
+    /* A compiled context compacts just as the processor does */
+    @Test
+    public void compiledContextTest() throws Exception {
+        final CompiledContext compiled = CompiledContext.compile(CONTEXT_URL.toExternalForm(), options);
+
+        for (final String jsonld : new String[] { "[]", getUncompactedJsonld(), IOUtils.toString(
+            JsonldTestUtil.class.getResourceAsStream("/uncompacted-with-unwanted-data.json"), UTF_8) }) {
+            assertEquals(JsonLdProcessor.compact(JsonUtils.fromString(jsonld), compiled.document, options),
+                         compiled.compact(JsonUtils.fromString(jsonld)));
+        }
+    }
+
     @Test
     public void emptyInputTest() {
         final Compactor toTest = new Compactor(options, true, true);
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.fcrepo.jsonld.compact;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.enumeration;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.when;
+
+import java.net.URL;
+import java.util.Collections;
+import javax.servlet.http.HttpServletRequest;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+/**
+ * @author apb@jhu.edu
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class ContextSelectorTest {
+
+    static final String COMPACTED = "http://www.w3.org/ns/json-ld#compacted";
+
+    @Mock
+    HttpServletRequest request;
+
+    @Test
+    public void profilesTest() {
+        assertEquals(asList(COMPACTED, "http://example.org/a", "http://example.org/b"),
+                     ContextSelector.profiles(enumeration(asList(
+                         "text/turtle;profile=\"http://example.org/c\", application/ld+json; profile=\"" +
+                             COMPACTED + " http://example.org/a\";q=0.9",
+                         "application/ld+json;profile=http://example.org/b"))));
+        assertEquals(Collections.emptyList(), ContextSelector.profiles(null));
+    }
+
+    @Test
+    public void acceptProfileTest() throws Exception {
+        final URL defaultContext = new URL("http://example.org/default");
+        final URL other = new URL("http://example.org/other");
+
+        when(request.getHeaders("accept")).thenReturn(enumeration(asList("application/ld+json; profile=\"" +
+            COMPACTED + " " + other + "\"")));
+
+        final ContextSelector toTest = new ContextSelector(defaultContext, asList(defaultContext, other), null);
+
+        assertSame(other, toTest.select(request));
+    }
+
+    @Test
+    public void headerTest() throws Exception {
+        final URL defaultContext = new URL("http://example.org/default");
+        final URL other = new URL("http://example.org/other");
+
+        when(request.getHeader("X-Context")).thenReturn(other.toExternalForm());
+
+        final ContextSelector toTest = new ContextSelector(defaultContext, asList(defaultContext, other),
+                                                           "X-Context");
+
+        assertSame(other, toTest.select(request));
+    }
+
+    /* Contexts that are not allowed cannot be chosen */
+    @Test
+    public void notAllowedTest() throws Exception {
+        final URL defaultContext = new URL("http://example.org/default");
+
+        when(request.getHeader("X-Context")).thenReturn("http://example.org/evil");
+        when(request.getHeaders("accept")).thenReturn(enumeration(asList(
+            "application/ld+json; profile=\"http://example.org/evil\"")));
+
+        final ContextSelector toTest = new ContextSelector(defaultContext, asList(defaultContext), "X-Context");
+
+        assertSame(defaultContext, toTest.select(request));
+    }
+}
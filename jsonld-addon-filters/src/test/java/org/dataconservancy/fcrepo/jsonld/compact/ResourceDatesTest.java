@@ -0,0 +1,73 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.fcrepo.jsonld.compact;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.apache.commons.io.IOUtils.toInputStream;
+import static org.dataconservancy.fcrepo.jsonld.compact.ResourceDates.FEDORA_CREATED;
+import static org.dataconservancy.fcrepo.jsonld.compact.ResourceDates.FEDORA_LAST_MODIFIED;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+/**
+ * @author apb@jhu.edu
+ */
+public class ResourceDatesTest {
+
+    static final String CREATED = "2018-01-01T00:00:00.000Z";
+
+    static final String MODIFIED = "2018-02-01T00:00:00.000Z";
+
+    @Test
+    public void expandedTest() throws Exception {
+        final ResourceDates dates = read("[{\"@id\": \"http://example.org/a\", " +
+                                         "\"http://example.org/other\": [{\"@value\": \"x\"}], " +
+                                         "\"" + FEDORA_CREATED + "\": [{\"@value\": \"" + CREATED + "\", " +
+                                         "\"@type\": \"xsd:dateTime\"}], " +
+                                         "\"" + FEDORA_LAST_MODIFIED + "\": {\"@value\": \"" + MODIFIED + "\"}}, " +
+                                         "{\"@id\": \"http://example.org/b\"}]");
+
+        assertEquals(CREATED, dates.created);
+        assertEquals(MODIFIED, dates.lastModified);
+    }
+
+    /* Compact properties are used if there are no expanded ones */
+    @Test
+    public void compactTest() throws Exception {
+        final ResourceDates dates = read("{\"created\": \"" + CREATED + "\", " +
+                                         "\"nested\": {\"lastModified\": \"nope\"}, " +
+                                         "\"lastModified\": \"" + MODIFIED + "\", " +
+                                         "\"" + FEDORA_CREATED + "\": {\"@value\": \"expanded\"}}");
+
+        assertEquals("expanded", dates.created);
+        assertEquals(MODIFIED, dates.lastModified);
+    }
+
+    @Test
+    public void noDatesTest() throws Exception {
+        final ResourceDates dates = read("[]");
+
+        assertNull(dates.created);
+        assertNull(dates.lastModified);
+    }
+
+    private static ResourceDates read(String json) throws Exception {
+        return ResourceDates.read(toInputStream(json, UTF_8));
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.fcrepo.jsonld.health;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+/**
+ * @author apb@jhu.edu
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class HealthServletTest {
+
+    @Mock
+    HttpServletRequest request;
+
+    @Mock
+    HttpServletResponse response;
+
+    final StringWriter body = new StringWriter();
+
+    @After
+    public void tearDown() {
+        Warmup.reset();
+        Health.unregister("test.gauge");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void healthTest() throws Exception {
+        when(response.getWriter()).thenReturn(new PrintWriter(body));
+        Health.register("test.gauge", () -> 42);
+
+        new HealthServlet().doGet(request, response);
+
+        verify(response).setStatus(200);
+        verify(response).setContentType("application/json");
+
+        final Map<String, Object> health = new ObjectMapper().readValue(body.toString(), Map.class);
+        assertEquals(true, health.get("ready"));
+        assertEquals(42, health.get("test.gauge"));
+        assertTrue(health.containsKey("buffers.retained"));
+        assertTrue(((Map<String, Object>) health.get("lastMinute")).containsKey("errorRate"));
+    }
+
+    @Test
+    public void notReadyTest() throws Exception {
+        when(request.getPathInfo()).thenReturn("/ready");
+        when(response.getWriter()).thenReturn(new PrintWriter(body));
+
+        final CountDownLatch release = new CountDownLatch(1);
+        Warmup.warm("test", 1, () -> {
+            try {
+                release.await();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        try {
+            new HealthServlet().doGet(request, response);
+        } finally {
+            release.countDown();
+        }
+
+        verify(response).setStatus(503);
+        assertEquals("{\"ready\":false}", body.toString());
+    }
+
+    @Test
+    public void countedOnceTest() {
+        final long before = Health.requests();
+
+        when(request.getAttribute(Health.COUNTED)).thenReturn(null, Boolean.TRUE);
+        Health.request(request);
+        Health.request(request);
+
+        verify(request).setAttribute(Health.COUNTED, Boolean.TRUE);
+        assertTrue(Health.requests() >= before + 1);
+    }
+}
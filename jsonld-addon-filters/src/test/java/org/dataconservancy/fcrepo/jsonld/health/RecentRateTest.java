@@ -0,0 +1,96 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.fcrepo.jsonld.health;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+/**
+ * @author apb@jhu.edu
+ */
+public class RecentRateTest {
+
+    @Test
+    public void lastMinuteTest() {
+        final AtomicLong now = new AtomicLong(1000);
+        final RecentRate toTest = new RecentRate(now::get);
+
+        toTest.record();
+        toTest.record();
+        now.set(1030);
+        toTest.record();
+        assertEquals(3, toTest.count());
+
+        now.set(1059);
+        assertEquals(3, toTest.count());
+
+        now.set(1060);
+        assertEquals(1, toTest.count());
+
+        /* The bucket of second 1000 is reused, and starts again from zero */
+        toTest.record();
+        assertEquals(2, toTest.count());
+
+        now.set(1200);
+        assertEquals(0, toTest.count());
+    }
+
+    /* Concurrent counts are not lost to a bucket being cleared as a new second begins */
+    @Test
+    public void concurrentRolloverTest() throws Exception {
+        final AtomicLong now = new AtomicLong(1000);
+        final RecentRate toTest = new RecentRate(now::get);
+        toTest.record();
+
+        final int threads = 8;
+        final int records = 10_000;
+        final CountDownLatch start = new CountDownLatch(1);
+        final ExecutorService exe = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<?>> done = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                done.add(exe.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < records; i++) {
+                        toTest.record();
+                    }
+                    return null;
+                }));
+            }
+
+            /* The same bucket, a minute later, so every thread races to clear it */
+            now.set(1060);
+            start.countDown();
+            for (final Future<?> f : done) {
+                f.get();
+            }
+        } finally {
+            exe.shutdownNow();
+        }
+
+        assertEquals(threads * records, toTest.count());
+    }
+}
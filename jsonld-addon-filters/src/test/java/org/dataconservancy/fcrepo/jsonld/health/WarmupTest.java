@@ -0,0 +1,119 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.fcrepo.jsonld.health;
+
+import static org.dataconservancy.fcrepo.jsonld.JsonldUtil.addStaticContext;
+import static org.dataconservancy.fcrepo.jsonld.health.Warmup.COMPACT_SAMPLE;
+import static org.dataconservancy.fcrepo.jsonld.health.Warmup.sample;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.URL;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.github.jsonldjava.core.JsonLdOptions;
+import org.dataconservancy.fcrepo.jsonld.JsonMergePatchTranslator;
+import org.dataconservancy.fcrepo.jsonld.JsonldNtriplesTranslator;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * @author apb@jhu.edu
+ */
+public class WarmupTest {
+
+    @After
+    public void tearDown() {
+        Warmup.reset();
+    }
+
+    /* The bundled sample must work with any configuration, e.g. strict */
+    @Test
+    public void samplesTest() throws Exception {
+        final JsonLdOptions options = new JsonLdOptions();
+        final URL context = new URL("http://example.org/warmupTest/farm.jsonld");
+        addStaticContext(context, WarmupTest.class.getResourceAsStream("/context.jsonld"), options);
+
+        assertTrue(new JsonldNtriplesTranslator(options, true, true).translate(sample(COMPACT_SAMPLE)).contains(
+            "Warm-up submission"));
+        assertTrue(new JsonMergePatchTranslator(options, true, true).toSparql(sample(COMPACT_SAMPLE), null)
+            .contains("Warm-up submission"));
+    }
+
+    @Test
+    public void warmTest() throws Exception {
+        final AtomicInteger count = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch(1);
+
+        final CompletableFuture<Void> warming = Warmup.warm("test", 5, () -> {
+            try {
+                release.await();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            count.incrementAndGet();
+        });
+
+        assertFalse(Warmup.isWarm());
+        assertEquals(Warmup.WARMING, Warmup.status().get("test"));
+
+        release.countDown();
+        warming.get();
+
+        assertTrue(Warmup.isWarm());
+        assertEquals(Warmup.WARM, Warmup.status().get("test"));
+        assertEquals(5, count.get());
+    }
+
+    @Test
+    public void failedTest() throws Exception {
+        final AtomicInteger count = new AtomicInteger();
+
+        Warmup.warm("test", 5, () -> {
+            if (count.incrementAndGet() == 2) {
+                throw new IllegalStateException("failed warm-up");
+            }
+        }).get();
+
+        assertTrue(Warmup.isWarm());
+        assertEquals(Warmup.FAILED, Warmup.status().get("test"));
+        assertEquals(2, count.get());
+    }
+
+    /* An Error fails the warm-up rather than leaving it warming */
+    @Test
+    public void errorTest() throws Exception {
+        final CompletableFuture<Void> warming = Warmup.warm("test", 5, () -> {
+            throw new NoClassDefFoundError("failed warm-up");
+        });
+
+        try {
+            warming.get();
+            fail("Expected the Error to complete the warm-up exceptionally");
+        } catch (final ExecutionException e) {
+            assertTrue(e.getCause() instanceof NoClassDefFoundError);
+        }
+
+        assertTrue(Warmup.isWarm());
+        assertEquals(Warmup.FAILED, Warmup.status().get("test"));
+    }
+}
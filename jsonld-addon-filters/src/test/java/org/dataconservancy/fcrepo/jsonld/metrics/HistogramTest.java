@@ -0,0 +1,58 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.fcrepo.jsonld.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * @author apb@jhu.edu
+ */
+public class HistogramTest {
+
+    /* Every value falls in a bucket whose highest value is no more than 1/16 above it */
+    @Test
+    public void bucketTest() {
+        for (final long value : new long[] { 0, 1, 15, 16, 17, 31, 32, 33, 1000, 1_000_000_007L, Long.MAX_VALUE }) {
+            final int index = Histogram.index(value);
+            assertTrue(index >= 0 && index < Histogram.BUCKETS);
+
+            final long highest = Histogram.highest(index);
+            assertTrue(value + " > " + highest, highest >= value);
+            assertTrue(value + " << " + highest, highest - value <= value / Histogram.SUB_BUCKETS);
+        }
+    }
+
+    @Test
+    public void quantileTest() {
+        final Histogram histogram = new Histogram();
+        assertEquals(0, histogram.valueAtQuantile(0.5));
+
+        for (long i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000);
+        }
+
+        assertEquals(1000, histogram.count());
+        assertEquals(500500000, histogram.sum());
+        assertEquals(1_000_000, histogram.max());
+        assertEquals(500_000, histogram.valueAtQuantile(0.5), 500_000 / 16);
+        assertEquals(990_000, histogram.valueAtQuantile(0.99), 990_000 / 16);
+        assertEquals(1_000_000, histogram.valueAtQuantile(1));
+    }
+}
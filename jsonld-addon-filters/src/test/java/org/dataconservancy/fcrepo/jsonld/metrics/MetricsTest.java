@@ -0,0 +1,122 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.fcrepo.jsonld.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+/**
+ * @author apb@jhu.edu
+ */
+public class MetricsTest {
+
+    @Test
+    public void disabledTest() {
+        final Metrics metrics = new Metrics(false, false);
+
+        assertSame(Timer.NOOP, metrics.timer("test.timer"));
+        assertSame(Counter.NOOP, metrics.counter("test.counter"));
+
+        final Timer timer = metrics.timer("test.timer");
+        timer.stop(timer.start());
+        metrics.counter("test.counter").add(10);
+
+        assertEquals(0, timer.getCount());
+        assertEquals(0, metrics.counter("test.counter").getCount());
+        assertTrue(metrics.timers().isEmpty());
+    }
+
+    @Test
+    public void enabledTest() throws Exception {
+        final Metrics metrics = new Metrics(true, true);
+
+        final Timer timer = metrics.timer("test.enabled.timer");
+        assertSame(timer, metrics.timer("test.enabled.timer"));
+        timer.stop(timer.start());
+
+        metrics.attach();
+        metrics.counter("test.enabled.counter").add(10);
+        metrics.status(400);
+
+        assertEquals(1, timer.getCount());
+        assertEquals(10, metrics.counter("test.enabled.counter").getCount());
+        assertEquals(1, metrics.counter("responses.status.400").getCount());
+
+        assertEquals(10L, ManagementFactory.getPlatformMBeanServer().getAttribute(new ObjectName(
+            "org.dataconservancy.fcrepo.jsonld:type=Counter,name=test.enabled.counter"), "Count"));
+        assertEquals(1L, ManagementFactory.getPlatformMBeanServer().getAttribute(new ObjectName(
+            "org.dataconservancy.fcrepo.jsonld:type=Timer,name=test.enabled.timer"), "Count"));
+        metrics.detach();
+    }
+
+    /* Metrics are registered with JMX only while some filter is attached */
+    @Test
+    public void attachTest() throws Exception {
+        final Metrics metrics = new Metrics(true, true);
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName before = new ObjectName(
+            "org.dataconservancy.fcrepo.jsonld:type=Counter,name=test.attach.before");
+        final ObjectName during = new ObjectName(
+            "org.dataconservancy.fcrepo.jsonld:type=Timer,name=test.attach.during");
+
+        metrics.counter("test.attach.before");
+        assertFalse(server.isRegistered(before));
+
+        metrics.attach();
+        metrics.attach();
+        metrics.timer("test.attach.during");
+        assertTrue(server.isRegistered(before));
+        assertTrue(server.isRegistered(during));
+
+        metrics.detach();
+        assertTrue(server.isRegistered(before));
+
+        metrics.detach();
+        assertFalse(server.isRegistered(before));
+        assertFalse(server.isRegistered(during));
+    }
+
+    @Test
+    public void prometheusTest() throws Exception {
+        final Metrics metrics = new Metrics(true, false);
+        metrics.counter("compaction.bytes.in").add(1024);
+        metrics.timer("stage.compact").histogram().record(2_000_000);
+
+        final StringWriter out = new StringWriter();
+        PrometheusServlet.write(metrics, out);
+
+        assertEquals("# TYPE jsonld_compaction_bytes_in_total counter\n" +
+            "jsonld_compaction_bytes_in_total 1024\n" +
+            "# TYPE jsonld_stage_compact_seconds summary\n" +
+            "jsonld_stage_compact_seconds{quantile=\"0.5\"} 0.002\n" +
+            "jsonld_stage_compact_seconds{quantile=\"0.9\"} 0.002\n" +
+            "jsonld_stage_compact_seconds{quantile=\"0.99\"} 0.002\n" +
+            "jsonld_stage_compact_seconds_count 1\n" +
+            "jsonld_stage_compact_seconds_sum 0.002\n" +
+            "# TYPE jsonld_stage_compact_seconds_max gauge\n" +
+            "jsonld_stage_compact_seconds_max 0.002\n", out.toString());
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.fcrepo.jsonld.metrics;
+
+import static org.dataconservancy.fcrepo.jsonld.ConfigUtil.JSONLD_TIMING;
+import static org.dataconservancy.fcrepo.jsonld.metrics.ServerTiming.MDC_TRACE_ID;
+import static org.dataconservancy.fcrepo.jsonld.metrics.ServerTiming.REQUEST_ID;
+import static org.dataconservancy.fcrepo.jsonld.metrics.ServerTiming.SERVER_TIMING;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import javax.servlet.http.HttpServletRequest;
+
+import org.dataconservancy.fcrepo.jsonld.ConfigSnapshot;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.slf4j.MDC;
+
+/**
+ * @author apb@jhu.edu
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class ServerTimingTest {
+
+    @Mock
+    HttpServletRequest request;
+
+    final List<String> headers = new ArrayList<>();
+
+    @Before
+    public void enable() {
+        System.setProperty(JSONLD_TIMING, "true");
+        ConfigSnapshot.refresh();
+    }
+
+    @After
+    public void disable() {
+        ServerTiming.end();
+        System.clearProperty(JSONLD_TIMING);
+        ConfigSnapshot.refresh();
+    }
+
+    @Test
+    public void timingTest() {
+        when(request.getHeader(REQUEST_ID)).thenReturn("abc-123");
+
+        assertTrue(ServerTiming.begin(request));
+        assertFalse(ServerTiming.begin(request));
+        assertEquals("abc-123", MDC.get(MDC_TRACE_ID));
+
+        ServerTiming.stop("parse", ServerTiming.start() - 1_500_000);
+        ServerTiming.stop("compact", ServerTiming.start() - 2_000_000);
+        ServerTiming.stop("parse", ServerTiming.start() - 1_000_000);
+        ServerTiming.appendTo((name, value) -> headers.add(name + ": " + value));
+
+        ServerTiming.stop("strip", ServerTiming.start() - 250_000);
+        ServerTiming.appendTo((name, value) -> headers.add(name + ": " + value));
+        ServerTiming.appendTo((name, value) -> headers.add(name + ": " + value));
+
+        assertEquals(2, headers.size());
+        assertTrue(headers.get(0), headers.get(0).matches(SERVER_TIMING +
+            ": trace;desc=\"abc-123\", parse;dur=\\d+\\.\\d{3}, compact;dur=\\d+\\.\\d{3}"));
+        assertTrue(headers.get(1), headers.get(1).matches(SERVER_TIMING + ": strip;dur=\\d+\\.\\d{3}"));
+        assertTrue(Double.parseDouble(headers.get(0).replaceAll(".*parse;dur=([0-9.]+).*", "$1")) >= 2.5);
+
+        ServerTiming.end();
+        assertNull(MDC.get(MDC_TRACE_ID));
+    }
+
+    /* A new configuration snapshot turns timing off, with no reload listener */
+    @Test
+    public void disabledTest() {
+        System.clearProperty(JSONLD_TIMING);
+        ConfigSnapshot.refresh();
+
+        assertFalse(ServerTiming.begin(request));
+        assertNull(MDC.get(MDC_TRACE_ID));
+    }
+
+    @Test
+    public void notBegunTest() {
+        ServerTiming.stop("parse", ServerTiming.start());
+        ServerTiming.appendTo((name, value) -> headers.add(value));
+
+        assertTrue(headers.isEmpty());
+    }
+
+    @Test
+    public void traceIdTest() {
+        assertEquals("abc.DEF_1-2", ServerTiming.traceId("abc.DEF_1-2"));
+        assertNotEquals("bad\r\nheader", ServerTiming.traceId("bad\r\nheader"));
+        assertTrue(ServerTiming.traceId(null).matches("[0-9a-f]+"));
+    }
+}
@@ -0,0 +1,472 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.fcrepo.jsonld.request;
+
+import static java.lang.String.join;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.apache.commons.io.IOUtils.toInputStream;
+import static org.dataconservancy.fcrepo.jsonld.ConfigUtil.JSONLD_CAPTURE_MAX;
+import static org.dataconservancy.fcrepo.jsonld.ConfigUtil.JSONLD_PATCH_CONDITIONAL;
+import static org.dataconservancy.fcrepo.jsonld.JsonldUtil.COMPACTION_PROP_PRELOAD_FILES;
+import static org.dataconservancy.fcrepo.jsonld.JsonldUtil.COMPACTION_PROP_PRELOAD_URIS;
+import static org.dataconservancy.fcrepo.jsonld.compact.CompactionFilter.CONTEXT_COMPACTION_URI_PROP;
+import static org.dataconservancy.fcrepo.jsonld.request.JsonMergePatchFilter.JSON_MERGE_PATCH;
+import static org.dataconservancy.fcrepo.jsonld.request.JsonMergePatchFilter.SPARQL_UPDATE;
+import static org.dataconservancy.fcrepo.jsonld.test.JsonldTestUtil.assertCompact;
+import static org.dataconservancy.fcrepo.jsonld.test.JsonldTestUtil.getUncompactedJsonld;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ReadListener;
+import javax.servlet.RequestDispatcher;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletException;
+import javax.servlet.ServletResponse;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.io.IOUtils;
+import org.dataconservancy.fcrepo.jsonld.buffer.BufferPool;
+import org.dataconservancy.fcrepo.jsonld.compact.CompactionFilter;
+import org.dataconservancy.fcrepo.jsonld.test.JsonldTestUtil;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+/**
+ * @author apb@jhu.edu
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class JsonMergePatchFilterTest {
+
+    static final String PATCH = "{ " +
+                                "\"@id\": \"test:123\", " +
+                                "\"healthy\": false, " +
+                                "\"@context\": {\"healthy\": \"http://example.org/farm#healthy\"}" +
+                                "}";
+
+    static final String ETAG = "W/\"9d8c4cb8d4d6a1a6f0d7c58fd1e4a1d3\"";
+
+    @Mock
+    FilterChain chain;
+
+    @Mock
+    FilterConfig config;
+
+    @Mock
+    HttpServletRequest request;
+
+    @Mock
+    HttpServletResponse response;
+
+    @Mock
+    RequestDispatcher dispatcher;
+
+    @Captor
+    ArgumentCaptor<HttpServletRequest> requestCaptor;
+
+    @Captor
+    ArgumentCaptor<HttpServletResponse> responseCaptor;
+
+    /* Response given to the forward, and the one Fedora's GET wrote to */
+    ServletResponse forwarded;
+
+    ServletResponse served;
+
+    final String PRELOAD_URI_PROP = join(".", COMPACTION_PROP_PRELOAD_URIS, "farm.patch.test");
+
+    final String PRELOAD_FILE_PROP = join(".", COMPACTION_PROP_PRELOAD_FILES, "farm.patch.test");
+
+    @After
+    public void tearDown() {
+        System.clearProperty(JSONLD_PATCH_CONDITIONAL);
+        System.clearProperty(JSONLD_CAPTURE_MAX);
+        System.clearProperty(PRELOAD_FILE_PROP);
+        System.clearProperty(PRELOAD_URI_PROP);
+        System.clearProperty(CONTEXT_COMPACTION_URI_PROP);
+    }
+
+    @Test
+    public void conditionalPassThroughTest() throws Exception {
+        when(request.getMethod()).thenReturn("PATCH");
+        when(request.getHeader("content-type")).thenReturn(JSON_MERGE_PATCH);
+        when(request.getHeader("if-match")).thenReturn(ETAG);
+        when(request.getInputStream()).thenReturn(servletStream(toInputStream(PATCH, UTF_8)));
+
+        final JsonMergePatchFilter toTest = new JsonMergePatchFilter();
+        toTest.init(config);
+
+        toTest.doFilter(request, response, chain);
+
+        verify(chain).doFilter(requestCaptor.capture(), responseCaptor.capture());
+
+        final HttpServletRequest patched = requestCaptor.getValue();
+        assertEquals(ETAG, patched.getHeader("if-match"));
+        assertEquals(SPARQL_UPDATE, patched.getContentType());
+        assertTrue(IOUtils.toString(patched.getInputStream(), UTF_8).contains("http://example.org/farm#healthy"));
+
+        // The ETag of the patched resource is set once, not added twice
+        responseCaptor.getValue().setHeader("ETag", ETAG);
+        verify(response).setHeader("ETag", ETAG);
+        verify(response, never()).addHeader(anyString(), anyString());
+    }
+
+    @Test
+    public void unconditionalRejectedTest() throws Exception {
+        System.setProperty(JSONLD_PATCH_CONDITIONAL, "true");
+
+        final StringWriter body = new StringWriter();
+
+        when(request.getMethod()).thenReturn("PATCH");
+        when(request.getHeader("content-type")).thenReturn(JSON_MERGE_PATCH);
+        when(response.getWriter()).thenReturn(new PrintWriter(body));
+
+        final JsonMergePatchFilter toTest = new JsonMergePatchFilter();
+        toTest.init(config);
+
+        toTest.doFilter(request, response, chain);
+
+        verify(response).setStatus(428);
+        verifyZeroInteractions(chain);
+        assertTrue(body.toString().contains("If-Match"));
+    }
+
+    @Test
+    public void tooLargeTest() throws Exception {
+        System.setProperty(JSONLD_CAPTURE_MAX, "10");
+
+        final StringWriter body = new StringWriter();
+
+        when(request.getMethod()).thenReturn("PATCH");
+        when(request.getHeader("content-type")).thenReturn(JSON_MERGE_PATCH);
+        when(request.getInputStream()).thenReturn(servletStream(toInputStream(PATCH, UTF_8)));
+        when(response.getWriter()).thenReturn(new PrintWriter(body));
+
+        final JsonMergePatchFilter toTest = new JsonMergePatchFilter();
+        toTest.init(config);
+
+        toTest.doFilter(request, response, chain);
+
+        verify(response).setStatus(413);
+        verifyZeroInteractions(chain);
+    }
+
+    /* The patched resource is fetched by the path it was requested with, still percent-encoded */
+    @Test
+    public void returnRepresentationTest() throws Exception {
+        when(request.getMethod()).thenReturn("PATCH");
+        when(request.getHeader("content-type")).thenReturn(JSON_MERGE_PATCH);
+        when(request.getHeader("prefer")).thenReturn("return=representation");
+        when(request.getContextPath()).thenReturn("/fcrepo");
+        when(request.getRequestURI()).thenReturn("/fcrepo/rest/cows/a%2Fb%3Fc%23d%25e");
+        when(request.getRequestDispatcher("/rest/cows/a%2Fb%3Fc%23d%25e")).thenReturn(dispatcher);
+        when(request.getInputStream()).thenReturn(servletStream(toInputStream(PATCH, UTF_8)));
+
+        doAnswer(i -> {
+            ((HttpServletResponse) i.getArgument(1)).setStatus(204);
+            return null;
+        }).when(chain).doFilter(any(HttpServletRequest.class), any(ServletResponse.class));
+
+        final JsonMergePatchFilter toTest = new JsonMergePatchFilter();
+        toTest.init(config);
+
+        toTest.doFilter(request, response, chain);
+
+        // Fedora's 204 is held back, and the patched resource is fetched instead
+        verify(response, never()).setStatus(204);
+        verify(response).setHeader("Preference-Applied", "return=representation");
+        verify(dispatcher).forward(requestCaptor.capture(), any(HttpServletResponse.class));
+
+        final HttpServletRequest get = requestCaptor.getValue();
+        assertEquals("GET", get.getMethod());
+        assertEquals("application/ld+json", get.getHeader("accept"));
+        assertNull(get.getHeader("if-match"));
+        assertNull(get.getHeader("prefer"));
+    }
+
+    /* The GET of the patched resource is never conditional, so it cannot be answered with 304 */
+    @Test
+    public void returnRepresentationUnconditionalTest() throws Exception {
+        when(request.getMethod()).thenReturn("PATCH");
+        when(request.getHeader("content-type")).thenReturn(JSON_MERGE_PATCH);
+        when(request.getHeader("prefer")).thenReturn("return=representation");
+        lenient().when(request.getHeader("if-none-match")).thenReturn(ETAG);
+        lenient().when(request.getHeader("if-modified-since")).thenReturn("Mon, 01 Jan 2018 00:00:00 GMT");
+        when(request.getHeaderNames()).thenReturn(Collections.enumeration(Arrays.asList(
+            "Content-Type", "Prefer", "If-None-Match", "If-Modified-Since", "If-Range", "Accept-Language")));
+        when(request.getContextPath()).thenReturn("/fcrepo");
+        when(request.getRequestURI()).thenReturn("/fcrepo/rest/cows/123");
+        when(request.getRequestDispatcher("/rest/cows/123")).thenReturn(dispatcher);
+        when(request.getInputStream()).thenReturn(servletStream(toInputStream(PATCH, UTF_8)));
+
+        doAnswer(i -> {
+            ((HttpServletResponse) i.getArgument(1)).setStatus(204);
+            return null;
+        }).when(chain).doFilter(any(HttpServletRequest.class), any(ServletResponse.class));
+
+        final JsonMergePatchFilter toTest = new JsonMergePatchFilter();
+        toTest.init(config);
+
+        toTest.doFilter(request, response, chain);
+
+        verify(dispatcher).forward(requestCaptor.capture(), any(HttpServletResponse.class));
+
+        final HttpServletRequest get = requestCaptor.getValue();
+        assertNull(get.getHeader("If-None-Match"));
+        assertNull(get.getHeader("if-modified-since"));
+        assertFalse(get.getHeaders("if-none-match").hasMoreElements());
+        assertEquals(Arrays.asList("Accept-Language", "accept"), Collections.list(get.getHeaderNames()));
+    }
+
+    /* The compaction filter is mapped after this one, and sees the forwarded GET through the FORWARD dispatcher */
+    @Test
+    public void returnRepresentationCompactedByInnerFilterTest() throws Exception {
+        final ByteArrayOutputStream body = representationRequest();
+        final CompactionFilter compaction = compactionFilter();
+
+        final JsonMergePatchFilter toTest = new JsonMergePatchFilter();
+        toTest.init(config);
+
+        forwardThrough(compaction);
+        toTest.doFilter(request, response, (req, resp) -> compaction.doFilter(req, resp, this::patched));
+
+        assertCompact(new String(body.toByteArray(), UTF_8));
+        assertNotSame(forwarded, served);
+    }
+
+    /* The compaction filter is mapped before this one, and to FORWARD as well; the nested dispatch passes through */
+    @Test
+    public void returnRepresentationCompactedByOuterFilterTest() throws Exception {
+        final ByteArrayOutputStream body = representationRequest();
+        final CompactionFilter compaction = compactionFilter();
+
+        final JsonMergePatchFilter toTest = new JsonMergePatchFilter();
+        toTest.init(config);
+
+        forwardThrough(compaction);
+        compaction.doFilter(request, response, (req, resp) -> toTest.doFilter(req, resp, this::patched));
+
+        assertCompact(new String(body.toByteArray(), UTF_8));
+        assertSame(forwarded, served);
+        assertNull(request.getAttribute(CompactionFilter.class.getName() + ".compacting"));
+    }
+
+    /* A deferred response buffers writes, but a write listener is given to the wrapped response */
+    @Test
+    public void deferredWriteListenerTest() throws Exception {
+        final ServletOutputStream wrapped = mock(ServletOutputStream.class);
+        final WriteListener listener = mock(WriteListener.class);
+        when(response.getOutputStream()).thenReturn(wrapped);
+
+        new DeferredResponse(response).getOutputStream().setWriteListener(listener);
+
+        verify(wrapped).setWriteListener(listener);
+    }
+
+    @Test
+    public void returnRepresentationFailedPatchTest() throws Exception {
+        when(request.getMethod()).thenReturn("PATCH");
+        when(request.getHeader("content-type")).thenReturn(JSON_MERGE_PATCH);
+        when(request.getHeader("prefer")).thenReturn("handling=lenient; return=representation");
+        when(request.getInputStream()).thenReturn(servletStream(toInputStream(PATCH, UTF_8)));
+
+        doAnswer(i -> {
+            ((HttpServletResponse) i.getArgument(1)).setStatus(412);
+            return null;
+        }).when(chain).doFilter(any(HttpServletRequest.class), any(ServletResponse.class));
+
+        final JsonMergePatchFilter toTest = new JsonMergePatchFilter();
+        toTest.init(config);
+
+        toTest.doFilter(request, response, chain);
+
+        verify(response).setStatus(412);
+        verify(request, never()).getRequestDispatcher(anyString());
+    }
+
+    /* Buffers of a deferred response go back to the pool even if the chain fails */
+    @Test
+    public void returnRepresentationChainFailsTest() throws Exception {
+        when(request.getMethod()).thenReturn("PATCH");
+        when(request.getHeader("content-type")).thenReturn(JSON_MERGE_PATCH);
+        when(request.getHeader("prefer")).thenReturn("return=representation");
+        when(request.getInputStream()).thenReturn(servletStream(toInputStream(PATCH, UTF_8)));
+
+        doAnswer(i -> {
+            ((HttpServletResponse) i.getArgument(1)).getOutputStream().write("partial".getBytes(UTF_8));
+            throw new ServletException("failed patch");
+        }).when(chain).doFilter(any(HttpServletRequest.class), any(ServletResponse.class));
+
+        final JsonMergePatchFilter toTest = new JsonMergePatchFilter();
+        toTest.init(config);
+
+        // Pool enough arrays that every buffer of the request is taken from the pool
+        final byte[][] pooled = new byte[3][];
+        for (int i = 0; i < pooled.length; i++) {
+            pooled[i] = BufferPool.shared().acquire(BufferPool.MIN_SIZE);
+        }
+        for (final byte[] array : pooled) {
+            BufferPool.shared().release(array);
+        }
+
+        final long retained = BufferPool.shared().retained();
+        try {
+            toTest.doFilter(request, response, chain);
+            fail("Expected the failure of the chain to be thrown");
+        } catch (final ServletException e) {
+            // The deferred body, and the translated patch, are both back in the pool
+            assertEquals(retained, BufferPool.shared().retained());
+        }
+        verify(response, never()).getOutputStream();
+    }
+
+    /* Set up a merge patch request for a representation, and return where the response body goes */
+    private ByteArrayOutputStream representationRequest() throws Exception {
+        final Map<String, Object> attributes = new HashMap<>();
+        doAnswer(i -> attributes.put(i.getArgument(0), i.getArgument(1))).when(request).setAttribute(anyString(),
+                                                                                                   any());
+        doAnswer(i -> attributes.remove(i.getArgument(0))).when(request).removeAttribute(anyString());
+        when(request.getAttribute(anyString())).thenAnswer(i -> attributes.get(i.getArgument(0)));
+
+        when(request.getMethod()).thenReturn("PATCH");
+        when(request.getHeader("content-type")).thenReturn(JSON_MERGE_PATCH);
+        when(request.getHeader("prefer")).thenReturn("return=representation");
+        when(request.getHeaders("prefer")).thenAnswer(i -> Collections.enumeration(Arrays.asList(
+            "return=representation")));
+        when(request.getContextPath()).thenReturn("/fcrepo");
+        when(request.getRequestURI()).thenReturn("/fcrepo/rest/cows/123");
+        when(request.getRequestDispatcher("/rest/cows/123")).thenReturn(dispatcher);
+        when(request.getInputStream()).thenReturn(servletStream(toInputStream(PATCH, UTF_8)));
+
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        when(response.getOutputStream()).thenReturn(new ServletOutputStream() {
+
+            @Override
+            public void write(int b) {
+                body.write(b);
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+        });
+
+        return body;
+    }
+
+    private CompactionFilter compactionFilter() throws Exception {
+        final String CONTEXT_URI = "http://example.org/JsonMergePatchFilterTest";
+        System.setProperty(CONTEXT_COMPACTION_URI_PROP, CONTEXT_URI);
+        System.setProperty(PRELOAD_URI_PROP, CONTEXT_URI);
+        System.setProperty(PRELOAD_FILE_PROP, Paths.get(JsonldTestUtil.class.getResource("/preload-context.jsonld")
+                                                                          .toURI()).toFile().getAbsolutePath());
+
+        final CompactionFilter compaction = new CompactionFilter();
+        compaction.init(config);
+        return compaction;
+    }
+
+    /* Forward through the given filter, as if it were mapped to the FORWARD dispatcher, to Fedora's GET */
+    private void forwardThrough(CompactionFilter compaction) throws Exception {
+        doAnswer(i -> {
+            forwarded = i.getArgument(1);
+            compaction.doFilter(i.getArgument(0), i.getArgument(1), (req, resp) -> {
+                served = resp;
+                ((HttpServletResponse) resp).setHeader("Content-Type", "application/ld+json");
+                try (OutputStream out = resp.getOutputStream()) {
+                    out.write(getUncompactedJsonld().getBytes(UTF_8));
+                }
+            });
+            return null;
+        }).when(dispatcher).forward(any(HttpServletRequest.class), any(HttpServletResponse.class));
+    }
+
+    /* Fedora's response to a successful PATCH */
+    private void patched(ServletRequest req, ServletResponse resp) {
+        ((HttpServletResponse) resp).setStatus(204);
+    }
+
+    private ServletInputStream servletStream(InputStream content) {
+        return new ServletInputStream() {
+
+            @Override
+            public int read() throws IOException {
+                return content.read();
+            }
+
+            @Override
+            public void setReadListener(ReadListener readListener) {
+
+            }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public boolean isFinished() {
+                return false;
+            }
+
+            @Override
+            public void close() throws IOException {
+                content.close();
+            }
+        };
+    }
+}
@@ -22,6 +22,7 @@ import static org.dataconservancy.fcrepo.jsonld.request.SubstitutionRequestFilte
 import static org.dataconservancy.fcrepo.jsonld.request.SubstitutionRequestFilter.SUBSTITUTION_REQUEST_REPLACEMENT;
 import static org.dataconservancy.fcrepo.jsonld.request.SubstitutionRequestFilter.SUBSTITUTION_REQUEST_TERM;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -163,6 +164,36 @@ public class SubstitutionFilterTest {
         assertEquals(TRANSLATED, IOUtils.toString(requestCaptor.getValue().getInputStream(), UTF_8));
     }
 
+    @Test
+    public void matchUrlencodedParametersTest() throws Exception {
+
+        final String INPUT = "query=" + URLEncoder.encode("SELECT * WHERE { <is/input> ?p ?o }", UTF_8.toString()) +
+                             "&limit=10";
+        final String TRANSLATED = "query=" + URLEncoder.encode("SELECT * WHERE { <is excellent/awesome> ?p ?o }",
+                                                               UTF_8.toString()) + "&limit=10";
+
+        System.setProperty(SUBSTITUTION_REQUEST_TERM, "is/input");
+        System.setProperty(SUBSTITUTION_REQUEST_REPLACEMENT, "is excellent/awesome");
+        System.setProperty(SUBSTITUTION_REQUEST_HOST, HOST);
+
+        when(request.getMethod()).thenReturn("POST");
+        when(request.getHeader("host")).thenReturn(HOST);
+        when(request.getContentType()).thenReturn("application/x-www-form-urlencoded");
+        when(request.getInputStream()).thenReturn(servletStream(toInputStream(INPUT, UTF_8)));
+
+        final SubstitutionRequestFilter toTest = new SubstitutionRequestFilter();
+        toTest.init(config);
+
+        toTest.doFilter(request, response, chain);
+
+        verify(chain).doFilter(requestCaptor.capture(), eq(response));
+
+        // The substituted body has a different length, which is not known until it has been read
+        assertEquals(-1, requestCaptor.getValue().getContentLength());
+        assertNull(requestCaptor.getValue().getHeader("content-length"));
+        assertEquals(TRANSLATED, IOUtils.toString(requestCaptor.getValue().getInputStream(), UTF_8));
+    }
+
     private ServletInputStream servletStream(InputStream content) {
         return new ServletInputStream() {
 
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.fcrepo.jsonld.response;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.dataconservancy.fcrepo.jsonld.response.SubstitutionResponseFilter.SUBSTITUTION_RESPONSE_BUFFER;
+import static org.dataconservancy.fcrepo.jsonld.response.SubstitutionResponseFilter.SUBSTITUTION_RESPONSE_HOST;
+import static org.dataconservancy.fcrepo.jsonld.response.SubstitutionResponseFilter.SUBSTITUTION_RESPONSE_REPLACEMENT;
+import static org.dataconservancy.fcrepo.jsonld.response.SubstitutionResponseFilter.SUBSTITUTION_RESPONSE_TERM;
+import static org.dataconservancy.fcrepo.jsonld.response.SubstitutionResponseFilter.SUBSTITUTION_RESPONSE_TYPES;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+/**
+ * @author apb@jhu.edu
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class SubstitutionResponseFilterTest {
+
+    static final String HOST = "myHost";
+
+    @Mock
+    FilterChain chain;
+
+    @Mock
+    FilterConfig config;
+
+    @Mock
+    HttpServletRequest request;
+
+    @Mock
+    HttpServletResponse response;
+
+    @After
+    public void tearDown() {
+        System.clearProperty(SUBSTITUTION_RESPONSE_HOST + ".a");
+        System.clearProperty(SUBSTITUTION_RESPONSE_TERM + ".a");
+        System.clearProperty(SUBSTITUTION_RESPONSE_REPLACEMENT + ".a");
+        System.clearProperty(SUBSTITUTION_RESPONSE_HOST + ".b");
+        System.clearProperty(SUBSTITUTION_RESPONSE_TERM + ".b");
+        System.clearProperty(SUBSTITUTION_RESPONSE_REPLACEMENT + ".b");
+        System.clearProperty(SUBSTITUTION_RESPONSE_TYPES + ".a");
+        System.clearProperty(SUBSTITUTION_RESPONSE_BUFFER);
+    }
+
+    /* Several rules for one host, with terms split across writes */
+    @Test
+    public void multipleRulesTest() throws Exception {
+        System.setProperty(SUBSTITUTION_RESPONSE_HOST + ".a", HOST);
+        System.setProperty(SUBSTITUTION_RESPONSE_TERM + ".a", "fcrepo:8080");
+        System.setProperty(SUBSTITUTION_RESPONSE_REPLACEMENT + ".a", "pass.local");
+        System.setProperty(SUBSTITUTION_RESPONSE_HOST + ".b", HOST);
+        System.setProperty(SUBSTITUTION_RESPONSE_TERM + ".b", "cow");
+        System.setProperty(SUBSTITUTION_RESPONSE_REPLACEMENT + ".b", "bull");
+
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+        when(request.getHeader("host")).thenReturn(HOST);
+        when(response.getOutputStream()).thenReturn(servletStream(body));
+
+        doAnswer(i -> {
+            final ServletResponse resp = i.getArgument(1);
+            resp.setContentType("application/ld+json");
+            resp.getOutputStream().write("{\"@id\": \"http://fcrepo:80".getBytes(UTF_8));
+            resp.getOutputStream().flush();
+            resp.getOutputStream().write("80/fcrepo/rest/c".getBytes(UTF_8));
+            resp.getOutputStream().write("ow\"}".getBytes(UTF_8));
+            return null;
+        }).when(chain).doFilter(any(ServletRequest.class), any(ServletResponse.class));
+
+        final SubstitutionResponseFilter toTest = new SubstitutionResponseFilter();
+        toTest.init(config);
+
+        toTest.doFilter(request, response, chain);
+
+        assertEquals("{\"@id\": \"http://pass.local/fcrepo/rest/bull\"}", body.toString("UTF-8"));
+    }
+
+    /* A small substituted body is sent with its substituted length, rather than the length it was given */
+    @Test
+    public void exactLengthTest() throws Exception {
+        final ByteArrayOutputStream body = filterSingleRule("text/plain", "a cow, a cow");
+
+        assertEquals("a bull, a bull", body.toString("UTF-8"));
+        verify(response).setContentLengthLong("a bull, a bull".length());
+        verify(response, never()).setContentLengthLong("a cow, a cow".length());
+    }
+
+    /* A substituted body larger than the buffer is streamed without a length */
+    @Test
+    public void streamedLengthTest() throws Exception {
+        System.setProperty(SUBSTITUTION_RESPONSE_BUFFER, "4");
+
+        final ByteArrayOutputStream body = filterSingleRule("text/plain", "a cow, a cow");
+
+        assertEquals("a bull, a bull", body.toString("UTF-8"));
+        verify(response, never()).setContentLengthLong(anyLong());
+    }
+
+    /* The length of a body that is not substituted is passed along */
+    @Test
+    public void passThroughLengthTest() throws Exception {
+        System.setProperty(SUBSTITUTION_RESPONSE_TYPES + ".a", "application/ld+json");
+
+        final ByteArrayOutputStream body = filterSingleRule("text/plain", "a cow, a cow");
+
+        assertEquals("a cow, a cow", body.toString("UTF-8"));
+        verify(response).setContentLengthLong("a cow, a cow".length());
+    }
+
+    /* A rule restricted to some media types is not applied to others, even with another rule for the host */
+    @Test
+    public void mixedTypesTest() throws Exception {
+        System.setProperty(SUBSTITUTION_RESPONSE_TYPES + ".a", "application/ld+json");
+        System.setProperty(SUBSTITUTION_RESPONSE_HOST + ".b", HOST);
+        System.setProperty(SUBSTITUTION_RESPONSE_TERM + ".b", "a ");
+        System.setProperty(SUBSTITUTION_RESPONSE_REPLACEMENT + ".b", "one ");
+
+        final ByteArrayOutputStream body = filterSingleRule("text/plain", "a cow, a cow");
+
+        assertEquals("one cow, one cow", body.toString("UTF-8"));
+    }
+
+    private ByteArrayOutputStream filterSingleRule(String type, String content) throws Exception {
+        System.setProperty(SUBSTITUTION_RESPONSE_HOST + ".a", HOST);
+        System.setProperty(SUBSTITUTION_RESPONSE_TERM + ".a", "cow");
+        System.setProperty(SUBSTITUTION_RESPONSE_REPLACEMENT + ".a", "bull");
+
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+        when(request.getHeader("host")).thenReturn(HOST);
+        when(response.getOutputStream()).thenReturn(servletStream(body));
+
+        doAnswer(i -> {
+            final ServletResponse resp = i.getArgument(1);
+            ((HttpServletResponse) resp).setHeader("Content-Type", type);
+            resp.setContentLength(content.length());
+            resp.getOutputStream().write(content.getBytes(UTF_8));
+            resp.getOutputStream().flush();
+            return null;
+        }).when(chain).doFilter(any(ServletRequest.class), any(ServletResponse.class));
+
+        final SubstitutionResponseFilter toTest = new SubstitutionResponseFilter();
+        toTest.init(config);
+
+        toTest.doFilter(request, response, chain);
+        return body;
+    }
+
+    private ServletOutputStream servletStream(ByteArrayOutputStream body) {
+        return new ServletOutputStream() {
+
+            @Override
+            public void write(int b) {
+                body.write(b);
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+
+            }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+        };
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.fcrepo.jsonld.substitution;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.apache.commons.io.IOUtils.toInputStream;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+/**
+ * @author apb@jhu.edu
+ */
+public class SubstitutingInputStreamTest {
+
+    static final String TERM = "http://fcrepo:8080/fcrepo/rest";
+
+    static final String REPLACEMENT = "https://pass.local/fcrepo/rest";
+
+    /* Content spanning many chunks is substituted, including terms that straddle chunk boundaries */
+    @Test
+    public void bulkReadTest() throws Exception {
+        final StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            content.append("<").append(TERM).append("/").append(i).append("> ");
+        }
+
+        final SubstitutingInputStream toTest = substitutor().wrap(toInputStream(content, UTF_8));
+
+        assertEquals(content.toString().replace(TERM, REPLACEMENT), IOUtils.toString(toTest, UTF_8));
+        assertTrue(toTest.isFinished());
+    }
+
+    /* Names and values are substituted separately; separators and untouched parameters are kept as they were */
+    @Test
+    public void urlencodedTest() throws Exception {
+        final String query = "SELECT * WHERE { <" + TERM + "/a> ?p ?o }";
+        final String body = "query=" + URLEncoder.encode(query, UTF_8.name()) + "&limit=10&format=ntriples%7Eraw";
+
+        final String expected = "query=" + URLEncoder.encode(query.replace(TERM, REPLACEMENT), UTF_8.name()) +
+                                "&limit=10&format=ntriples%7Eraw";
+
+        assertEquals(expected, IOUtils.toString(substitutor().wrapUrlencoded(toInputStream(body, UTF_8)), UTF_8));
+    }
+
+    /* A very long value is streamed rather than held, and still decodes to the substituted value */
+    @Test
+    public void longUrlencodedValueTest() throws Exception {
+        final StringBuilder value = new StringBuilder();
+        while (value.length() <= UrlencodedSubstitutingOutputStream.VERBATIM_LIMIT * 2) {
+            value.append(TERM).append("/~ ");
+        }
+
+        final String body = "a=b&q=" + URLEncoder.encode(value.toString(), UTF_8.name()) + "&c=d";
+
+        final String substituted = IOUtils.toString(substitutor().wrapUrlencoded(toInputStream(body, UTF_8)),
+                                                    UTF_8);
+
+        assertEquals("a=b&q=" + value.toString().replace(TERM, REPLACEMENT) + "&c=d",
+                     URLDecoder.decode(substituted, UTF_8.name()));
+    }
+
+    private static ByteSubstitutor substitutor() {
+        final Map<String, String> rules = new LinkedHashMap<>();
+        rules.put(TERM, REPLACEMENT);
+        return new ByteSubstitutor(rules);
+    }
+}
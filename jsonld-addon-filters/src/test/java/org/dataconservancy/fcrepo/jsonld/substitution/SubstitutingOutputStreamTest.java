@@ -0,0 +1,134 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.fcrepo.jsonld.substitution;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * @author apb@jhu.edu
+ */
+public class SubstitutingOutputStreamTest {
+
+    static final String INPUT = "{\"@id\": \"http://fcrepo:8080/fcrepo/rest/a\", " +
+                                "\"barn\": \"http://fcrepo:8080/fcrepo/rest/barns/b\", " +
+                                "\"name\": \"fcrepo fcrepo:8080/fcr\"}";
+
+    /* A single term is replaced as String.replace would, no matter how the content is split into writes */
+    @Test
+    public void singleTermTest() throws Exception {
+        final ByteSubstitutor substitutor = substitutor("http://fcrepo:8080/fcrepo/rest",
+                                                        "https://pass.local/fcrepo/rest");
+
+        final String expected = INPUT.replace("http://fcrepo:8080/fcrepo/rest", "https://pass.local/fcrepo/rest");
+
+        for (int chunk = 1; chunk <= INPUT.length(); chunk++) {
+            assertEquals("Chunk size " + chunk, expected, substitute(substitutor, INPUT, chunk));
+        }
+    }
+
+    @Test
+    public void multipleTermsTest() throws Exception {
+        final Map<String, String> rules = new LinkedHashMap<>();
+        rules.put("fcrepo:8080", "pass.local");
+        rules.put("barns", "stables");
+        rules.put("rest/a", "rest/x");
+
+        final String expected = "{\"@id\": \"http://pass.local/fcrepo/rest/x\", " +
+                                "\"barn\": \"http://pass.local/fcrepo/rest/stables/b\", " +
+                                "\"name\": \"fcrepo pass.local/fcr\"}";
+
+        assertEquals(expected, substitute(new ByteSubstitutor(rules), INPUT, 3));
+    }
+
+    /* The leftmost term is replaced, and the longest one of those starting there */
+    @Test
+    public void leftmostLongestTest() throws Exception {
+        final Map<String, String> rules = new LinkedHashMap<>();
+        rules.put("cow", "calf");
+        rules.put("a cow", "a bull");
+        rules.put("w, t", "XXX");
+        rules.put("the cow jumped", "the bull jumped");
+
+        for (int chunk = 1; chunk < 20; chunk++) {
+            assertEquals("a bull, the calf, the bull jumped",
+                         substitute(new ByteSubstitutor(rules), "a cow, the cow, the cow jumped", chunk));
+        }
+    }
+
+    @Test
+    public void multibyteTest() throws Exception {
+        final ByteSubstitutor substitutor = substitutor("küh", "cow");
+
+        assertEquals("cow über cow", substitute(substitutor, "küh über küh", 1));
+    }
+
+    /* Flushing does not write the start of a term that may continue in a later write */
+    @Test
+    public void flushTest() throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final SubstitutingOutputStream toTest = substitutor("input", "output").wrap(out);
+
+        toTest.write("this is inp".getBytes(UTF_8));
+        toTest.flush();
+        assertEquals("this is ", out.toString("UTF-8"));
+
+        toTest.write("ut, or is it in".getBytes(UTF_8));
+        toTest.close();
+        assertEquals("this is output, or is it in", out.toString("UTF-8"));
+    }
+
+    @Test
+    public void hitsTest() throws Exception {
+        final ByteSubstitutor substitutor = substitutor("fcrepo:8080", "pass.local");
+
+        substitute(substitutor, INPUT, 5);
+        substitute(substitutor, INPUT, 7);
+
+        assertEquals(Long.valueOf(6), substitutor.hits().get("fcrepo:8080"));
+    }
+
+    private static ByteSubstitutor substitutor(String term, String replacement) {
+        final Map<String, String> rules = new LinkedHashMap<>();
+        rules.put(term, replacement);
+        return new ByteSubstitutor(rules);
+    }
+
+    private static String substitute(ByteSubstitutor substitutor, String content, int chunk) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] bytes = content.getBytes(UTF_8);
+
+        try (SubstitutingOutputStream toTest = substitutor.wrap(out)) {
+            for (int i = 0; i < bytes.length; i += chunk) {
+                if (chunk == 1) {
+                    toTest.write(bytes[i]);
+                } else {
+                    toTest.write(bytes, i, Math.min(chunk, bytes.length - i));
+                }
+            }
+        }
+
+        return new String(out.toByteArray(), UTF_8);
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.fcrepo.jsonld.substitution;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.dataconservancy.fcrepo.jsonld.substitution.SubstitutionRules.Rule;
+import org.dataconservancy.fcrepo.jsonld.substitution.SubstitutionRules.Substitution;
+import org.junit.Test;
+
+/**
+ * @author apb@jhu.edu
+ */
+public class SubstitutionRulesTest {
+
+    static final String INTERNAL = "http://fcrepo:8080/fcrepo/rest";
+
+    final SubstitutionRules rules = new SubstitutionRules(asList(
+        new Rule("a", "pass.example.org, pass.local", INTERNAL, "https://pass.example.org/fcrepo/rest", null),
+        new Rule("b", "*.example.org", "fcrepo:8080", "proxy.example.org", "application/ld+json"),
+        new Rule("c", "localhost:8080", INTERNAL, "http://localhost:8080/fcrepo/rest", null),
+        new Rule("d", "pass.local", "cow", "bull", null)));
+
+    @Test
+    public void multipleHostsTest() {
+        assertEquals("https://pass.example.org/fcrepo/rest/x",
+                     rules.forHost("pass.example.org").substitutor().substitute(INTERNAL + "/x"));
+        assertEquals("https://pass.example.org/fcrepo/rest/bull",
+                     rules.forHost("PASS.local").substitutor().substitute(INTERNAL + "/cow"));
+    }
+
+    /* Hosts without a port in their pattern match on any port */
+    @Test
+    public void portTest() {
+        assertEquals("https://pass.example.org/fcrepo/rest",
+                     rules.forHost("pass.local:8443").substitutor().substitute(INTERNAL));
+        assertEquals("http://localhost:8080/fcrepo/rest",
+                     rules.forHost("localhost:8080").substitutor().substitute(INTERNAL));
+        assertNull(rules.forHost("localhost"));
+        assertNull(rules.forHost("localhost:9090"));
+    }
+
+    /* Rules from all matching patterns are combined, each applying only to its own media types */
+    @Test
+    public void wildcardTest() {
+        assertEquals("http://proxy.example.org/fcrepo/rest",
+                     rules.forHost("other.example.org").substitutor("application/ld+json").substitute(INTERNAL));
+        assertNull(rules.forHost("other.example.org").substitutor("text/turtle"));
+        assertNull(rules.forHost("other.example.org").substitutor());
+
+        assertEquals("https://pass.example.org/fcrepo/rest",
+                     rules.forHost("pass.example.org").substitutor().substitute(INTERNAL));
+        assertEquals("https://pass.example.org/fcrepo/rest",
+                     rules.forHost("pass.example.org").substitutor("text/turtle").substitute(INTERNAL));
+
+        assertNull(rules.forHost("example.com"));
+    }
+
+    /* Rules on one host with different media types are not applied to each other's types */
+    @Test
+    public void mediaTypesTest() {
+        final SubstitutionRules typed = new SubstitutionRules(asList(
+            new Rule("jsonld", "pass.local", "cow", "bull", "application/ld+json"),
+            new Rule("turtle", "pass.local", "hen", "rooster", "text/turtle"),
+            new Rule("all", "pass.local", "farm", "ranch", null)));
+
+        final Substitution substitution = typed.forHost("pass.local");
+
+        assertEquals("bull hen ranch", substitution.substitutor("application/ld+json").substitute("cow hen farm"));
+        assertEquals("cow rooster ranch", substitution.substitutor("text/turtle").substitute("cow hen farm"));
+        assertEquals("cow hen ranch", substitution.substitutor("text/plain").substitute("cow hen farm"));
+        assertEquals("cow hen ranch", substitution.substitutor().substitute("cow hen farm"));
+        assertSame(substitution.substitutor("text/turtle"), substitution.substitutor("text/turtle"));
+    }
+
+    @Test
+    public void forwardedHostTest() {
+        final HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getHeader("x-forwarded-host")).thenReturn("pass.local, proxy.internal");
+
+        assertSame(rules.forHost("pass.local"), rules.forRequest(request));
+
+        final HttpServletRequest direct = mock(HttpServletRequest.class);
+        when(direct.getHeader("host")).thenReturn("localhost:8080");
+
+        assertSame(rules.forHost("localhost:8080"), rules.forRequest(direct));
+    }
+
+    /* Each rule counts its replacements, whichever host they were made for */
+    @Test
+    public void hitsTest() {
+        rules.forHost("pass.local").substitutor().substitute(INTERNAL + " " + INTERNAL + " cow");
+        rules.forHost("pass.example.org").substitutor().substitute(INTERNAL);
+
+        assertEquals(Long.valueOf(3), rules.hits().get("a: " + INTERNAL));
+        assertEquals(Long.valueOf(1), rules.hits().get("d: cow"));
+        assertEquals(Long.valueOf(0), rules.hits().get("b: fcrepo:8080"));
+    }
+}
@@ -0,0 +1,331 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.fcrepo.jsonld.loadtest;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.http.Header;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPatch;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+import org.dataconservancy.fcrepo.jsonld.loadtest.Mix.Operation;
+import org.dataconservancy.fcrepo.jsonld.metrics.Histogram;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Replays a mix of PASS-like traffic against a local Fedora with the filters installed, and reports throughput,
+ * latency, and allocation in the container.
+ * <p>
+ * Each worker thread first creates <code>loadtest.resources</code> resources of its own, which it alone patches;
+ * any worker may GET any of them. After <code>loadtest.warmup</code> seconds of load that is not measured, the mix
+ * given by <code>loadtest.mix</code> is run for <code>loadtest.duration</code> seconds. The report is logged, and
+ * written to <code>loadtest.report</code>. The test fails if any request fails, whether during the warm-up or the
+ * measured run, since the numbers would not mean much otherwise.
+ * </p>
+ *
+ * @author apb@jhu.edu
+ */
+public class LoadIT {
+
+    static final Logger LOG = LoggerFactory.getLogger(LoadIT.class);
+
+    static final String fcrepoBaseURI = String.format("http://localhost:%s/%s/rest/", System.getProperty(
+        "fcrepo.dynamic.test.port", "8080"), System.getProperty("fcrepo.cxtPath", "fcrepo"));
+
+    static final int DURATION = Integer.getInteger("loadtest.duration", 60);
+
+    static final int WARMUP = Integer.getInteger("loadtest.warmup", 15);
+
+    static final int THREADS = Integer.getInteger("loadtest.threads", 8);
+
+    static final int RESOURCES = Integer.getInteger("loadtest.resources", 10);
+
+    static final int BINARY_SIZE = Integer.getInteger("loadtest.binary.size", 64 * 1024);
+
+    static final Integer JMX_PORT = Integer.getInteger("loadtest.jmx.port");
+
+    static final String MIX = System.getProperty("loadtest.mix", "get=60,post=20,patch=15,binary=5");
+
+    static final String REPORT = System.getProperty("loadtest.report");
+
+    static final String CONTEXT = "http://example.org/farm";
+
+    static final ContentType JSONLD = ContentType.create("application/ld+json", UTF_8);
+
+    static final ContentType MERGE_PATCH = ContentType.create("application/merge-patch+json", UTF_8);
+
+    static final String COW = "{ " +
+                              "\"@id\": \"\", " +
+                              "\"@type\": \"Cow\", " +
+                              "\"healthy\": true, " +
+                              "\"milkVolume\": 100.6, " +
+                              "\"birthDate\": \"1980-03-20T21:25:43.511Z\", " +
+                              "\"name\": \"%s\", " +
+                              "\"weight\": %d, " +
+                              "\"@context\": \"" + CONTEXT + "\"" +
+                              "}";
+
+    static final String PATCH = "{ " +
+                                "\"@id\": \"%s\", " +
+                                "\"weight\": %d, " +
+                                "\"@context\": \"" + CONTEXT + "\"" +
+                                "}";
+
+    final Map<Operation, Histogram> latency = new EnumMap<>(Operation.class);
+
+    final Map<Operation, LongAdder> errors = new EnumMap<>(Operation.class);
+
+    final AtomicReference<String> firstError = new AtomicReference<>();
+
+    @Test
+    public void loadTest() throws Exception {
+        final Mix mix = Mix.parse(MIX);
+
+        final PoolingHttpClientConnectionManager connections = new PoolingHttpClientConnectionManager();
+        connections.setMaxTotal(THREADS);
+        connections.setDefaultMaxPerRoute(THREADS);
+
+        try (CloseableHttpClient http = HttpClients.custom().setConnectionManager(connections).build()) {
+
+            final List<List<URI>> owned = new ArrayList<>();
+            final List<URI> all = new ArrayList<>();
+            awaitRepository(http);
+            for (int t = 0; t < THREADS; t++) {
+                final List<URI> resources = new ArrayList<>();
+                for (int r = 0; r < RESOURCES; r++) {
+                    resources.add(create(http, new Random(t * RESOURCES + r)));
+                }
+                owned.add(resources);
+                all.addAll(resources);
+            }
+
+            run(http, mix, owned, all, WARMUP);
+            assertNoErrors("warm-up");
+
+            final ServerStats server = JMX_PORT != null ? new ServerStats(JMX_PORT) : null;
+            try {
+                final ServerStats.Snapshot before = server != null ? server.snapshot() : null;
+                final long start = System.nanoTime();
+                run(http, mix, owned, all, DURATION);
+                final long elapsed = System.nanoTime() - start;
+                final ServerStats.Snapshot used = server != null ? server.snapshot().since(before) : null;
+
+                final String report = report(mix, elapsed, used);
+                LOG.info("Load test report:\n{}", report);
+                if (REPORT != null) {
+                    Files.write(Paths.get(REPORT), report.getBytes(UTF_8));
+                }
+            } finally {
+                if (server != null) {
+                    server.close();
+                }
+            }
+        }
+
+        assertNoErrors("measured run");
+    }
+
+    /* Any failed request fails the test, whether or not it was measured */
+    private void assertNoErrors(String phase) {
+        long failed = 0;
+        for (final LongAdder count : errors.values()) {
+            failed += count.sum();
+        }
+        assertEquals("Failed requests in the " + phase + ", the first being " + firstError.get(), 0, failed);
+    }
+
+    private void reset() {
+        for (final Operation op : Operation.values()) {
+            latency.put(op, new Histogram());
+            errors.put(op, new LongAdder());
+        }
+        firstError.set(null);
+    }
+
+    /* Run the mix on every thread for a number of seconds */
+    private void run(CloseableHttpClient http, Mix mix, List<List<URI>> owned, List<URI> all, int seconds)
+            throws Exception {
+        reset();
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        final ExecutorService workers = Executors.newFixedThreadPool(THREADS);
+        try {
+            final List<Future<?>> running = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                final List<URI> mine = owned.get(t);
+                final Random random = new Random(t);
+                running.add(workers.submit(() -> {
+                    while (System.nanoTime() < deadline) {
+                        final Operation op = mix.pick(random);
+                        final long start = System.nanoTime();
+                        try {
+                            perform(http, op, random, mine, all);
+                            latency.get(op).record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+                        } catch (final Exception e) {
+                            errors.get(op).increment();
+                            firstError.compareAndSet(null, op + ": " + e.getMessage());
+                        }
+                    }
+                }));
+            }
+            for (final Future<?> worker : running) {
+                worker.get();
+            }
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    private void perform(CloseableHttpClient http, Operation op, Random random, List<URI> mine, List<URI> all)
+            throws IOException {
+        switch (op) {
+        case GET: {
+            final HttpGet get = new HttpGet(all.get(random.nextInt(all.size())));
+            get.setHeader("Accept", "application/ld+json");
+            execute(http, get);
+            break;
+        }
+        case POST:
+            create(http, random);
+            break;
+        case PATCH: {
+            final URI resource = mine.get(random.nextInt(mine.size()));
+            final HttpPatch patch = new HttpPatch(resource);
+            patch.setEntity(new StringEntity(String.format(PATCH, resource, random.nextInt(1000)), MERGE_PATCH));
+            execute(http, patch);
+            break;
+        }
+        case BINARY: {
+            final byte[] content = new byte[BINARY_SIZE];
+            random.nextBytes(content);
+            final HttpPost post = new HttpPost(fcrepoBaseURI);
+            post.setEntity(new ByteArrayEntity(content, ContentType.APPLICATION_OCTET_STREAM));
+            execute(http, post);
+            break;
+        }
+        default:
+            throw new IllegalArgumentException("Unknown operation " + op);
+        }
+    }
+
+    private static URI create(CloseableHttpClient http, Random random) throws IOException {
+        final HttpPost post = new HttpPost(fcrepoBaseURI);
+        post.setEntity(new StringEntity(String.format(COW, "cow-" + random.nextInt(), random.nextInt(1000)),
+                                        JSONLD));
+        final Header location = execute(http, post).getFirstHeader("Location");
+        if (location == null) {
+            throw new IOException("No location for created resource");
+        }
+        return URI.create(location.getValue());
+    }
+
+    /* Execute a request, consuming the response, and failing unless it succeeded */
+    private static CloseableHttpResponse execute(CloseableHttpClient http, HttpUriRequest request)
+            throws IOException {
+        try (CloseableHttpResponse response = http.execute(request)) {
+            final int status = response.getStatusLine().getStatusCode();
+            if (status > 299) {
+                throw new IOException(request.getMethod() + " " + request.getURI() + " failed with " + response
+                    .getStatusLine() + ": " + EntityUtils.toString(response.getEntity()));
+            }
+            EntityUtils.consume(response.getEntity());
+            return response;
+        }
+    }
+
+    /* The container may still be deploying Fedora when the test starts */
+    private static void awaitRepository(CloseableHttpClient http) throws InterruptedException {
+        for (int tries = 0; tries < 60; tries++) {
+            try {
+                execute(http, new HttpGet(fcrepoBaseURI));
+                return;
+            } catch (final IOException e) {
+                Thread.sleep(1000);
+            }
+        }
+        throw new IllegalStateException("Repository at " + fcrepoBaseURI + " did not come up");
+    }
+
+    private String report(Mix mix, long elapsedNanos, ServerStats.Snapshot used) {
+        final double seconds = elapsedNanos / 1e9;
+        final StringBuilder report = new StringBuilder();
+
+        report.append(String.format("Load test: %d threads for %ds, after %ds warm-up, mix %s%n",
+                                    THREADS, DURATION, WARMUP, mix));
+        report.append(String.format("%-8s %10s %8s %10s %10s %10s %10s %10s%n",
+                                    "op", "count", "errors", "ops/s", "p50 ms", "p99 ms", "p999 ms", "max ms"));
+
+        long total = 0;
+        long failed = 0;
+        for (final Operation op : mix.operations()) {
+            final Histogram h = latency.get(op);
+            total += h.count();
+            failed += errors.get(op).sum();
+            report.append(String.format("%-8s %10d %8d %10.1f %10.2f %10.2f %10.2f %10.2f%n",
+                                        op.name().toLowerCase(), h.count(), errors.get(op).sum(),
+                                        h.count() / seconds, millis(h.valueAtQuantile(0.5)),
+                                        millis(h.valueAtQuantile(0.99)), millis(h.valueAtQuantile(0.999)),
+                                        millis(h.max())));
+        }
+        report.append(String.format("%-8s %10d %8d %10.1f%n", "total", total, failed, total / seconds));
+
+        if (used != null) {
+            report.append(String.format("Server: %.1f MB allocated, %.1f KB per request, %d collections taking %d ms%n",
+                                        used.allocated / (1024.0 * 1024.0),
+                                        total > 0 ? used.allocated / 1024.0 / total : 0.0,
+                                        used.collections, used.collectionMillis));
+            report.append(String.format("Allocation is a lower bound: only threads alive at both snapshots are "
+                                        + "counted, so bytes allocated by threads that ended during the run are "
+                                        + "missing%n"));
+        } else {
+            report.append(String.format("Server: allocation not measured, loadtest.jmx.port is not set%n"));
+        }
+
+        return report.toString();
+    }
+
+    private static double millis(long micros) {
+        return micros / 1000.0;
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.fcrepo.jsonld.loadtest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Weighted mix of load test operations.
+ * <p>
+ * Given as comma separated <code>operation=weight</code> pairs, such as
+ * <code>get=60,post=20,patch=15,binary=5</code>. Operations are chosen at random in proportion to their weights;
+ * those not listed are never chosen.
+ * </p>
+ *
+ * @author apb@jhu.edu
+ */
+class Mix {
+
+    /**
+     * Operation against the repository.
+     */
+    enum Operation {
+        /** GET of a JSON-LD resource, compacted by the compaction filter */
+        GET,
+        /** POST of a new JSON-LD resource, through the deserialization filter */
+        POST,
+        /** PATCH of a JSON-LD resource with a JSON merge patch, through the merge patch filter */
+        PATCH,
+        /** POST of a binary, which the filters pass through */
+        BINARY
+    }
+
+    private final List<Operation> operations = new ArrayList<>();
+
+    private final List<Integer> cumulative = new ArrayList<>();
+
+    private final int total;
+
+    private Mix(List<Operation> operations, List<Integer> weights) {
+        int sum = 0;
+        for (int i = 0; i < operations.size(); i++) {
+            sum += weights.get(i);
+            this.operations.add(operations.get(i));
+            this.cumulative.add(sum);
+        }
+        this.total = sum;
+    }
+
+    /**
+     * Parse a mix.
+     *
+     * @param spec Comma separated <code>operation=weight</code> pairs.
+     * @return the mix
+     * @throws IllegalArgumentException if an operation is unknown, a weight is negative, or all weights are zero.
+     */
+    static Mix parse(String spec) {
+        final List<Operation> operations = new ArrayList<>();
+        final List<Integer> weights = new ArrayList<>();
+
+        for (final String pair : spec.split(",")) {
+            if (pair.trim().isEmpty()) {
+                continue;
+            }
+            final String[] parts = pair.split("=", 2);
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Expected operation=weight, got '" + pair + "'");
+            }
+
+            final Operation operation = Operation.valueOf(parts[0].trim().toUpperCase());
+            final int weight = Integer.parseInt(parts[1].trim());
+            if (weight < 0) {
+                throw new IllegalArgumentException("Negative weight for " + operation);
+            }
+            operations.add(operation);
+            weights.add(weight);
+        }
+
+        final Mix mix = new Mix(operations, weights);
+        if (mix.total <= 0) {
+            throw new IllegalArgumentException("No operations in mix '" + spec + "'");
+        }
+        return mix;
+    }
+
+    /**
+     * Choose an operation.
+     *
+     * @param random Source of randomness.
+     * @return the operation
+     */
+    Operation pick(Random random) {
+        final int n = random.nextInt(total);
+        for (int i = 0; i < cumulative.size(); i++) {
+            if (n < cumulative.get(i)) {
+                return operations.get(i);
+            }
+        }
+        throw new IllegalStateException("Unreachable");
+    }
+
+    /**
+     * Operations in the mix, in the order given.
+     *
+     * @return the operations
+     */
+    List<Operation> operations() {
+        return Collections.unmodifiableList(operations);
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder spec = new StringBuilder();
+        int previous = 0;
+        for (int i = 0; i < operations.size(); i++) {
+            if (i > 0) {
+                spec.append(',');
+            }
+            spec.append(operations.get(i).name().toLowerCase()).append('=').append(cumulative.get(i) - previous);
+            previous = cumulative.get(i);
+        }
+        return spec.toString();
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2017 Johns Hopkins University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dataconservancy.fcrepo.jsonld.loadtest;
+
+import static java.lang.management.ManagementFactory.GARBAGE_COLLECTOR_MXBEAN_DOMAIN_TYPE;
+import static java.lang.management.ManagementFactory.THREAD_MXBEAN_NAME;
+import static java.lang.management.ManagementFactory.newPlatformMXBeanProxy;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import javax.management.MBeanServerConnection;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXConnectorFactory;
+import javax.management.remote.JMXServiceURL;
+
+import com.sun.management.ThreadMXBean;
+
+/**
+ * Allocation and garbage collection in the servlet container, read over JMX.
+ * <p>
+ * Allocation is the sum of bytes allocated by each live thread. Threads that end between two snapshots take their
+ * allocation with them, so the difference is a lower bound; Tomcat's request threads are pooled, so for a steady
+ * load it is close.
+ * </p>
+ *
+ * @author apb@jhu.edu
+ */
+class ServerStats implements AutoCloseable {
+
+    private final JMXConnector connector;
+
+    private final ThreadMXBean threads;
+
+    private final List<GarbageCollectorMXBean> collectors = new ArrayList<>();
+
+    /**
+     * Connect to a container's platform MBean server.
+     *
+     * @param port JMX port of the container, on localhost.
+     * @throws IOException if the container cannot be reached
+     */
+    ServerStats(int port) throws IOException {
+        this.connector = JMXConnectorFactory.connect(new JMXServiceURL(String.format(
+            "service:jmx:rmi:///jndi/rmi://localhost:%d/jmxrmi", port)));
+
+        final MBeanServerConnection server = connector.getMBeanServerConnection();
+        this.threads = newPlatformMXBeanProxy(server, THREAD_MXBEAN_NAME, ThreadMXBean.class);
+
+        try {
+            for (final ObjectName name : server.queryNames(new ObjectName(GARBAGE_COLLECTOR_MXBEAN_DOMAIN_TYPE +
+                                                                          ",*"), null)) {
+                collectors.add(newPlatformMXBeanProxy(server, name.toString(), GarbageCollectorMXBean.class));
+            }
+        } catch (final MalformedObjectNameException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Take a snapshot.
+     *
+     * @return the snapshot
+     */
+    Snapshot snapshot() {
+        final long[] ids = threads.getAllThreadIds();
+        long allocated = 0;
+        for (final long bytes : threads.getThreadAllocatedBytes(ids)) {
+            if (bytes > 0) {
+                allocated += bytes;
+            }
+        }
+
+        long collections = 0;
+        long collectionMillis = 0;
+        for (final GarbageCollectorMXBean collector : collectors) {
+            collections += Math.max(0, collector.getCollectionCount());
+            collectionMillis += Math.max(0, collector.getCollectionTime());
+        }
+
+        return new Snapshot(allocated, collections, collectionMillis);
+    }
+
+    @Override
+    public void close() throws IOException {
+        connector.close();
+    }
+
+    /**
+     * Cumulative allocation and collection, at a point in time.
+     */
+    static class Snapshot {
+
+        final long allocated;
+
+        final long collections;
+
+        final long collectionMillis;
+
+        Snapshot(long allocated, long collections, long collectionMillis) {
+            this.allocated = allocated;
+            this.collections = collections;
+            this.collectionMillis = collectionMillis;
+        }
+
+        /**
+         * Difference from an earlier snapshot.
+         *
+         * @param earlier The earlier snapshot.
+         * @return the difference
+         */
+        Snapshot since(Snapshot earlier) {
+            return new Snapshot(Math.max(0, allocated - earlier.allocated),
+                                collections - earlier.collections,
+                                collectionMillis - earlier.collectionMillis);
+        }
+    }
+}